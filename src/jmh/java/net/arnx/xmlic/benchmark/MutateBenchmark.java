@@ -0,0 +1,76 @@
+package net.arnx.xmlic.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.arnx.xmlic.Nodes;
+import net.arnx.xmlic.XML;
+
+/**
+ * Manipulation of a fresh copy of the synthetic catalogs, followed by a query
+ * so that the cost of invalidating the caches is included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MutateBenchmark {
+	@Param({ "SMALL", "MEDIUM", "HUGE" })
+	Sample sample;
+
+	XML master;
+	XML xml;
+
+	@Setup
+	public void setup() throws Exception {
+		master = new XML(sample.text());
+	}
+
+	@Setup(Level.Invocation)
+	public void copy() {
+		xml = master.clone();
+	}
+
+	@Benchmark
+	public int setAttribute() {
+		xml.find("item[@type='a']").attr("state", "sold");
+		return xml.evaluate("count(//item[@state])", int.class);
+	}
+
+	@Benchmark
+	public int append() throws Exception {
+		xml.find("section").append("<note>new</note>");
+		return xml.evaluate("count(//note)", int.class);
+	}
+
+	@Benchmark
+	public int remove() {
+		xml.find("item[@type='b']").remove();
+		return xml.evaluate("count(//item)", int.class);
+	}
+
+	@Benchmark
+	public int text() {
+		xml.find("item/name").text("renamed");
+		return xml.evaluate("count(//name[.='renamed'])", int.class);
+	}
+
+	@Benchmark
+	public Nodes normalize() {
+		return xml.normalize();
+	}
+}
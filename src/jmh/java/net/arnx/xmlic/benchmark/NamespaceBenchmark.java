@@ -0,0 +1,70 @@
+package net.arnx.xmlic.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.arnx.xmlic.Nodes;
+import net.arnx.xmlic.XML;
+
+/**
+ * Queries and namespace cleanup on the namespace-heavy document.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NamespaceBenchmark {
+	XML master;
+	XML xml;
+
+	@Setup
+	public void setup() throws Exception {
+		master = new XML(Sample.NAMESPACED.text());
+		master.addNamespaceMapping("xbrli", "http://www.xbrl.org/2003/instance");
+		master.addNamespaceMapping("us-gaap", "http://fasb.org/us-gaap/2020");
+		master.addNamespaceMapping("soap", "http://schemas.xmlsoap.org/soap/envelope/");
+	}
+
+	@Setup(Level.Invocation)
+	public void copy() {
+		xml = master.clone();
+	}
+
+	@Benchmark
+	public Nodes prefixedSelect() {
+		return master.select("/soap:Envelope/soap:Body//us-gaap:Revenues[@contextRef='FY2020']");
+	}
+
+	@Benchmark
+	public Nodes contextJoin() {
+		return master.select("//xbrli:context[@id = //us-gaap:*/@contextRef]");
+	}
+
+	@Benchmark
+	public int namespaceAxis() {
+		return master.evaluate("count(//namespace::*)", int.class);
+	}
+
+	@Benchmark
+	public Nodes normalize() {
+		return xml.normalize();
+	}
+
+	@Benchmark
+	public Nodes removeNamespace() {
+		return xml.find("//us-gaap:*").removeNamespace("http://fasb.org/us-gaap/2020");
+	}
+}
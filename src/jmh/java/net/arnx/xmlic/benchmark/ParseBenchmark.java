@@ -0,0 +1,68 @@
+package net.arnx.xmlic.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.arnx.xmlic.Nodes;
+import net.arnx.xmlic.Status;
+import net.arnx.xmlic.Visitor;
+import net.arnx.xmlic.XML;
+import net.arnx.xmlic.XMLLoader;
+
+/**
+ * Parsing documents with XML.load, a shared XMLLoader and the streaming mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+	@Param({ "SMALL", "MEDIUM", "HUGE", "NAMESPACED" })
+	Sample sample;
+
+	byte[] data;
+	XMLLoader loader;
+	String path;
+
+	@Setup
+	public void setup() {
+		data = sample.bytes();
+		loader = new XMLLoader();
+		path = (sample == Sample.NAMESPACED) ? "//*" : "//item";
+	}
+
+	@Benchmark
+	public XML load() throws Exception {
+		return XML.load(new ByteArrayInputStream(data));
+	}
+
+	@Benchmark
+	public XML loadWithLoader() throws Exception {
+		return loader.load(new ByteArrayInputStream(data));
+	}
+
+	@Benchmark
+	public void stream(final Blackhole bh) throws Exception {
+		loader.stream(new ByteArrayInputStream(data), path, new Visitor<Nodes>() {
+			@Override
+			public void visit(Nodes current, Status status) {
+				bh.consume(current);
+			}
+		});
+	}
+}
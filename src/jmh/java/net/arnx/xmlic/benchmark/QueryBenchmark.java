@@ -0,0 +1,119 @@
+package net.arnx.xmlic.benchmark;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.arnx.xmlic.Nodes;
+import net.arnx.xmlic.XML;
+
+/**
+ * Traversal and XPath evaluation on the synthetic catalogs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+	@Param({ "SMALL", "MEDIUM", "HUGE" })
+	Sample sample;
+
+	XML xml;
+	Nodes items;
+	Nodes sections;
+	XML parallel;
+	String lastId;
+
+	@Setup
+	public void setup() throws Exception {
+		xml = new XML(sample.text());
+		items = xml.find("item");
+		sections = xml.find("section");
+		lastId = "i" + (sample.items() - 1);
+
+		parallel = new XML(sample.text());
+		parallel.setForkJoinPool(ForkJoinPool.commonPool());
+		parallel.setParallelThreshold(4);
+	}
+
+	@Benchmark
+	public Nodes find() {
+		return xml.find("item");
+	}
+
+	@Benchmark
+	public Nodes findWithPredicate() {
+		return xml.find("item[@type='b']");
+	}
+
+	@Benchmark
+	public Nodes select() {
+		return xml.select("//item/name/text()");
+	}
+
+	@Benchmark
+	public Nodes selectFromEach() {
+		return sections.select("item[tags/tag='t3']");
+	}
+
+	@Benchmark
+	public Nodes selectFromEachInParallel() {
+		return parallel.find("section").select("item[tags/tag='t3']");
+	}
+
+	@Benchmark
+	public Nodes selectFirst() {
+		return xml.doc().selectFirst("//item[@type='c']");
+	}
+
+	@Benchmark
+	public Nodes filter() {
+		return items.filter("@type='a'");
+	}
+
+	@Benchmark
+	public Nodes idLookup() {
+		return xml.select("//item[@id='" + lastId + "']");
+	}
+
+	@Benchmark
+	public int evaluateCount() {
+		return xml.evaluate("count(//item[@price > 500])", int.class);
+	}
+
+	@Benchmark
+	public boolean evaluateExists() {
+		return xml.evaluate("//item[tags/tag='t6']", boolean.class);
+	}
+
+	@Benchmark
+	public String evaluateString() {
+		return xml.evaluate("string(/catalog/section[last()]/item[last()]/name)", String.class);
+	}
+
+	@Benchmark
+	public boolean setComparison() {
+		// no item id equals a section id, so every value is compared
+		return xml.evaluate("//item/@id = //section/@id", boolean.class);
+	}
+
+	@Benchmark
+	public Nodes sort() {
+		Nodes nodes = xml.find("tag").add(xml.find("name")).add(xml.find("desc"));
+		nodes.sort();
+		return nodes;
+	}
+}
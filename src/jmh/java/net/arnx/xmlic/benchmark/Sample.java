@@ -0,0 +1,112 @@
+package net.arnx.xmlic.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Documents for the benchmarks.
+ *
+ * SMALL, MEDIUM and HUGE are synthetic catalogs of sections and items.
+ * NAMESPACED is a SOAP message with an XBRL instance that declares
+ * many namespaces at several levels.
+ */
+public enum Sample {
+	SMALL(10),
+	MEDIUM(1000),
+	HUGE(50000),
+	NAMESPACED(0);
+
+	static final int ITEMS_PER_SECTION = 100;
+
+	private final int items;
+	private byte[] bytes;
+
+	private Sample(int items) {
+		this.items = items;
+	}
+
+	/**
+	 * Gets the number of items of a synthetic catalog.
+	 *
+	 * @return the number of items
+	 */
+	public int items() {
+		return items;
+	}
+
+	public synchronized byte[] bytes() {
+		if (bytes == null) {
+			bytes = (this == NAMESPACED) ? resource("namespaced.xml") : catalog(items).getBytes(StandardCharsets.UTF_8);
+		}
+		return bytes;
+	}
+
+	public String text() {
+		return new String(bytes(), StandardCharsets.UTF_8);
+	}
+
+	static String catalog(int items) {
+		StringBuilder sb = new StringBuilder(items * 200);
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		sb.append("<catalog version=\"1\">\n");
+		for (int i = 0; i < items; i++) {
+			if (i % ITEMS_PER_SECTION == 0) {
+				if (i > 0) sb.append("\t</section>\n");
+				sb.append("\t<section id=\"s").append(i / ITEMS_PER_SECTION).append("\">\n");
+			}
+			sb.append("\t\t<item id=\"i").append(i)
+				.append("\" type=\"").append((char)('a' + i % 3))
+				.append("\" section=\"s").append(i / ITEMS_PER_SECTION)
+				.append("\" price=\"").append(i % 997).append('.').append(i % 100).append("\">");
+			sb.append("<name>Item ").append(i).append("</name>");
+			sb.append("<desc>Description of item ").append(i).append(" &amp; its <![CDATA[options]]></desc>");
+			sb.append("<tags><tag>t").append(i % 7).append("</tag><tag>t").append(i % 11).append("</tag></tags>");
+			sb.append("</item>\n");
+		}
+		if (items > 0) sb.append("\t</section>\n");
+		sb.append("</catalog>\n");
+		return sb.toString();
+	}
+
+	/**
+	 * Generates a flat element with many children and attributes.
+	 * Every tenth child is named "x", the others are named "a" to "i",
+	 * and the only child named "target" is in the middle.
+	 *
+	 * @param width the number of children and attributes
+	 * @return a document text
+	 */
+	static String wide(int width) {
+		StringBuilder sb = new StringBuilder(width * 40);
+		sb.append("<r");
+		for (int i = 0; i < width; i++) {
+			sb.append(" a").append(i).append("=\"").append(i).append('"');
+		}
+		sb.append('>');
+		for (int i = 0; i < width; i++) {
+			String name = (i == width / 2) ? "target" : (i % 10 == 0) ? "x" : String.valueOf((char)('a' + i % 9));
+			sb.append('<').append(name).append(" n=\"").append(i).append("\">").append(i).append("</").append(name).append('>');
+		}
+		sb.append("</r>");
+		return sb.toString();
+	}
+
+	static byte[] resource(String name) {
+		try (InputStream in = Sample.class.getResourceAsStream(name)) {
+			if (in == null) throw new IllegalStateException("resource not found: " + name);
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			int len;
+			while ((len = in.read(buf)) != -1) {
+				out.write(buf, 0, len);
+			}
+			return out.toByteArray();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package net.arnx.xmlic.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.arnx.xmlic.XML;
+import net.arnx.xmlic.XMLWriter;
+import net.arnx.xmlic.XSLT;
+
+/**
+ * Serializing with XMLWriter and transforming with XSLT.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializeBenchmark {
+	@Param({ "SMALL", "MEDIUM", "HUGE", "NAMESPACED" })
+	Sample sample;
+
+	XML xml;
+	byte[] data;
+	XMLWriter writer;
+	XMLWriter prettyWriter;
+	XSLT xslt;
+	ByteArrayOutputStream out;
+
+	@Setup
+	public void setup() throws Exception {
+		data = sample.bytes();
+		xml = XML.load(new ByteArrayInputStream(data));
+		writer = new XMLWriter();
+		prettyWriter = new XMLWriter();
+		prettyWriter.setPrettyPrinting(true);
+		xslt = XSLT.load(new ByteArrayInputStream(Sample.resource("identity.xsl")));
+		out = new ByteArrayOutputStream(data.length * 2);
+	}
+
+	@Benchmark
+	public int writeTo() throws Exception {
+		out.reset();
+		writer.writeTo(out, xml);
+		return out.size();
+	}
+
+	@Benchmark
+	public int writeToPretty() throws Exception {
+		out.reset();
+		prettyWriter.writeTo(out, xml);
+		return out.size();
+	}
+
+	@Benchmark
+	public String xmlToString() {
+		return xml.toString();
+	}
+
+	@Benchmark
+	public XML transform() throws Exception {
+		return xslt.transform(xml);
+	}
+
+	@Benchmark
+	public int transformStream() throws Exception {
+		out.reset();
+		xslt.transform(new ByteArrayInputStream(data), out);
+		return out.size();
+	}
+}
@@ -0,0 +1,82 @@
+package net.arnx.xmlic.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.arnx.xmlic.Nodes;
+import net.arnx.xmlic.XML;
+
+/**
+ * Named child and attribute access, and positional predicates,
+ * on an element with many children and attributes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WideElementBenchmark {
+	@Param({ "100", "10000" })
+	int width;
+
+	XML xml;
+	String lastAttr;
+
+	@Setup
+	public void setup() throws Exception {
+		xml = new XML(Sample.wide(width));
+		lastAttr = "string(/r/@a" + (width - 1) + ")";
+	}
+
+	@Benchmark
+	public int namedChild() {
+		return xml.evaluate("count(/r/target)", int.class);
+	}
+
+	@Benchmark
+	public int namedChildren() {
+		return xml.evaluate("count(/r/x)", int.class);
+	}
+
+	@Benchmark
+	public String namedAttribute() {
+		return xml.evaluate(lastAttr, String.class);
+	}
+
+	@Benchmark
+	public String firstChild() {
+		return xml.evaluate("string(/r/*[1])", String.class);
+	}
+
+	@Benchmark
+	public String lastChild() {
+		return xml.evaluate("string(/r/*[last()])", String.class);
+	}
+
+	@Benchmark
+	public String firstNamedChild() {
+		return xml.evaluate("string(/r/x[1])", String.class);
+	}
+
+	@Benchmark
+	public String secondPrecedingSibling() {
+		return xml.evaluate("string(/r/target/preceding-sibling::*[2])", String.class);
+	}
+
+	@Benchmark
+	public Nodes findFirst() {
+		return xml.find("/r/*[1]");
+	}
+}
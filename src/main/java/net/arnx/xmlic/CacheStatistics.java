@@ -0,0 +1,76 @@
+package net.arnx.xmlic;
+
+import java.io.Serializable;
+
+/**
+ * A snapshot of the counters of an internal cache.
+ */
+public final class CacheStatistics implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final int size;
+	private final int maxSize;
+	private final long hitCount;
+	private final long missCount;
+	private final long evictionCount;
+
+	CacheStatistics(int size, int maxSize, long hitCount, long missCount, long evictionCount) {
+		this.size = size;
+		this.maxSize = maxSize;
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.evictionCount = evictionCount;
+	}
+
+	/**
+	 * Gets the number of entries currently cached.
+	 *
+	 * @return the number of entries
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Gets the maximum number of entries. 0 means the cache is disabled.
+	 *
+	 * @return the maximum number of entries
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Gets the number of lookups that found a cached entry.
+	 *
+	 * @return the hit count
+	 */
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * Gets the number of lookups that did not find a cached entry.
+	 *
+	 * @return the miss count
+	 */
+	public long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * Gets the number of entries removed to keep the cache within its maximum size.
+	 *
+	 * @return the eviction count
+	 */
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	@Override
+	public String toString() {
+		return "CacheStatistics [size=" + size + ", maxSize=" + maxSize
+				+ ", hitCount=" + hitCount + ", missCount=" + missCount
+				+ ", evictionCount=" + evictionCount + "]";
+	}
+}
@@ -7,16 +7,21 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
@@ -32,6 +37,7 @@ import org.w3c.dom.traversal.DocumentTraversal;
 import org.w3c.dom.traversal.NodeFilter;
 import org.w3c.dom.traversal.NodeIterator;
 
+import net.arnx.xmlic.internal.util.DocumentOrder;
 import net.arnx.xmlic.internal.util.NodeMatcher;
 import net.arnx.xmlic.internal.util.NodeMatcher.MatchType;
 import net.arnx.xmlic.internal.util.StatusImpl;
@@ -41,6 +47,7 @@ import net.arnx.xmlic.internal.util.StatusImpl;
  */
 public class Nodes extends ArrayList<Node> {
 	private static final long serialVersionUID = 1L;
+	private static final int ORDER_INDEX_THRESHOLD = 64;
 	private static final Pattern STYLE_PATTERN = Pattern.compile("\\G\\s*([^:]+)\\s*:\\s*([^;]+)\\s*(?:;+|$)");
 
 	static enum SelectMode {
@@ -279,6 +286,7 @@ public class Nodes extends ArrayList<Node> {
 	public Nodes namespace(String uri) {
 		if (uri == null) uri = "";
 
+		owner().modified();
 		for (Node self : this) {
 			if (self == null) continue;
 
@@ -327,6 +335,7 @@ public class Nodes extends ArrayList<Node> {
 			throw new IllegalArgumentException("XMLNS namespace can't remove.");
 		}
 
+		owner().modified();
 		for (Node self : this) {
 			if (self == null) continue;
 
@@ -370,6 +379,7 @@ public class Nodes extends ArrayList<Node> {
 	 * @return a reference to this object
 	 */
 	public Nodes prefix(String prefix) {
+		owner().modified();
 		for (Node self : this) {
 			if (self == null) continue;
 
@@ -416,6 +426,7 @@ public class Nodes extends ArrayList<Node> {
 	 * @return a reference to this object
 	 */
 	public Nodes localName(String localName) {
+		owner().modified();
 		for (Node self : this) {
 			if (self == null) continue;
 
@@ -483,6 +494,7 @@ public class Nodes extends ArrayList<Node> {
 		if (localName.isEmpty()) return null;
 		if (uri == null) uri = XMLConstants.NULL_NS_URI;
 
+		owner().modified();
 		for (Node self : this) {
 			if (self == null) continue;
 
@@ -555,6 +567,7 @@ public class Nodes extends ArrayList<Node> {
 		if (localName.isEmpty()) return null;
 		if (uri == null) uri = XMLConstants.NULL_NS_URI;
 
+		owner().modified();
 		for (Node self : this) {
 			if (!(self instanceof Element)) continue;
 
@@ -619,6 +632,7 @@ public class Nodes extends ArrayList<Node> {
 		if (localName.isEmpty()) return null;
 		if (uri == null) uri = XMLConstants.NULL_NS_URI;
 
+		owner().modified();
 		StatusImpl state = new StatusImpl();
 		try {
 			for (Node self : this) {
@@ -685,6 +699,7 @@ public class Nodes extends ArrayList<Node> {
 		}
 		if (localName.isEmpty()) return this;
 
+		owner().modified();
 		for (Node self : this) {
 			if (!(self instanceof Element)) continue;
 			((Element)self).removeAttributeNS(uri, localName);
@@ -703,6 +718,7 @@ public class Nodes extends ArrayList<Node> {
 	public Nodes val(String value) {
 		if (isEmpty() || get(0) == null) return null;
 
+		owner().modified();
 		for (Node self : this) {
 			if (self == null) continue;
 
@@ -1145,6 +1161,29 @@ public class Nodes extends ArrayList<Node> {
 		return owner().evaluate(expr, self, cls);
 	}
 
+	/**
+	 * Evaluate a specified XPath expression at a first node of current nodes with variables.
+	 * And gets as a specified type. The variables are visible only to this evaluation,
+	 * so the same expression can be evaluated with different values at the same time.
+	 *
+	 * @param <T> a result type parameter
+	 * @param xpath a XPath expression
+	 * @param variables the values of variables for this evaluation
+	 * @param cls a result type
+	 * @return a result value.
+	 */
+	public <T> T evaluate(String xpath, Map<QName, ?> variables, Class<T> cls) {
+		if (xpath == null || xpath.isEmpty() || isEmpty()) {
+			return null;
+		}
+
+		Node self = get(0);
+		if (self == null) return null;
+
+		Object expr = owner().compileXPath(xpath, false);
+		return owner().evaluate(expr, self, owner().bind(variables), cls);
+	}
+
 	/**
 	 * Selects nodes by a specified XPath expression.
 	 *
@@ -1152,23 +1191,66 @@ public class Nodes extends ArrayList<Node> {
 	 * @return a set of nodes
 	 */
 	public Nodes select(String xpath) {
+		return select(xpath, null);
+	}
+
+	/**
+	 * Selects nodes by a specified XPath expression with variables.
+	 * The variables are visible only to this evaluation, so the same expression
+	 * can be evaluated with different values at the same time.
+	 *
+	 * @param xpath a XPath expression
+	 * @param variables the values of variables for this evaluation
+	 * @return a set of nodes
+	 */
+	public Nodes select(String xpath, Map<QName, ?> variables) {
 		if (xpath == null || xpath.isEmpty() || isEmpty()) {
 			return new Nodes(owner(), this, 0);
 		}
 
 		Object expr = owner().compileXPath(xpath, false);
+		Object vars = owner().bind(variables);
 
 		Nodes results = new Nodes(owner(), this, size());
-		for (Node self : this) {
-			NodeList list = owner().evaluate(expr, self, NodeList.class);
-			for (int i = 0; i < list.getLength(); i++) {
-				results.add(list.item(i));
+		ForkJoinPool pool = owner().parallel(size());
+		if (pool != null) {
+			results.addAll(pool.invoke(new EvaluateTask(this, expr, vars, false, 0, size())));
+		} else {
+			for (Node self : this) {
+				NodeList list = owner().evaluate(expr, self, vars, NodeList.class);
+				for (int i = 0; i < list.getLength(); i++) {
+					results.add(list.item(i));
+				}
 			}
 		}
 		unique(results);
 		return results;
 	}
 
+	/**
+	 * Selects the first node in document order by a specified XPath expression.
+	 * This is same to select(xpath).first(), but a simple location path stops 
+	 * evaluating at the first node found.
+	 *
+	 * @param xpath a XPath expression
+	 * @return a set of the first node
+	 */
+	public Nodes selectFirst(String xpath) {
+		if (xpath == null || xpath.isEmpty() || isEmpty()) {
+			return new Nodes(owner(), this, 0);
+		}
+
+		Object expr = owner().compileXPath(xpath, false);
+
+		Nodes results = new Nodes(owner(), this, size());
+		for (Node self : this) {
+			Node node = owner().selectFirst(expr, self);
+			if (node != null) results.add(node);
+		}
+		unique(results);
+		return results.first();
+	}
+
 	/**
 	 * Finds elements matched a specified XPath pattern.
 	 *
@@ -1183,12 +1265,17 @@ public class Nodes extends ArrayList<Node> {
 		Object expr = owner().compileXPath(pattern, true);
 
 		Nodes results = new Nodes(owner(), this, size());
-		for (Node self : this) {
-			NodeList list = owner().evaluate(expr, self, NodeList.class);
-			for (int i = 0; i < list.getLength(); i++) {
-				Node node = list.item(i);
-				if (node.getNodeType() != Node.ELEMENT_NODE) continue;
-				results.add(node);
+		ForkJoinPool pool = owner().parallel(size());
+		if (pool != null) {
+			results.addAll(pool.invoke(new EvaluateTask(this, expr, owner().bind(null), true, 0, size())));
+		} else {
+			for (Node self : this) {
+				NodeList list = owner().evaluate(expr, self, NodeList.class);
+				for (int i = 0; i < list.getLength(); i++) {
+					Node node = list.item(i);
+					if (node.getNodeType() != Node.ELEMENT_NODE) continue;
+					results.add(node);
+				}
 			}
 		}
 		unique(results);
@@ -1928,6 +2015,7 @@ public class Nodes extends ArrayList<Node> {
 	public Nodes prepend(Nodes nodes) {
 		if (nodes == null) return this;
 
+		owner().modified();
 		boolean first = true;
 		for (Node self : this) {
 			if (self == null) continue;
@@ -1975,6 +2063,9 @@ public class Nodes extends ArrayList<Node> {
 	public Nodes prependTo(Nodes nodes) {
 		if (nodes == null) return new Nodes(owner(), this, 0);
 
+		owner().modified();
+		nodes.owner().modified();
+
 		Nodes results = new Nodes(owner(), this, nodes.size());
 		for (Node node : nodes) {
 			if (node == null) continue;
@@ -2025,6 +2116,7 @@ public class Nodes extends ArrayList<Node> {
 	public Nodes append(Nodes nodes) {
 		if (nodes.isEmpty()) return this;
 
+		owner().modified();
 		boolean first = true;
 		for (Node self : this) {
 			if (self == null) continue;
@@ -2066,6 +2158,9 @@ public class Nodes extends ArrayList<Node> {
 	public Nodes appendTo(Nodes nodes) {
 		if (nodes == null) return new Nodes(owner(), this, 0);
 
+		owner().modified();
+		nodes.owner().modified();
+
 		Nodes result = new Nodes(owner(), this, nodes.size());
 		for (Node node : nodes) {
 			if (node == null) continue;
@@ -2109,6 +2204,7 @@ public class Nodes extends ArrayList<Node> {
 	public Nodes before(Nodes nodes) {
 		if (nodes == null) return this;
 
+		owner().modified();
 		boolean first = true;
 		for (Node self : this) {
 			if (self == null) continue;
@@ -2160,6 +2256,7 @@ public class Nodes extends ArrayList<Node> {
 			return this;
 		}
 
+		owner().modified();
 		nodes.before(this);
 		return this;
 	}
@@ -2184,6 +2281,7 @@ public class Nodes extends ArrayList<Node> {
 	public Nodes after(Nodes nodes) {
 		if (nodes == null) return this;
 
+		owner().modified();
 		boolean first = true;
 		for (Node self : this) {
 			if (self == null) continue;
@@ -2240,6 +2338,7 @@ public class Nodes extends ArrayList<Node> {
 			return this;
 		}
 
+		owner().modified();
 		nodes.after(this);
 		return this;
 	}
@@ -2265,6 +2364,7 @@ public class Nodes extends ArrayList<Node> {
 		if (nodes == null || nodes.isEmpty()) return this;
 		if (nodes.get(0) == null || nodes.get(0).getNodeType() != Node.ELEMENT_NODE) return this;
 
+		owner().modified();
 		for (Node self : this) {
 			if (self == null) continue;
 			if (self.getNodeType() != Node.ELEMENT_NODE) continue;
@@ -2307,6 +2407,7 @@ public class Nodes extends ArrayList<Node> {
 		if (nodes == null || nodes.isEmpty()) return this;
 		if (nodes.get(0) == null || nodes.get(0).getNodeType() != Node.ELEMENT_NODE) return this;
 
+		owner().modified();
 		for (Node self : this) {
 			if (self == null) continue;
 			if (self.getNodeType() != Node.ELEMENT_NODE) continue;
@@ -2360,6 +2461,7 @@ public class Nodes extends ArrayList<Node> {
 		Node parent = get(0).getParentNode();
 		if (parent == null) return this;
 
+		owner().modified();
 		for (Node self : this) {
 			if (self == null) continue;
 			if (self.getNodeType() != Node.ELEMENT_NODE) continue;
@@ -2384,6 +2486,7 @@ public class Nodes extends ArrayList<Node> {
 	 * @return a reference to this object
 	 */
 	public Nodes unwrap() {
+		owner().modified();
 		for (Node self : this) {
 			if (self == null) continue;
 			if (self.getNodeType() != Node.ELEMENT_NODE) continue;
@@ -2427,6 +2530,7 @@ public class Nodes extends ArrayList<Node> {
 	public Nodes replaceWith(Nodes nodes) {
 		if (nodes == null) return this;
 
+		owner().modified();
 		for (Node self : this) {
 			if (self == null) continue;
 			if (self.getNodeType() != Node.ELEMENT_NODE) continue;
@@ -2474,6 +2578,9 @@ public class Nodes extends ArrayList<Node> {
 	public Nodes replaceAll(Nodes nodes) {
 		if (nodes == null) return new Nodes(owner(), this, 0);
 
+		owner().modified();
+		nodes.owner().modified();
+
 		Nodes results = new Nodes(owner(), this, size());
 		for (Node node : nodes) {
 			if (node == null) continue;
@@ -2509,6 +2616,7 @@ public class Nodes extends ArrayList<Node> {
 	 * @return a reference to this object
 	 */
 	public Nodes empty() {
+		owner().modified();
 		for (Node self : this) {
 			if (self == null) continue;
 			if (self.getNodeType() != Node.ELEMENT_NODE
@@ -2527,6 +2635,7 @@ public class Nodes extends ArrayList<Node> {
 	 * @return a reference to this object
 	 */
 	public Nodes remove() {
+		owner().modified();
 		for (Node self : this) {
 			if (self == null) continue;
 			if (self.getNodeType() != Node.ELEMENT_NODE) continue;
@@ -2551,6 +2660,7 @@ public class Nodes extends ArrayList<Node> {
 		}
 
 		Object expr = owner().compileXPath(pattern, true);
+		owner().modified();
 		for (Node self : this) {
 			if (self == null) continue;
 			if (self.getNodeType() != Node.ELEMENT_NODE) continue;
@@ -2639,6 +2749,7 @@ public class Nodes extends ArrayList<Node> {
 	 * @return a reference of this object
 	 */
 	public Nodes text(String text) {
+		owner().modified();
 		for (Node self : this) {
 			self.setTextContent(text);
 		}
@@ -2681,29 +2792,119 @@ public class Nodes extends ArrayList<Node> {
 	public Nodes normalize() {
 		if (isEmpty()) return this;
 
-		Object expr = owner().compileXPath("//namespace::*", false);
+		owner().modified();
 		for (Node self : this) {
-			NodeList list = owner().evaluate(expr, self, NodeList.class);
-			for (int i = 0; i < list.getLength(); i++) {
-				Node ns = list.item(i);
-				if (XMLConstants.XML_NS_URI.equals(ns.getNodeValue())) continue;
-				if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(ns.getNodeValue())) continue;
+			removeUnusedNamespaces(self);
+			self.normalize();
+		}
+		return this;
+	}
+
+	/**
+	 * Removes namespace declarations that no element or attribute in their scope uses,
+	 * walking the tree once. A declaration is used by a node whose prefix and namespace
+	 * URI match it, unless a closer declaration of the same prefix shadows it.
+	 * An empty default namespace declaration is always kept.
+	 */
+	private static void removeUnusedNamespaces(Node root) {
+		Map<String, List<NamespaceDeclaration>> scopes = new HashMap<String, List<NamespaceDeclaration>>();
+		List<List<NamespaceDeclaration>> frames = new ArrayList<List<NamespaceDeclaration>>();
 
-				Node parent = ns.getParentNode();
-				if (!(parent instanceof Element)) continue;
+		Node node = root;
+		while (node != null) {
+			List<NamespaceDeclaration> frame = null;
+			if (node.getNodeType() == Node.ELEMENT_NODE) {
+				NamedNodeMap attrs = node.getAttributes();
+				for (int i = 0; i < attrs.getLength(); i++) {
+					Attr attr = (Attr)attrs.item(i);
+					if (!XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attr.getNamespaceURI())) continue;
+					if (attr.getValue().isEmpty()) continue;
 
-				expr = owner().compileXPath("//*[namespace-uri()='" + ns.getNodeValue() + "' or @*[namespace-uri()='" + ns.getNodeValue() + "']]", false);
-				if (!owner().evaluate(expr, parent, boolean.class)) {
-					if (ns.getNodeName() != null && !ns.getNodeName().isEmpty()) {
-						((Element)parent).removeAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, ns.getNodeName());
-					} else {
-						((Element)parent).removeAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, XMLConstants.XMLNS_ATTRIBUTE);
+					String prefix = XMLConstants.XMLNS_ATTRIBUTE.equals(attr.getName()) ? XMLConstants.DEFAULT_NS_PREFIX : attr.getLocalName();
+					NamespaceDeclaration decl = new NamespaceDeclaration(attr, prefix);
+					if (frame == null) frame = new ArrayList<NamespaceDeclaration>();
+					frame.add(decl);
+
+					List<NamespaceDeclaration> scope = scopes.get(prefix);
+					if (scope == null) {
+						scope = new ArrayList<NamespaceDeclaration>();
+						scopes.put(prefix, scope);
+					}
+					scope.add(decl);
+				}
+
+				use(scopes, node);
+				for (int i = 0; i < attrs.getLength(); i++) {
+					Node attr = attrs.item(i);
+					if (attr.getNamespaceURI() != null && attr.getPrefix() != null
+							&& !XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attr.getNamespaceURI())) {
+						use(scopes, attr);
 					}
 				}
 			}
-			self.normalize();
+
+			Node next = null;
+			if (node.getNodeType() == Node.ELEMENT_NODE || node.getNodeType() == Node.DOCUMENT_NODE) {
+				next = node.getFirstChild();
+			}
+			if (next != null) {
+				frames.add(frame);
+				node = next;
+				continue;
+			}
+
+			while (true) {
+				close(scopes, frame);
+				if (node == root) {
+					node = null;
+					break;
+				}
+
+				next = node.getNextSibling();
+				if (next != null) {
+					node = next;
+					break;
+				}
+
+				node = node.getParentNode();
+				frame = frames.remove(frames.size() - 1);
+			}
+		}
+	}
+
+	private static void use(Map<String, List<NamespaceDeclaration>> scopes, Node node) {
+		String uri = node.getNamespaceURI();
+		if (uri == null || uri.isEmpty()) return;
+
+		String prefix = node.getPrefix();
+		List<NamespaceDeclaration> scope = scopes.get(prefix != null ? prefix : XMLConstants.DEFAULT_NS_PREFIX);
+		if (scope == null || scope.isEmpty()) return;
+
+		NamespaceDeclaration decl = scope.get(scope.size() - 1);
+		if (uri.equals(decl.attr.getValue())) decl.used = true;
+	}
+
+	private static void close(Map<String, List<NamespaceDeclaration>> scopes, List<NamespaceDeclaration> frame) {
+		if (frame == null) return;
+
+		for (NamespaceDeclaration decl : frame) {
+			List<NamespaceDeclaration> scope = scopes.get(decl.prefix);
+			scope.remove(scope.size() - 1);
+			if (!decl.used) {
+				decl.attr.getOwnerElement().removeAttributeNode(decl.attr);
+			}
+		}
+	}
+
+	private static class NamespaceDeclaration {
+		final Attr attr;
+		final String prefix;
+		boolean used;
+
+		NamespaceDeclaration(Attr attr, String prefix) {
+			this.attr = attr;
+			this.prefix = prefix;
 		}
-		return this;
 	}
 
 	/**
@@ -3010,6 +3211,20 @@ public class Nodes extends ArrayList<Node> {
 	 * Sorts this list.
 	 */
 	public void sort() {
+		if (size() < 2) return;
+
+		Map<Node, Integer> order = DocumentOrder.get(owner().doc, size() >= ORDER_INDEX_THRESHOLD);
+		if (order != null) {
+			// the numbering and compareDocumentPosition must not be mixed in one sort
+			for (Node node : this) {
+				if (node == null || !order.containsKey(node)) {
+					order = null;
+					break;
+				}
+			}
+		}
+
+		final Map<Node, Integer> index = order;
 		Collections.sort(this, new Comparator<Node>() {
 			@Override
 			public int compare(Node a, Node b) {
@@ -3017,6 +3232,10 @@ public class Nodes extends ArrayList<Node> {
 				if (a == null) return -1;
 				if (b == null) return 1;
 
+				if (index != null) {
+					return index.get(a).compareTo(index.get(b));
+				}
+
 				short compare = a.compareDocumentPosition(b);
 				if (compare != 0) {
 					if ((compare & Node.DOCUMENT_POSITION_DISCONNECTED) != 0) {
@@ -3092,23 +3311,69 @@ public class Nodes extends ArrayList<Node> {
 		return null;
 	}
 
+	/**
+	 * Evaluates an expression for a range of context nodes, splitting the range 
+	 * until it is within the parallel threshold. The results are concatenated in 
+	 * the order of the context nodes.
+	 */
+	private static class EvaluateTask extends RecursiveTask<List<Node>> {
+		private static final long serialVersionUID = 1L;
+
+		private final Nodes nodes;
+		private final Object expr;
+		private final Object variables;
+		private final boolean elementOnly;
+		private final int start;
+		private final int end;
+
+		EvaluateTask(Nodes nodes, Object expr, Object variables, boolean elementOnly, int start, int end) {
+			this.nodes = nodes;
+			this.expr = expr;
+			this.variables = variables;
+			this.elementOnly = elementOnly;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected List<Node> compute() {
+			if (end - start > nodes.owner().getParallelThreshold()) {
+				int middle = (start + end) >>> 1;
+				EvaluateTask left = new EvaluateTask(nodes, expr, variables, elementOnly, start, middle);
+				left.fork();
+				List<Node> right = new EvaluateTask(nodes, expr, variables, elementOnly, middle, end).compute();
+				List<Node> results = left.join();
+				results.addAll(right);
+				return results;
+			}
+
+			List<Node> results = new ArrayList<Node>();
+			for (int i = start; i < end; i++) {
+				NodeList list = nodes.owner().evaluate(expr, nodes.get(i), variables, NodeList.class);
+				for (int j = 0; j < list.getLength(); j++) {
+					Node node = list.item(j);
+					if (elementOnly && node.getNodeType() != Node.ELEMENT_NODE) continue;
+					results.add(node);
+				}
+			}
+			return results;
+		}
+	}
+
 	static void unique(final Nodes nodes) {
 		if (nodes.size() < 2) return;
 
-		nodes.sort();
-
-		int dis = 0;
+		Set<Node> set = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>(nodes.size()));
+		int pos = 0;
 		for (int i = 0; i < nodes.size(); i++) {
 			Node current = nodes.get(i);
-			if (i - dis - 1 >= 0 && current == nodes.get(i - dis - 1)) {
-				dis++;
-			} else if (dis > 0) {
-				nodes.set(i - dis, current);
+			if (set.add(current)) {
+				nodes.set(pos++, current);
 			}
 		}
-		for (int i = 0; i < dis; i++) {
-			nodes.remove(nodes.size() - 1);
-		}
+		nodes.subList(pos, nodes.size()).clear();
+
+		nodes.sort();
 	}
 
 	static int toFilter(MatchType type) {
@@ -18,10 +18,12 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
 
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
@@ -31,7 +33,9 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.w3c.dom.ProcessingInstruction;
 
+import net.arnx.xmlic.internal.org.jaxen.VariableContext;
 import net.arnx.xmlic.internal.org.jaxen.XPath;
+import net.arnx.xmlic.internal.util.LRUCache;
 import net.arnx.xmlic.internal.util.NodeMatcher;
 import net.arnx.xmlic.internal.util.XmlicContext;
 import net.arnx.xmlic.internal.util.XmlicContext.Key;
@@ -42,6 +46,8 @@ import net.arnx.xmlic.internal.util.XmlicContext.Key;
 public class XML implements Serializable {
 	private static final long serialVersionUID = 1L;
 
+	private static final XMLLoader DEFAULT_LOADER = new XMLLoader();
+
 	private static final String[] ESCAPE_CHARS = new String[128];
 
 	static {
@@ -87,7 +93,7 @@ public class XML implements Serializable {
 	 * @throws XMLException if XML parsing error caused.
 	 */
 	public static XML load(URI uri) throws XMLException {
-		return new XMLLoader().load(uri);
+		return DEFAULT_LOADER.load(uri);
 	}
 
 	/**
@@ -113,7 +119,7 @@ public class XML implements Serializable {
 	 * @throws XMLException if XML parsing error caused.
 	 */
 	public static XML load(InputStream in) throws XMLException {
-		return new XMLLoader().load(in);
+		return DEFAULT_LOADER.load(in);
 	}
 
 	/**
@@ -124,7 +130,7 @@ public class XML implements Serializable {
 	 * @throws XMLException if XML parsing error caused.
 	 */
 	public static XML load(Reader reader) throws XMLException {
-		return new XMLLoader().load(reader);
+		return DEFAULT_LOADER.load(reader);
 	}
 
 	final Document doc;
@@ -136,7 +142,7 @@ public class XML implements Serializable {
 	 */
 	public XML() {
 		this.xmlContext = new XmlicContext();
-		this.doc = XmlicContext.getDocumentBuilder().newDocument();
+		this.doc = XmlicContext.newDocument();
 		this.warnings = Collections.emptyList();
 	}
 
@@ -147,8 +153,7 @@ public class XML implements Serializable {
 	 * @throws XMLException if XML parsing error caused.
 	 */
 	public XML(String text) throws XMLException {
-		XMLLoader loader = new XMLLoader();
-		XML xml = loader.load(new StringReader(text));
+		XML xml = DEFAULT_LOADER.load(new StringReader(text));
 
 		this.xmlContext = xml.xmlContext;
 		this.doc = xml.doc;
@@ -290,6 +295,140 @@ public class XML implements Serializable {
 		return this;
 	}
 
+	/**
+	 * Sets the maximum number of compiled XPath expressions and patterns to keep.
+	 * The cache is shared with the instances derived from this object.
+	 *
+	 * @param size the maximum number of compiled expressions. 0 disables the cache.
+	 * @return a reference to this object
+	 */
+	public XML setXPathCacheSize(int size) {
+		xmlContext.getXPathCache().setMaxSize(size);
+		xmlContext.getPatternCache().setMaxSize(size);
+		return this;
+	}
+
+	/**
+	 * Gets the maximum number of compiled XPath expressions to keep.
+	 *
+	 * @return the maximum number of compiled expressions
+	 */
+	public int getXPathCacheSize() {
+		return xmlContext.getXPathCache().getMaxSize();
+	}
+
+	/**
+	 * Gets the statistics of the compiled XPath expression cache.
+	 *
+	 * @return a snapshot of the cache counters
+	 */
+	public CacheStatistics getXPathCacheStatistics() {
+		return toStatistics(xmlContext.getXPathCache());
+	}
+
+	/**
+	 * Gets the statistics of the compiled XPath pattern cache.
+	 *
+	 * @return a snapshot of the cache counters
+	 */
+	public CacheStatistics getPatternCacheStatistics() {
+		return toStatistics(xmlContext.getPatternCache());
+	}
+
+	/**
+	 * Sets a fork-join pool to evaluate {@link Nodes#select(String)} and {@link Nodes#find(String)} 
+	 * in parallel when the set of context nodes is larger than the parallel threshold.
+	 * The setting is shared with the instances derived from this object.
+	 * The document must not be modified while a parallel evaluation runs.
+	 *
+	 * @param pool a fork-join pool. null disables parallel evaluation.
+	 * @return a reference to this object
+	 */
+	public XML setForkJoinPool(ForkJoinPool pool) {
+		xmlContext.setForkJoinPool(pool);
+		return this;
+	}
+
+	/**
+	 * Gets the fork-join pool for parallel evaluation.
+	 *
+	 * @return the fork-join pool. null if parallel evaluation is disabled.
+	 */
+	public ForkJoinPool getForkJoinPool() {
+		return xmlContext.getForkJoinPool();
+	}
+
+	/**
+	 * Sets the number of context nodes that one parallel task evaluates at most.
+	 * Smaller sets of context nodes are evaluated on the calling thread.
+	 *
+	 * @param threshold the number of context nodes
+	 * @return a reference to this object
+	 */
+	public XML setParallelThreshold(int threshold) {
+		xmlContext.setParallelThreshold(threshold);
+		return this;
+	}
+
+	/**
+	 * Gets the number of context nodes that one parallel task evaluates at most.
+	 *
+	 * @return the number of context nodes
+	 */
+	public int getParallelThreshold() {
+		return xmlContext.getParallelThreshold();
+	}
+
+	/**
+	 * Sets whether XPath expressions are compiled into specialized evaluators
+	 * before they are evaluated. A compiled expression works on the DOM directly
+	 * and passes numbers and booleans as primitive values, which pays off for
+	 * expressions that are evaluated many times. The results are the same either way.
+	 * The setting is shared with the instances derived from this object.
+	 *
+	 * @param enabled true to compile XPath expressions
+	 * @return a reference to this object
+	 */
+	public XML setXPathCompilation(boolean enabled) {
+		xmlContext.setXPathCompilation(enabled);
+		return this;
+	}
+
+	/**
+	 * Gets whether XPath expressions are compiled before they are evaluated.
+	 *
+	 * @return true if XPath expressions are compiled
+	 */
+	public boolean isXPathCompilation() {
+		return xmlContext.isXPathCompilation();
+	}
+
+	/**
+	 * Sets whether descendant steps with an element name, such as <code>//foo</code>
+	 * or <code>find("foo")</code>, look the elements up in an index instead of
+	 * walking the subtree. The index of a document is built by the first lookup
+	 * and is dropped when the document is modified, which
+	 * pays off when many lookups run on a large document that rarely changes.
+	 * The results are the same either way.
+	 * The setting is shared with the instances derived from this object.
+	 *
+	 * @param enabled true to use the index
+	 * @return a reference to this object
+	 */
+	public XML setElementIndex(boolean enabled) {
+		xmlContext.setElementIndex(enabled);
+		return this;
+	}
+
+	/**
+	 * Gets whether descendant steps with an element name use an index.
+	 *
+	 * @return true if the index is used
+	 */
+	public boolean isElementIndex() {
+		return xmlContext.isElementIndex();
+	}
+
 	/**
 	 * Gets a Nodes instance that has document node.
 	 *
@@ -345,6 +484,33 @@ public class XML implements Serializable {
 		return doc().evaluate(xpath, cls);
 	}
 
+	/**
+	 * Evaluate a specified XPath expression at this document with variables.
+	 * And gets as a specified type.
+	 * This method is same to doc().evaluate(xpath, variables, cls).
+	 *
+	 * @param <T> a result type parameter
+	 * @param xpath a XPath expression
+	 * @param variables the values of variables for this evaluation
+	 * @param cls a result type
+	 * @return a result value.
+	 */
+	public <T> T evaluate(String xpath, Map<QName, ?> variables, Class<T> cls) {
+		return doc().evaluate(xpath, variables, cls);
+	}
+
+	/**
+	 * Compiles a XPath expression with the namespace mappings, keys and settings of this object.
+	 * The query can be evaluated on the documents of other XML instances too.
+	 *
+	 * @param xpath a XPath expression
+	 * @return a compiled query
+	 * @throws XPathSyntaxException if the expression is invalid
+	 */
+	public XPathQuery compile(String xpath) {
+		return new XPathQuery(xmlContext.snapshot(), xpath);
+	}
+
 	/**
 	 * Selects nodes by a specified XPath expression.
 	 * This method is same to doc().select(xpath).
@@ -356,6 +522,18 @@ public class XML implements Serializable {
 		return doc().select(xpath);
 	}
 
+	/**
+	 * Selects nodes by a specified XPath expression with variables.
+	 * This method is same to doc().select(xpath, variables).
+	 *
+	 * @param xpath a XPath expression
+	 * @param variables the values of variables for this evaluation
+	 * @return a set of nodes
+	 */
+	public Nodes select(String xpath, Map<QName, ?> variables) {
+		return doc().select(xpath, variables);
+	}
+
 	/**
 	 * Finds elements matched a specified XPath pattern.
 	 * This method is same to doc().find(pattern).
@@ -576,6 +754,24 @@ public class XML implements Serializable {
 		}
 	}
 
+	static CacheStatistics toStatistics(LRUCache<?, ?> cache) {
+		return new CacheStatistics(cache.size(), cache.getMaxSize(),
+				cache.getHitCount(), cache.getMissCount(), cache.getEvictionCount());
+	}
+
+	void modified() {
+		xmlContext.modified(doc);
+	}
+
+	ForkJoinPool parallel(int size) {
+		ForkJoinPool pool = xmlContext.getForkJoinPool();
+		if (pool == null || size <= xmlContext.getParallelThreshold()) {
+			return null;
+		}
+		xmlContext.prepareConcurrentAccess(doc);
+		return pool;
+	}
+
 	NodeMatcher compileXPathPattern(String text) {
 		return xmlContext.compileXPathPattern(text);
 	}
@@ -584,10 +780,22 @@ public class XML implements Serializable {
 		return xmlContext.compileXPath(text, pattern);
 	}
 
+	Object bind(Map<QName, ?> variables) {
+		return xmlContext.bind(variables);
+	}
+
 	<T> T evaluate(Object expr, Node node, Class<T> cls) {
 		return xmlContext.evaluate(this, (XPath)expr, node, cls);
 	}
 
+	<T> T evaluate(Object expr, Node node, Object variables, Class<T> cls) {
+		return xmlContext.evaluate(this, (XPath)expr, node, (VariableContext)variables, cls);
+	}
+
+	Node selectFirst(Object expr, Node node) {
+		return xmlContext.selectFirst((XPath)expr, node);
+	}
+
 	@Override
 	public String toString() {
 		XMLWriter xwriter = new XMLWriter();
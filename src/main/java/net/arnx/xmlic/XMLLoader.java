@@ -5,25 +5,52 @@ import java.io.InputStream;
 import java.io.Reader;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLReporter;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.validation.Schema;
 
+import net.arnx.xmlic.internal.util.DocumentBuilderPool;
+import net.arnx.xmlic.internal.util.StatusImpl;
+import net.arnx.xmlic.internal.util.StreamPath;
+import net.arnx.xmlic.internal.util.XmlicContext;
 import net.arnx.xmlic.internal.util.XmlicErrorHandler;
 
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
 import org.xml.sax.EntityResolver;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 /**
  * XMLLoader is for loading XML file and building DOM.
+ * 
+ * The configuration is frozen into a cached DocumentBuilderFactory on the first load,
+ * and DocumentBuilders are reused between loads. Changing any parser setting discards
+ * the cached factory.
  */
 public class XMLLoader {
+	private static final String REPORT_CDATA_EVENT = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+	
 	boolean validating = false;
 	Schema schema;
 	boolean ignoringComments = false;
@@ -35,8 +62,11 @@ public class XMLLoader {
 	Map<String, Object> attrs = new HashMap<>();
 	Map<URI, URI> externalSources = new HashMap<>();
 	
+	private volatile DocumentBuilderPool pool;
+	
 	public void setValidationg(boolean flag) {
 		this.validating = flag;
+		pool = null;
 	}
 	
 	public boolean isValidating() {
@@ -45,6 +75,7 @@ public class XMLLoader {
 	
 	public void setSchema(Schema schema) {
 		this.schema = schema;
+		pool = null;
 	}
 	
 	public Schema getSchema() {
@@ -53,6 +84,7 @@ public class XMLLoader {
 	
 	public void setIgnoringComments(boolean flag) {
 		this.ignoringComments = flag;
+		pool = null;
 	}
 	
 	public boolean isIgnoringComments() {
@@ -61,6 +93,7 @@ public class XMLLoader {
 	
 	public void setCoalescing(boolean flag) {
 		this.coalescing = flag;
+		pool = null;
 	}
 	
 	public boolean isCoalescing() {
@@ -69,6 +102,7 @@ public class XMLLoader {
 	
 	public void setExpandEntityReferences(boolean flag) {
 		this.expandEntityReferences = flag;
+		pool = null;
 	}
 	
 	public boolean isExpandEntityReferences() {
@@ -77,6 +111,7 @@ public class XMLLoader {
 	
 	public void setXIncludeAware(boolean flag) {
 		this.xincludeAware = flag;
+		pool = null;
 	}
 	
 	public boolean isXIncludeAware() {
@@ -121,6 +156,7 @@ public class XMLLoader {
 
 	public void setAttribute(String key, Object value) {
 		attrs.put(key, value);
+		pool = null;
 	}
 
 	public Object getAttribute(String key) {
@@ -137,6 +173,7 @@ public class XMLLoader {
 
 	public void setFeature(String key, boolean flag) {
 		features.put(key, flag);
+		pool = null;
 	}
 
 	public boolean getFeature(String key) {
@@ -176,6 +213,330 @@ public class XMLLoader {
 	}
 	
 	XML load(InputSource is) throws XMLException {
+		DocumentBuilderPool pool = getDocumentBuilderPool();
+		
+		DocumentBuilder db;
+		try {
+			db = pool.acquire();
+		} catch (ParserConfigurationException e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+		
+		if (is.getSystemId() != null) {
+			db.setEntityResolver(new EntityResolverImpl(is.getSystemId(), externalSources));
+		}
+		
+		XmlicErrorHandler handler = new XmlicErrorHandler();
+		db.setErrorHandler(handler);
+		
+		try {
+			return new XML(db.parse(is), handler.getWarnings());
+		} catch (Exception e) {
+			throw new XMLException(e.getMessage(), e, handler.getWarnings(), handler.getErrors());
+		} finally {
+			pool.release(db);
+		}
+	}
+	
+	/**
+	 * Reads an XML document from a URI without building the whole DOM, and calls the visitor 
+	 * for each element that matches the path.
+	 * 
+	 * @param uri a URI.
+	 * @param path a path of element names separated by / or //. A relative path matches at any depth.
+	 * @param func a visitor function
+	 * @throws XMLException if XML parsing error caused.
+	 * @see #stream(Reader, String, Visitor)
+	 */
+	public void stream(URI uri, String path, Visitor<Nodes> func) throws XMLException {
+		String systemId = uri.normalize().toASCIIString();
+		InputStream in;
+		try {
+			in = new URL(systemId).openStream();
+		} catch (IOException e) {
+			throw new XMLException(e.getMessage(), e, 
+					Collections.<XMLException.Detail>emptyList(), 
+					Collections.<XMLException.Detail>emptyList());
+		}
+		
+		try {
+			stream(in, systemId, path, func);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// no handle
+			}
+		}
+	}
+	
+	/**
+	 * Reads an XML document from a binary input stream without building the whole DOM, and calls 
+	 * the visitor for each element that matches the path.
+	 * 
+	 * @param in a binary input stream.
+	 * @param path a path of element names separated by / or //. A relative path matches at any depth.
+	 * @param func a visitor function
+	 * @throws XMLException if XML parsing error caused.
+	 * @see #stream(Reader, String, Visitor)
+	 */
+	public void stream(InputStream in, String path, Visitor<Nodes> func) throws XMLException {
+		stream(in, null, path, func);
+	}
+	
+	/**
+	 * Reads an XML document from a character input stream without building the whole DOM, and calls 
+	 * the visitor for each element that matches the path.
+	 * 
+	 * Each matched element is copied into a temporary document with the namespace declarations in scope, 
+	 * and passed to the visitor as a Nodes. The subtree is discarded after the callback, so memory usage 
+	 * doesn't depend on the size of the input. The matched elements are not nested: descendants of 
+	 * a matched element are not tested. All temporary documents share one set of namespace mappings, 
+	 * taken from the declarations of the root element as {@link #load(Reader)} does, and the prefixes 
+	 * of the path are resolved through them too.
+	 * 
+	 * Validation, schema and XInclude settings are not applied in this mode.
+	 * 
+	 * @param reader a character input stream.
+	 * @param path a path of element names separated by / or //. A relative path matches at any depth.
+	 * @param func a visitor function
+	 * @throws XMLException if XML parsing error caused.
+	 */
+	public void stream(Reader reader, String path, Visitor<Nodes> func) throws XMLException {
+		stream(reader, null, path, func);
+	}
+	
+	private void stream(Object in, String systemId, String path, Visitor<Nodes> func) throws XMLException {
+		StreamPath spath = StreamPath.compile(path);
+		
+		final List<XMLException.Detail> warnings = new ArrayList<XMLException.Detail>();
+		XMLInputFactory factory = createXMLInputFactory(systemId);
+		factory.setXMLReporter(new XMLReporter() {
+			@Override
+			public void report(String message, String errorType, Object relatedInformation, Location location) throws XMLStreamException {
+				int line = (location != null) ? location.getLineNumber() : -1;
+				int column = (location != null) ? location.getColumnNumber() : -1;
+				warnings.add(new XMLException.Detail(line, column, message, null));
+			}
+		});
+		
+		XMLStreamReader reader = null;
+		try {
+			if (in instanceof InputStream) {
+				reader = factory.createXMLStreamReader(systemId, (InputStream)in);
+			} else {
+				reader = factory.createXMLStreamReader(systemId, (Reader)in);
+			}
+			
+			StatusImpl status = new StatusImpl();
+			List<QName> stack = new ArrayList<QName>();
+			List<Map<String, String>> nsStack = new ArrayList<Map<String, String>>();
+			
+			XmlicContext xcontext = null;
+			Nodes pending = null;
+			Document doc = null;
+			Node current = null;
+			
+			while (reader.hasNext()) {
+				int event = reader.next();
+				switch (event) {
+				case XMLStreamConstants.START_ELEMENT: {
+					stack.add(reader.getName());
+					Map<String, String> decls = Collections.emptyMap();
+					if (reader.getNamespaceCount() > 0) {
+						decls = new LinkedHashMap<String, String>();
+						for (int i = 0; i < reader.getNamespaceCount(); i++) {
+							String prefix = reader.getNamespacePrefix(i);
+							String uri = reader.getNamespaceURI(i);
+							decls.put(prefix != null ? prefix : XMLConstants.DEFAULT_NS_PREFIX, uri != null ? uri : XMLConstants.NULL_NS_URI);
+						}
+					}
+					nsStack.add(decls);
+					
+					if (xcontext == null) {
+						// the same mappings as a loaded document, without keeping any document
+						xcontext = new XmlicContext();
+						for (Map.Entry<String, String> entry : decls.entrySet()) {
+							xcontext.addNamespace(entry.getKey(), entry.getValue());
+						}
+					}
+					
+					if (current == null) {
+						if (!spath.matches(stack, xcontext)) break;
+						
+						doc = XmlicContext.newDocument();
+						if (systemId != null) doc.setDocumentURI(systemId);
+						
+						Map<String, String> inScope = new LinkedHashMap<String, String>();
+						for (Map<String, String> map : nsStack) {
+							inScope.putAll(map);
+						}
+						current = doc.appendChild(createElement(doc, reader, inScope));
+					} else {
+						current = current.appendChild(createElement(doc, reader, decls));
+					}
+					break;
+				}
+				case XMLStreamConstants.END_ELEMENT: {
+					stack.remove(stack.size()-1);
+					nsStack.remove(nsStack.size()-1);
+					if (current == null) break;
+					
+					current = current.getParentNode();
+					if (current == doc) {
+						if (pending != null) {
+							status.next(Integer.MAX_VALUE);
+							func.visit(pending, status);
+						}
+						pending = new Nodes(new XML(xcontext, doc, warnings), doc.getDocumentElement());
+						current = null;
+						doc = null;
+					}
+					break;
+				}
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.SPACE: {
+					if (current == null) break;
+					
+					Node last = current.getLastChild();
+					if (last != null && last.getNodeType() == Node.TEXT_NODE) {
+						((Text)last).appendData(reader.getText());
+					} else {
+						current.appendChild(doc.createTextNode(reader.getText()));
+					}
+					break;
+				}
+				case XMLStreamConstants.CDATA: {
+					if (current == null) break;
+					
+					Node last = current.getLastChild();
+					if (coalescing && last != null && last.getNodeType() == Node.TEXT_NODE) {
+						((Text)last).appendData(reader.getText());
+					} else if (coalescing) {
+						current.appendChild(doc.createTextNode(reader.getText()));
+					} else {
+						current.appendChild(doc.createCDATASection(reader.getText()));
+					}
+					break;
+				}
+				case XMLStreamConstants.COMMENT: {
+					if (current == null || ignoringComments) break;
+					current.appendChild(doc.createComment(reader.getText()));
+					break;
+				}
+				case XMLStreamConstants.PROCESSING_INSTRUCTION: {
+					if (current == null) break;
+					current.appendChild(doc.createProcessingInstruction(reader.getPITarget(), reader.getPIData()));
+					break;
+				}
+				case XMLStreamConstants.ENTITY_REFERENCE: {
+					if (current == null) break;
+					current.appendChild(doc.createEntityReference(reader.getLocalName()));
+					break;
+				}
+				}
+			}
+			
+			if (pending != null) {
+				status.next(status.getIndex() + 1);
+				func.visit(pending, status);
+			}
+		} catch (XMLStreamException e) {
+			Location location = e.getLocation();
+			int line = (location != null) ? location.getLineNumber() : -1;
+			int column = (location != null) ? location.getColumnNumber() : -1;
+			throw new XMLException(e.getMessage(), e, warnings, 
+					Collections.singletonList(new XMLException.Detail(line, column, e.getMessage(), e)));
+		} catch (RuntimeException e) {
+			if (!StatusImpl.isCancelException(e)) {
+				throw e;
+			}
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (XMLStreamException e) {
+					// no handle
+				}
+			}
+		}
+	}
+	
+	private static Element createElement(Document doc, XMLStreamReader reader, Map<String, String> decls) {
+		Element elem = doc.createElementNS(toURI(reader.getNamespaceURI()), toQName(reader.getPrefix(), reader.getLocalName()));
+		
+		for (Map.Entry<String, String> entry : decls.entrySet()) {
+			String prefix = entry.getKey();
+			if (prefix.isEmpty()) {
+				elem.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, XMLConstants.XMLNS_ATTRIBUTE, entry.getValue());
+			} else if (!entry.getValue().isEmpty()) {
+				elem.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix, entry.getValue());
+			}
+		}
+		
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			QName name = reader.getAttributeName(i);
+			elem.setAttributeNS(toURI(name.getNamespaceURI()), toQName(name.getPrefix(), name.getLocalPart()), reader.getAttributeValue(i));
+		}
+		return elem;
+	}
+	
+	private static String toURI(String uri) {
+		return (uri != null && !uri.isEmpty()) ? uri : null;
+	}
+	
+	private static String toQName(String prefix, String localName) {
+		return (prefix != null && !prefix.isEmpty()) ? prefix + ":" + localName : localName;
+	}
+	
+	private XMLInputFactory createXMLInputFactory(String systemId) {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, coalescing);
+		factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, expandEntityReferences);
+		if (!coalescing && factory.isPropertySupported(REPORT_CDATA_EVENT)) {
+			factory.setProperty(REPORT_CDATA_EVENT, true);
+		}
+		
+		for (Map.Entry<String, Object> entry : attrs.entrySet()) {
+			if (factory.isPropertySupported(entry.getKey())) {
+				factory.setProperty(entry.getKey(), entry.getValue());
+			}
+		}
+		
+		if (systemId != null) {
+			final EntityResolver resolver = new EntityResolverImpl(systemId, externalSources);
+			factory.setXMLResolver(new XMLResolver() {
+				@Override
+				public Object resolveEntity(String publicID, String systemID, String baseURI, String namespace) throws XMLStreamException {
+					try {
+						InputSource source = resolver.resolveEntity(publicID, systemID);
+						if (source == null) return null;
+						return new URL(source.getSystemId()).openStream();
+					} catch (SAXException | IOException e) {
+						throw new XMLStreamException(e.getMessage(), e);
+					}
+				}
+			});
+		}
+		return factory;
+	}
+	
+	DocumentBuilderPool getDocumentBuilderPool() {
+		DocumentBuilderPool pool = this.pool;
+		if (pool == null) {
+			synchronized (this) {
+				pool = this.pool;
+				if (pool == null) {
+					pool = new DocumentBuilderPool(createDocumentBuilderFactory());
+					this.pool = pool;
+				}
+			}
+		}
+		return pool;
+	}
+	
+	private DocumentBuilderFactory createDocumentBuilderFactory() {
 		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
 		dbf.setNamespaceAware(true);
 		dbf.setValidating(validating);
@@ -198,26 +559,7 @@ public class XMLLoader {
 				throw new IllegalStateException(e.getMessage(), e);
 			}
 		}
-		
-		DocumentBuilder db;
-		try {
-			db = dbf.newDocumentBuilder();
-		} catch (ParserConfigurationException e) {
-			throw new IllegalStateException(e.getMessage(), e);
-		}
-		
-		if (is.getSystemId() != null) {
-			db.setEntityResolver(new EntityResolverImpl(is.getSystemId(), externalSources));
-		}
-		
-		XmlicErrorHandler handler = new XmlicErrorHandler();
-		db.setErrorHandler(handler);
-		
-		try {
-			return new XML(db.parse(is), handler.getWarnings());
-		} catch (Exception e) {
-			throw new XMLException(e.getMessage(), e, handler.getWarnings(), handler.getErrors());
-		}
+		return dbf;
 	}
 	
 	private static class EntityResolverImpl implements EntityResolver {
@@ -0,0 +1,164 @@
+package net.arnx.xmlic;
+
+import java.util.Collections;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import net.arnx.xmlic.internal.org.jaxen.VariableContext;
+import net.arnx.xmlic.internal.org.jaxen.XPath;
+import net.arnx.xmlic.internal.util.XmlicContext;
+import net.arnx.xmlic.internal.util.XmlicXPath;
+
+/**
+ * XPathQuery class is a compiled XPath expression.
+ *
+ * A query is parsed once and keeps a copy of the namespace mappings, keys and
+ * settings that it was compiled with, so later changes to an XML instance don't
+ * affect it. It is immutable and can be evaluated on any documents by many threads
+ * at the same time without a lookup of the compiled expression cache.
+ */
+public final class XPathQuery {
+	/**
+	 * Compiles an XPath expression without namespace mappings.
+	 *
+	 * @param xpath a XPath expression
+	 * @return a compiled query
+	 * @throws XPathSyntaxException if the expression is invalid
+	 */
+	public static XPathQuery compile(String xpath) {
+		return compile(xpath, Collections.<String, String>emptyMap());
+	}
+
+	/**
+	 * Compiles an XPath expression with the specified namespace mappings.
+	 *
+	 * @param xpath a XPath expression
+	 * @param namespaces a mapping of namespace prefixes to namespace URIs
+	 * @return a compiled query
+	 * @throws XPathSyntaxException if the expression is invalid
+	 */
+	public static XPathQuery compile(String xpath, Map<String, String> namespaces) {
+		if (namespaces == null) throw new NullPointerException("namespaces must not be null.");
+
+		XmlicContext xcontext = new XmlicContext();
+		for (Map.Entry<String, String> entry : namespaces.entrySet()) {
+			xcontext.addNamespace(entry.getKey(), entry.getValue());
+		}
+		return new XPathQuery(xcontext, xpath);
+	}
+
+	private final XmlicContext xcontext;
+	private final String text;
+	private final XPath expr;
+
+	XPathQuery(XmlicContext xcontext, String xpath) {
+		if (xpath == null) throw new NullPointerException("xpath must not be null.");
+
+		this.xcontext = xcontext;
+		this.text = xpath;
+		this.expr = new XmlicXPath(xcontext, xpath, false);
+	}
+
+	/**
+	 * Evaluate this query at a first node of the specified nodes.
+	 * And gets as a specified type.
+	 *
+	 * @param <T> a result type parameter
+	 * @param nodes a set of context nodes
+	 * @param cls a result type
+	 * @return a result value.
+	 */
+	public <T> T evaluate(Nodes nodes, Class<T> cls) {
+		return evaluate(nodes, null, cls);
+	}
+
+	/**
+	 * Evaluate this query at a first node of the specified nodes with variables.
+	 * And gets as a specified type. The variables are visible only to this evaluation.
+	 *
+	 * @param <T> a result type parameter
+	 * @param nodes a set of context nodes
+	 * @param variables the values of variables for this evaluation
+	 * @param cls a result type
+	 * @return a result value.
+	 */
+	public <T> T evaluate(Nodes nodes, Map<QName, ?> variables, Class<T> cls) {
+		if (nodes == null || nodes.isEmpty()) {
+			return null;
+		}
+
+		Node self = nodes.get(0);
+		if (self == null) return null;
+
+		return xcontext.evaluate(nodes.owner(), expr, self, xcontext.bind(variables), cls);
+	}
+
+	/**
+	 * Selects nodes by this query from each of the specified nodes.
+	 *
+	 * @param nodes a set of context nodes
+	 * @return a set of nodes in document order
+	 */
+	public Nodes select(Nodes nodes) {
+		return select(nodes, null);
+	}
+
+	/**
+	 * Selects nodes by this query from each of the specified nodes with variables.
+	 * The variables are visible only to this evaluation.
+	 *
+	 * @param nodes a set of context nodes
+	 * @param variables the values of variables for this evaluation
+	 * @return a set of nodes in document order
+	 */
+	public Nodes select(Nodes nodes, Map<QName, ?> variables) {
+		VariableContext vars = xcontext.bind(variables);
+		Nodes results = new Nodes(nodes.owner(), nodes, nodes.size());
+		for (Node self : nodes) {
+			NodeList list = xcontext.evaluate(nodes.owner(), expr, self, vars, NodeList.class);
+			for (int i = 0; i < list.getLength(); i++) {
+				results.add(list.item(i));
+			}
+		}
+		Nodes.unique(results);
+		return results;
+	}
+
+	/**
+	 * Tests if this query is true at any of the specified nodes.
+	 * A node-set is true if it is not empty, so the evaluation stops at the first node found.
+	 *
+	 * @param nodes a set of context nodes
+	 * @return true if this query is true at any of the nodes
+	 */
+	public boolean exists(Nodes nodes) {
+		return exists(nodes, null);
+	}
+
+	/**
+	 * Tests if this query is true at any of the specified nodes with variables.
+	 * The variables are visible only to this evaluation.
+	 *
+	 * @param nodes a set of context nodes
+	 * @param variables the values of variables for this evaluation
+	 * @return true if this query is true at any of the nodes
+	 */
+	public boolean exists(Nodes nodes, Map<QName, ?> variables) {
+		VariableContext vars = xcontext.bind(variables);
+		for (Node self : nodes) {
+			if (xcontext.evaluate(nodes.owner(), expr, self, vars, boolean.class)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return text;
+	}
+}
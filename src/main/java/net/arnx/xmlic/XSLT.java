@@ -2,14 +2,24 @@ package net.arnx.xmlic;
 
 import java.io.File;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
+import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.Result;
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
@@ -17,13 +27,62 @@ import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.URIResolver;
 import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
+import net.arnx.xmlic.internal.util.LRUCache;
 import net.arnx.xmlic.internal.util.XmlicErrorHandler;
 
 import org.w3c.dom.Document;
 
+/**
+ * XSLT is a compiled stylesheet.
+ * 
+ * A stylesheet is compiled into {@link javax.xml.transform.Templates} once and
+ * a new Transformer is created for each transformation, so an XSLT instance
+ * can be shared between threads. The parameters and output properties set to
+ * {@link #get()} are copied to each of them. Stylesheets loaded from a file or a jar are
+ * cached process-wide and recompiled when the modification time of the file, of a file
+ * included or imported by it, or of the jar changes.
+ */
 public class XSLT {
+	public static final int DEFAULT_CACHE_SIZE = 64;
+	
+	private static final LRUCache<String, CachedTemplates> CACHE = new LRUCache<String, CachedTemplates>(DEFAULT_CACHE_SIZE);
+	
+	/**
+	 * Sets the maximum number of stylesheets cached by URI. 0 disables the cache.
+	 * 
+	 * @param size the maximum number of stylesheets
+	 */
+	public static void setCacheSize(int size) {
+		CACHE.setMaxSize(size);
+	}
+	
+	/**
+	 * Gets the maximum number of stylesheets cached by URI.
+	 * 
+	 * @return the maximum number of stylesheets
+	 */
+	public static int getCacheSize() {
+		return CACHE.getMaxSize();
+	}
+	
+	/**
+	 * Removes all stylesheets cached by URI.
+	 */
+	public static void clearCache() {
+		CACHE.clear();
+	}
+	
+	/**
+	 * Gets the statistics of the stylesheet cache.
+	 * 
+	 * @return a snapshot of the cache counters
+	 */
+	public static CacheStatistics getCacheStatistics() {
+		return XML.toStatistics(CACHE);
+	}
 	
 	/**
 	 * Load an XSLT transformer from a input file.
@@ -45,7 +104,32 @@ public class XSLT {
 	 */
 	public static XSLT load(URI uri) throws XMLException {
 		String path = uri.normalize().toASCIIString();
-		return load(new StreamSource(path), path);
+		
+		CachedTemplates cached = CACHE.get(path);
+		if (cached != null && !cached.isModified()) {
+			return new XSLT(cached.templates, path, cached.warnings);
+		}
+		
+		long lastModified = getLastModified(path);
+		if (lastModified <= 0) {
+			return load(new StreamSource(path), path);
+		}
+		
+		List<String> includes = new ArrayList<String>();
+		XSLT xslt = load(new StreamSource(path), path, includes);
+		
+		String[] paths = new String[includes.size() + 1];
+		long[] times = new long[paths.length];
+		paths[0] = path;
+		times[0] = lastModified;
+		for (int i = 1; i < paths.length; i++) {
+			paths[i] = includes.get(i - 1);
+			times[i] = getLastModified(paths[i]);
+			// a stylesheet that can't be checked can't be cached
+			if (times[i] <= 0) return xslt;
+		}
+		CACHE.put(path, new CachedTemplates(xslt.templates, paths, times, xslt.warnings));
+		return xslt;
 	}
 	
 	/**
@@ -108,35 +192,108 @@ public class XSLT {
 	}
 	
 	static XSLT load(Source source, String base) throws XMLException {
+		return load(source, base, null);
+	}
+	
+	static XSLT load(Source source, String base, List<String> includes) throws XMLException {
 		TransformerFactory tf = TransformerFactory.newInstance();
 		XmlicErrorHandler handler = new XmlicErrorHandler();
-		URIResolver resolver = new URIResolverImpl(base);
+		URIResolver resolver = new URIResolverImpl(base, includes);
 		
 		try {
 			tf.setErrorListener(handler);
 			tf.setURIResolver(resolver);
-			Transformer t = tf.newTransformer(source);
-			t.setURIResolver(resolver);
-			return new XSLT(t, handler.getWarnings());
+			Templates templates = tf.newTemplates(source);
+			return new XSLT(templates, base, handler.getWarnings());
 		} catch (TransformerConfigurationException e) {
 			throw new XMLException(e.getMessage(), e, handler.getWarnings(), handler.getErrors());
 		}
 	}
 	
+	static long getLastModified(String path) {
+		try {
+			URI uri = new URI(path);
+			if ("jar".equalsIgnoreCase(uri.getScheme())) {
+				// the jar file itself, so that no jar connection is opened for each load
+				String spec = uri.getRawSchemeSpecificPart();
+				int sep = spec.indexOf("!/");
+				if (sep < 0) return 0;
+				uri = new URI(spec.substring(0, sep));
+			}
+			if ("file".equalsIgnoreCase(uri.getScheme())) {
+				return new File(uri).lastModified();
+			}
+		} catch (URISyntaxException e) {
+			// not checkable
+		} catch (IllegalArgumentException e) {
+			// not checkable
+		}
+		return 0;
+	}
+	
+	final Templates templates;
 	final Transformer transformer;
+	final URIResolver resolver;
+	final TransformerPrototype prototype;
 	final Collection<XMLException.Detail> warnings;
 	
+	/**
+	 * Construct a new XSLT instance by the specified transformer.
+	 * 
+	 * A Transformer is not thread-safe, so transformations of this instance are serialized.
+	 * 
+	 * @param transformer a transformer.
+	 */
 	public XSLT(Transformer transformer) {
-		this(transformer, Collections.<XMLException.Detail>emptyList());
+		this.templates = null;
+		this.transformer = transformer;
+		this.resolver = transformer.getURIResolver();
+		this.prototype = null;
+		this.warnings = Collections.<XMLException.Detail>emptyList();
 	}
 	
-	XSLT(Transformer transformer, Collection<XMLException.Detail> warnings) {
-		this.transformer = transformer;
+	/**
+	 * Construct a new XSLT instance by the specified templates.
+	 * 
+	 * @param templates a compiled stylesheet.
+	 */
+	public XSLT(Templates templates) {
+		this(templates, null, Collections.<XMLException.Detail>emptyList());
+	}
+	
+	XSLT(Templates templates, String base, Collection<XMLException.Detail> warnings) {
+		this.templates = templates;
+		this.transformer = null;
+		this.resolver = new URIResolverImpl(base);
+		this.prototype = new TransformerPrototype();
 		this.warnings = warnings;
 	}
 	
+	/**
+	 * Gets a transformer.
+	 * 
+	 * If this instance is backed by templates, the same transformer is returned for each call, 
+	 * but it doesn't transform by itself: the parameters, output properties, URI resolver 
+	 * and error listener set to it are copied to the new Transformer created for each 
+	 * transformation. Set them before sharing this instance between threads. The error 
+	 * listener is notified in addition to the warnings and errors reported by XMLException.
+	 * 
+	 * @return a transformer.
+	 */
 	public Transformer get() {
-		return transformer;
+		if (transformer != null) {
+			return transformer;
+		}
+		return prototype;
+	}
+	
+	/**
+	 * Gets the compiled stylesheet.
+	 * 
+	 * @return the templates. null if this instance was constructed by a transformer.
+	 */
+	public Templates getTemplates() {
+		return templates;
 	}
 	
 	public Collection<XMLException.Detail> getWarnings() {
@@ -145,21 +302,230 @@ public class XSLT {
 	
 	public XML transform(XML xml) throws XMLException {
 		DOMResult result = new DOMResult();
-		XmlicErrorHandler handler = new XmlicErrorHandler();
-		transformer.setErrorListener(handler);
+		Collection<XMLException.Detail> warnings = transform(new DOMSource(xml.get()), result);
+		return new XML(xml.xmlContext, (Document)result.getNode(), warnings);
+	}
+	
+	/**
+	 * Transforms the XML document and writes the result to a binary output stream.
+	 * 
+	 * @param xml a source XML instance.
+	 * @param out a binary output stream.
+	 * @return warnings of the transformation.
+	 * @throws XMLException if XSLT processing error caused.
+	 */
+	public Collection<XMLException.Detail> transform(XML xml, OutputStream out) throws XMLException {
+		return transform(new DOMSource(xml.get()), new StreamResult(out));
+	}
+	
+	/**
+	 * Transforms the XML document and writes the result to a character output stream.
+	 * 
+	 * @param xml a source XML instance.
+	 * @param writer a character output stream.
+	 * @return warnings of the transformation.
+	 * @throws XMLException if XSLT processing error caused.
+	 */
+	public Collection<XMLException.Detail> transform(XML xml, Writer writer) throws XMLException {
+		return transform(new DOMSource(xml.get()), new StreamResult(writer));
+	}
+	
+	/**
+	 * Transforms an XML document read from a binary input stream and writes the result 
+	 * to a binary output stream without building DOM.
+	 * 
+	 * @param in a binary input stream.
+	 * @param out a binary output stream.
+	 * @return warnings of the transformation.
+	 * @throws XMLException if XML parsing or XSLT processing error caused.
+	 */
+	public Collection<XMLException.Detail> transform(InputStream in, OutputStream out) throws XMLException {
+		return transform(new StreamSource(in), new StreamResult(out));
+	}
+	
+	/**
+	 * Transforms an XML document read from a character input stream and writes the result 
+	 * to a character output stream without building DOM.
+	 * 
+	 * @param reader a character input stream.
+	 * @param writer a character output stream.
+	 * @return warnings of the transformation.
+	 * @throws XMLException if XML parsing or XSLT processing error caused.
+	 */
+	public Collection<XMLException.Detail> transform(Reader reader, Writer writer) throws XMLException {
+		return transform(new StreamSource(reader), new StreamResult(writer));
+	}
+	
+	private Collection<XMLException.Detail> transform(Source source, Result result) throws XMLException {
+		XmlicErrorHandler handler;
+		if (transformer != null) {
+			handler = new XmlicErrorHandler();
+			synchronized (transformer) {
+				transform(transformer, handler, source, result);
+			}
+		} else {
+			Transformer t = prototype.newTransformer();
+			handler = new XmlicErrorHandler(prototype.getErrorListener());
+			transform(t, handler, source, result);
+		}
+		return handler.getWarnings();
+	}
+	
+	private static void transform(Transformer t, XmlicErrorHandler handler, Source source, Result result) throws XMLException {
+		t.setErrorListener(handler);
 		try {
-			transformer.transform(new DOMSource(xml.get()), result);
+			t.transform(source, result);
 		} catch (TransformerException e) {
 			throw new XMLException(e.getMessage(), e, handler.getWarnings(), handler.getErrors());
 		}
-		return new XML(xml.xmlContext, (Document)result.getNode(), handler.getWarnings());
+	}
+	
+	/**
+	 * Keeps the settings for the transformations of an instance backed by templates 
+	 * and applies them to a new Transformer. A Transformer doesn't tell the names 
+	 * of its parameters, so they are recorded here.
+	 */
+	private class TransformerPrototype extends Transformer {
+		private final Map<String, Object> params = new LinkedHashMap<String, Object>();
+		private final Properties outputProperties = new Properties();
+		private URIResolver uriResolver = resolver;
+		private ErrorListener errorListener;
+		
+		synchronized Transformer newTransformer() {
+			Transformer t;
+			try {
+				t = templates.newTransformer();
+			} catch (TransformerConfigurationException e) {
+				throw new IllegalStateException(e.getMessage(), e);
+			}
+			for (Map.Entry<String, Object> entry : params.entrySet()) {
+				t.setParameter(entry.getKey(), entry.getValue());
+			}
+			for (String name : outputProperties.stringPropertyNames()) {
+				t.setOutputProperty(name, outputProperties.getProperty(name));
+			}
+			t.setURIResolver(uriResolver);
+			if (errorListener != null) {
+				t.setErrorListener(errorListener);
+			}
+			return t;
+		}
+		
+		@Override
+		public void transform(Source source, Result result) throws TransformerException {
+			newTransformer().transform(source, result);
+		}
+		
+		@Override
+		public synchronized void setParameter(String name, Object value) {
+			if (name == null) throw new NullPointerException("name must not be null.");
+			if (value == null) throw new NullPointerException("value must not be null.");
+			params.put(name, value);
+		}
+		
+		@Override
+		public synchronized Object getParameter(String name) {
+			return params.get(name);
+		}
+		
+		@Override
+		public synchronized void clearParameters() {
+			params.clear();
+		}
+		
+		@Override
+		public synchronized void setURIResolver(URIResolver resolver) {
+			this.uriResolver = resolver;
+		}
+		
+		@Override
+		public synchronized URIResolver getURIResolver() {
+			return uriResolver;
+		}
+		
+		@Override
+		public synchronized void setOutputProperties(Properties oformat) {
+			if (oformat != null) {
+				// throws IllegalArgumentException for an unknown property
+				newTransformer().setOutputProperties(oformat);
+			}
+			outputProperties.clear();
+			if (oformat != null) {
+				for (String name : oformat.stringPropertyNames()) {
+					outputProperties.setProperty(name, oformat.getProperty(name));
+				}
+			}
+		}
+		
+		@Override
+		public Properties getOutputProperties() {
+			return newTransformer().getOutputProperties();
+		}
+		
+		@Override
+		public synchronized void setOutputProperty(String name, String value) throws IllegalArgumentException {
+			// throws IllegalArgumentException for an unknown property
+			newTransformer().setOutputProperty(name, value);
+			outputProperties.setProperty(name, value);
+		}
+		
+		@Override
+		public String getOutputProperty(String name) throws IllegalArgumentException {
+			return newTransformer().getOutputProperty(name);
+		}
+		
+		@Override
+		public synchronized void setErrorListener(ErrorListener listener) throws IllegalArgumentException {
+			if (listener == null) throw new IllegalArgumentException("listener must not be null.");
+			this.errorListener = listener;
+		}
+		
+		@Override
+		public synchronized ErrorListener getErrorListener() {
+			return errorListener;
+		}
+		
+		@Override
+		public synchronized void reset() {
+			params.clear();
+			outputProperties.clear();
+			uriResolver = resolver;
+			errorListener = null;
+		}
+	}
+	
+	private static class CachedTemplates {
+		final Templates templates;
+		final String[] paths;
+		final long[] lastModified;
+		final Collection<XMLException.Detail> warnings;
+		
+		public CachedTemplates(Templates templates, String[] paths, long[] lastModified, Collection<XMLException.Detail> warnings) {
+			this.templates = templates;
+			this.paths = paths;
+			this.lastModified = lastModified;
+			this.warnings = warnings;
+		}
+		
+		boolean isModified() {
+			for (int i = 0; i < paths.length; i++) {
+				if (getLastModified(paths[i]) != lastModified[i]) return true;
+			}
+			return false;
+		}
 	}
 	
 	static class URIResolverImpl implements URIResolver {
 		private String base;
+		private List<String> resolved;
 		
 		public URIResolverImpl(String base) {
+			this(base, null);
+		}
+		
+		public URIResolverImpl(String base, List<String> resolved) {
 			this.base = base;
+			this.resolved = resolved;
 		}
 		
 		@Override
@@ -175,7 +541,9 @@ public class XSLT {
 						throw new TransformerException("base url is missing.");
 					}
 				}
-				return new StreamSource(uri.normalize().toASCIIString());
+				String path = uri.normalize().toASCIIString();
+				if (resolved != null && !resolved.contains(path)) resolved.add(path);
+				return new StreamSource(path);
 			} catch (URISyntaxException e) {
 				throw new TransformerException(e);
 			}
@@ -8,14 +8,14 @@ import javax.xml.parsers.DocumentBuilder;
 import org.w3c.dom.Document;
 
 import net.arnx.xmlic.internal.org.jaxen.Context;
-import net.arnx.xmlic.internal.org.jaxen.Function;
 import net.arnx.xmlic.internal.org.jaxen.FunctionCallException;
 import net.arnx.xmlic.internal.org.jaxen.Navigator;
 import net.arnx.xmlic.internal.org.jaxen.UnresolvableException;
 import net.arnx.xmlic.internal.org.jaxen.function.StringFunction;
+import net.arnx.xmlic.internal.util.DocumentBuilderPool;
 import net.arnx.xmlic.internal.util.XmlicContext;
 
-public class DocumentFunction implements Function {
+public class DocumentFunction extends net.arnx.xmlic.internal.org.jaxen.function.xslt.DocumentFunction {
 	@SuppressWarnings("rawtypes")
 	@Override
 	public Object call(Context context, List args) throws FunctionCallException {
@@ -43,8 +43,13 @@ public class DocumentFunction implements Function {
 				}
 			}
 			
-			DocumentBuilder builder = XmlicContext.getDocumentBuilder();
-			return builder.parse(uri.toASCIIString());
+			DocumentBuilderPool pool = XmlicContext.getDocumentBuilderPool();
+			DocumentBuilder builder = pool.acquire();
+			try {
+				return builder.parse(uri.toASCIIString());
+			} finally {
+				pool.release(builder);
+			}
 		} catch (Exception e) {
 			throw new FunctionCallException(e);
 		}
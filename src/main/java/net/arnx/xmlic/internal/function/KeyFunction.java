@@ -1,20 +1,18 @@
 package net.arnx.xmlic.internal.function;
 
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import net.arnx.xmlic.internal.org.jaxen.Context;
 import net.arnx.xmlic.internal.org.jaxen.Function;
 import net.arnx.xmlic.internal.org.jaxen.FunctionCallException;
+import net.arnx.xmlic.internal.org.jaxen.JaxenException;
 import net.arnx.xmlic.internal.org.jaxen.Navigator;
 import net.arnx.xmlic.internal.org.jaxen.UnresolvableException;
-import net.arnx.xmlic.internal.org.jaxen.XPath;
 import net.arnx.xmlic.internal.org.jaxen.function.StringFunction;
-import net.arnx.xmlic.internal.org.jaxen.saxpath.SAXPathException;
 import net.arnx.xmlic.internal.util.XmlicContext;
-import net.arnx.xmlic.internal.util.XmlicContext.Key;
-import net.arnx.xmlic.internal.util.XmlicXPath;
 
 public class KeyFunction implements Function {
 	@SuppressWarnings("rawtypes")
@@ -36,25 +34,26 @@ public class KeyFunction implements Function {
 		Navigator nav = context.getNavigator();
 		Object doc = nav.getDocumentNode(xcontext.getCurrentNode());
 
-		Key key = xcontext.getKey((String)args.get(0));
+		String name = (String)args.get(0);
 		String value = StringFunction.evaluate(args.get(1), nav);
 		if (value == null) {
 			return Collections.EMPTY_LIST;
 		}
 
+		Map<String, List<Object>> index;
 		try {
-			List result = new XmlicXPath(xcontext, key.match, true).selectNodes(doc);
-			XPath use = new XmlicXPath(xcontext, key.use, false);
-			Iterator i = result.iterator();
-			while (i.hasNext()) {
-				Object node = i.next();
-				if (!value.equals(use.stringValueOf(node))) {
-					i.remove();
-				}
-			}
-			return result;
-		} catch (SAXPathException e) {
+			index = xcontext.getKeyIndex(doc, name);
+		} catch (JaxenException e) {
 			throw new FunctionCallException(e);
 		}
+		if (index == null) {
+			throw new FunctionCallException("key is not found: " + name);
+		}
+
+		List<Object> result = index.get(value);
+		if (result == null) {
+			return Collections.EMPTY_LIST;
+		}
+		return new ArrayList<Object>(result);
 	}
 }
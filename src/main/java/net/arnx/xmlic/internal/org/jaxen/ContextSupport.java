@@ -35,6 +35,8 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
 import java.io.Serializable;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 /** Supporting context information for resolving
  *  namespace prefixes, functions, and variables.
@@ -72,6 +74,9 @@ public class ContextSupport implements Serializable {
     /** Model navigator. */
     private Navigator navigator;
 
+    /** Values cached during one evaluation, or null if values are not cached. */
+    private transient Map values;
+
     // ----------------------------------------------------------------------
     //     Constructors
     // ----------------------------------------------------------------------
@@ -169,6 +174,47 @@ public class ContextSupport implements Serializable {
         return this.navigator;
     }
 
+    /** Create a copy of this <code>ContextSupport</code> for one evaluation.
+     *  The copy caches the values of the subexpressions that don't depend on
+     *  the context node, so it must not be used after the evaluation.
+     *
+     *  @return a new context support with the same contexts and navigator
+     */
+    public ContextSupport forEvaluation()
+    {
+        return forEvaluation( getVariableContext() );
+    }
+
+    /** Create a copy of this <code>ContextSupport</code> for one evaluation
+     *  that resolves variables with the specified variable context.
+     *
+     *  @param variableContext the variable context for the evaluation
+     *  @return a new context support with the same namespace context,
+     *      function context and navigator
+     *  @see #forEvaluation()
+     */
+    public ContextSupport forEvaluation(VariableContext variableContext)
+    {
+        ContextSupport support = new ContextSupport( getNamespaceContext(),
+                                                     getFunctionContext(),
+                                                     variableContext,
+                                                     getNavigator() );
+        support.values = new IdentityHashMap();
+        return support;
+    }
+
+    /** Retrieve the values cached during the evaluation, keyed by the
+     *  identity of the expressions.
+     *
+     *  @return the cached values, or null if this context support
+     *      is not for one evaluation
+     *  @see #forEvaluation()
+     */
+    public Map getCachedValues()
+    {
+        return this.values;
+    }
+
     // - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - 
 
     /** Translate a namespace prefix to its URI.
@@ -96,4 +96,56 @@ public interface NamedAccessNavigator extends Navigator {
         String localName, String namespacePrefix, String namespaceURI)
             throws UnsupportedAxisException;
 
+    /**
+     * Retrieve an <code>Iterator</code> that returns the <code>descendant</code>
+     * XPath axis where the names of the descendants match the supplied name
+     * and optional namespace.
+     * <p>
+     * This method must only return element nodes with the correct name,
+     * in document order.
+     * <p>
+     * If the namespaceURI is null, no namespace should be used.
+     * The prefix will never be null.
+     *
+     * @param contextNode  the origin context node
+     * @param localName  the local name of the descendants to return, always present
+     * @param namespacePrefix  the prefix of the namespace of the descendants to return
+     * @param namespaceURI  the namespace URI of the descendants to return
+     *
+     * @return an Iterator capable of traversing the named descendants, or null if none
+     *
+     * @throws UnsupportedAxisException if the descendant axis is
+     *         not supported by this object model
+     */
+    Iterator getDescendantAxisIterator(
+        Object contextNode, 
+        String localName, String namespacePrefix, String namespaceURI)
+            throws UnsupportedAxisException;
+
+    /**
+     * Retrieve an <code>Iterator</code> that returns the <code>descendant-or-self</code>
+     * XPath axis where the names of the nodes match the supplied name
+     * and optional namespace.
+     * <p>
+     * This method must only return element nodes with the correct name,
+     * in document order.
+     * <p>
+     * If the namespaceURI is null, no namespace should be used.
+     * The prefix will never be null.
+     *
+     * @param contextNode  the origin context node
+     * @param localName  the local name of the nodes to return, always present
+     * @param namespacePrefix  the prefix of the namespace of the nodes to return
+     * @param namespaceURI  the namespace URI of the nodes to return
+     *
+     * @return an Iterator capable of traversing the named nodes, or null if none
+     *
+     * @throws UnsupportedAxisException if the descendant-or-self axis is
+     *         not supported by this object model
+     */
+    Iterator getDescendantOrSelfAxisIterator(
+        Object contextNode, 
+        String localName, String namespacePrefix, String namespaceURI)
+            throws UnsupportedAxisException;
+
 }
@@ -0,0 +1,97 @@
+package net.arnx.xmlic.internal.org.jaxen.dom;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.events.Event;
+import org.w3c.dom.events.EventListener;
+import org.w3c.dom.events.EventTarget;
+
+/**
+ * <p>Stores a cache in the user data of a document, and drops it when the
+ * document is modified through the DOM API.</p>
+ *
+ * <p>A DOMSubtreeModified listener is attached only while the cache exists.
+ * The first mutation drops the cache and detaches the listener, so the later
+ * edits of the document don't pay for the mutation events until the cache is
+ * built again. A document that doesn't support mutation events can't be
+ * watched, and no cache is stored for it.</p>
+ *
+ * <p>The callers must hold the lock of the document.</p>
+ */
+public final class DocumentCache
+{
+    private DocumentCache()
+    {
+    }
+
+    /**
+     * Tests if a cache can be stored for a document.
+     *
+     * @param doc a document
+     * @return true if the document supports mutation events
+     */
+    public static boolean isSupported(Document doc)
+    {
+        return doc instanceof EventTarget;
+    }
+
+    /**
+     * Stores a cache and watches the document until the cache is dropped.
+     *
+     * @param doc a document
+     * @param key the user data key of the cache
+     * @param value the cache
+     */
+    public static void put(Document doc, String key, Object value)
+    {
+        if (!isSupported(doc)) {
+            return;
+        }
+
+        String listenerKey = key + ".listener";
+        if (doc.getUserData(listenerKey) == null) {
+            EventListener listener = new Invalidator(key);
+            ((EventTarget) doc).addEventListener("DOMSubtreeModified", listener, true);
+            doc.setUserData(listenerKey, listener, null);
+        }
+        doc.setUserData(key, value, null);
+    }
+
+    /**
+     * Drops a cache and stops watching the document for it.
+     *
+     * @param doc a document
+     * @param key the user data key of the cache
+     */
+    public static void remove(Document doc, String key)
+    {
+        doc.setUserData(key, null, null);
+
+        String listenerKey = key + ".listener";
+        EventListener listener = (EventListener) doc.getUserData(listenerKey);
+        if (listener != null) {
+            ((EventTarget) doc).removeEventListener("DOMSubtreeModified", listener, true);
+            doc.setUserData(listenerKey, null, null);
+        }
+    }
+
+    private static class Invalidator implements EventListener
+    {
+        private final String key;
+
+        Invalidator(String key)
+        {
+            this.key = key;
+        }
+
+        public void handleEvent(Event evt)
+        {
+            Object target = evt.getCurrentTarget();
+            if (target instanceof Document) {
+                Document doc = (Document) target;
+                synchronized (doc) {
+                    remove(doc, key);
+                }
+            }
+        }
+    }
+}
@@ -53,18 +53,21 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 import net.arnx.xmlic.internal.org.jaxen.DefaultNavigator;
 import net.arnx.xmlic.internal.org.jaxen.FunctionCallException;
 import net.arnx.xmlic.internal.org.jaxen.JaxenConstants;
+import net.arnx.xmlic.internal.org.jaxen.NamedAccessNavigator;
 import net.arnx.xmlic.internal.org.jaxen.Navigator;
 import net.arnx.xmlic.internal.org.jaxen.XPath;
+import net.arnx.xmlic.internal.org.jaxen.util.SingleObjectIterator;
 
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -95,7 +98,7 @@ import org.xml.sax.SAXException;
  *  @see XPath
  *  @see NamespaceNode
  */
-public class DocumentNavigator extends DefaultNavigator
+public class DocumentNavigator extends DefaultNavigator implements NamedAccessNavigator
 {
 
     
@@ -110,6 +113,8 @@ public class DocumentNavigator extends DefaultNavigator
     
     private final static DocumentNavigator SINGLETON = new DocumentNavigator();
 
+    private volatile boolean elementIndex;
+
 
     
     ////////////////////////////////////////////////////////////////////
@@ -136,6 +141,30 @@ public class DocumentNavigator extends DefaultNavigator
     }
 
 
+    /**
+     * Set whether the named descendant axes use an {@link ElementIndex}.
+     * The index of a document is built by the first lookup, which pays off
+     * when many lookups run on the same document.
+     *
+     * @param enabled true to use the index
+     */
+    public void setElementIndex (boolean enabled)
+    {
+        this.elementIndex = enabled;
+    }
+
+
+    /**
+     * Get whether the named descendant axes use an {@link ElementIndex}.
+     *
+     * @return true if the index is used
+     */
+    public boolean isElementIndex ()
+    {
+        return elementIndex;
+    }
+
+
     
     ////////////////////////////////////////////////////////////////////
     // Implementation of org.jaxen.DefaultNavigator.
@@ -171,6 +200,79 @@ public class DocumentNavigator extends DefaultNavigator
     }
 
 
+    /**
+     * Get an iterator over the child elements that have the specified name.
+     *
+     * @param contextNode the context node for the child axis
+     * @param localName the local name of the children to return
+     * @param namespacePrefix the prefix of the namespace of the children to return
+     * @param namespaceURI the namespace URI of the children to return
+     * @return a possibly-empty iterator (not null)
+     */
+    public Iterator getChildAxisIterator (Object contextNode, 
+            String localName, String namespacePrefix, String namespaceURI)
+    {
+        Node node = (Node) contextNode;
+
+        if ( node.getNodeType() == Node.ELEMENT_NODE || node.getNodeType() == Node.DOCUMENT_NODE)
+        {
+            return new NamedChildIterator(node, localName, namespaceURI);
+        }
+
+        return JaxenConstants.EMPTY_ITERATOR;
+    }
+
+
+    /**
+     * Get an iterator over the descendant elements that have the specified name.
+     *
+     * @param contextNode the context node for the descendant axis
+     * @param localName the local name of the descendants to return
+     * @param namespacePrefix the prefix of the namespace of the descendants to return
+     * @param namespaceURI the namespace URI of the descendants to return
+     * @return a possibly-empty iterator (not null)
+     */
+    public Iterator getDescendantAxisIterator (Object contextNode, 
+            String localName, String namespacePrefix, String namespaceURI)
+    {
+        return getNamedDescendants((Node) contextNode, localName, namespaceURI, false);
+    }
+
+
+    /**
+     * Get an iterator over the context node and its descendant elements
+     * that have the specified name.
+     *
+     * @param contextNode the context node for the descendant-or-self axis
+     * @param localName the local name of the nodes to return
+     * @param namespacePrefix the prefix of the namespace of the nodes to return
+     * @param namespaceURI the namespace URI of the nodes to return
+     * @return a possibly-empty iterator (not null)
+     */
+    public Iterator getDescendantOrSelfAxisIterator (Object contextNode, 
+            String localName, String namespacePrefix, String namespaceURI)
+    {
+        return getNamedDescendants((Node) contextNode, localName, namespaceURI, true);
+    }
+
+
+    private Iterator getNamedDescendants (Node node, String localName, String namespaceURI, boolean self)
+    {
+        if ( node.getNodeType() != Node.ELEMENT_NODE && node.getNodeType() != Node.DOCUMENT_NODE)
+        {
+            return JaxenConstants.EMPTY_ITERATOR;
+        }
+
+        if (elementIndex) {
+            List elements = ElementIndex.getElements(node, localName, namespaceURI, self);
+            if (elements != null) {
+                return elements.iterator();
+            }
+        }
+        return new NamedDescendantIterator(node, localName, namespaceURI, self);
+    }
+
+
     /**
      * Get a (single-member) iterator over this node's parent.
      *
@@ -322,6 +424,46 @@ public class DocumentNavigator extends DefaultNavigator
     }
 
 
+    /**
+     * Get a (single-member) iterator over the attribute that has the specified name.
+     *
+     * @param contextNode the context node for the attribute axis
+     * @param localName the local name of the attribute to return
+     * @param namespacePrefix the prefix of the namespace of the attribute to return
+     * @param namespaceURI the namespace URI of the attribute to return
+     * @return a possibly-empty iterator (not null)
+     */
+    public Iterator getAttributeAxisIterator (Object contextNode, 
+            String localName, String namespacePrefix, String namespaceURI)
+    {
+        if (!isElement(contextNode)) {
+            return JaxenConstants.EMPTY_ITERATOR;
+        }
+        
+        if (namespaceURI != null && namespaceURI.length() == 0) {
+            namespaceURI = null;
+        } else if ("http://www.w3.org/2000/xmlns/".equals(namespaceURI)) {
+            // XPath doesn't consider namespace declarations to be attributes 
+            return JaxenConstants.EMPTY_ITERATOR;
+        }
+        
+        Element elem = (Element) contextNode;
+        Attr attr = elem.getAttributeNodeNS(namespaceURI, localName);
+        if (attr == null && namespaceURI == null) {
+            // DOM Level 1 attributes have no local name
+            attr = elem.getAttributeNode(localName);
+            if (attr != null && attr.getLocalName() != null) {
+                attr = null;
+            }
+        }
+        
+        if (attr == null) {
+            return JaxenConstants.EMPTY_ITERATOR;
+        }
+        return new SingleObjectIterator(attr);
+    }
+
+
     /**
      * Get an iterator over all declared namespaces.
      *
@@ -352,78 +494,9 @@ public class DocumentNavigator extends DefaultNavigator
     {
         // Only elements have namespace nodes
         if (isElement(contextNode)) {
-
-            HashMap nsMap = new HashMap();
-
-            // Starting at the current node, walk
-            // up to the root, noting the namespace
-            // declarations in scope.
-            for (Node n = (Node) contextNode;
-                 n != null;
-                 n = n.getParentNode()) {
-                
-                // 1. Look for the namespace of the element itself
-                String myNamespace = n.getNamespaceURI();
-                if (myNamespace != null && ! "".equals(myNamespace)) {
-                    String myPrefix = n.getPrefix();
-                    if (!nsMap.containsKey(myPrefix)) {
-                        NamespaceNode ns = new NamespaceNode((Node) contextNode, myPrefix, myNamespace);
-                        nsMap.put(myPrefix, ns);
-                    }
-                }
-
-                if (n.hasAttributes()) {
-                    NamedNodeMap atts = n.getAttributes();
-                    int length = atts.getLength();
-                    // 2. Look for namespaces of attributes
-                    for (int i = 0; i < length; i++) {
-                        Attr att = (Attr) atts.item(i);
-                        // Work around Crimson bug by testing URI rather than name
-                        String attributeNamespace = att.getNamespaceURI();
-                        if ("http://www.w3.org/2000/xmlns/".equals(attributeNamespace)) {
-                        }
-                        else if (attributeNamespace != null) {
-                            String prefix = att.getPrefix();
-                            NamespaceNode ns =
-                                new NamespaceNode((Node)contextNode, prefix, attributeNamespace);
-                            // Add only if there's not a closer declaration in force.
-                            if (!nsMap.containsKey(prefix)) nsMap.put(prefix, ns);
-                            
-                        }
-                    }
-                    
-                    // 3. Look for namespace declaration attributes
-                    for (int i = 0; i < length; i++) {
-                        Attr att = (Attr) atts.item(i);
-                        // work around crimson bug by testing URI rather than name
-                        String attributeNamespace = att.getNamespaceURI();
-                        if ("http://www.w3.org/2000/xmlns/".equals(attributeNamespace)) {
-                            NamespaceNode ns =
-                              new NamespaceNode( (Node)contextNode, att);
-                            // Add only if there's not a closer declaration in force.
-                            String name = ns.getNodeName();
-                            if (!nsMap.containsKey(name)) nsMap.put(name, ns);
-                        }
-                    }
-                    
-                }
-                
-            }
-            // Section 5.4 of the XPath rec requires
-            // this to be present.
-            nsMap.put("xml",
-                      new
-                      NamespaceNode((Node)contextNode,
-                                    "xml",
-                                    "http://www.w3.org/XML/1998/namespace"));
-
-            // An empty default namespace cancels
-            // any previous default.
-            NamespaceNode defaultNS = (NamespaceNode)nsMap.get("");
-            if (defaultNS != null && defaultNS.getNodeValue().length() == 0) {
-                nsMap.remove("");
-            }
-            return nsMap.values().iterator();
+            // The in-scope namespaces are cached per element
+            // and shared with the parent when nothing changes.
+            return InScopeNamespaces.getNamespaceNodes((Node) contextNode).iterator();
         } 
         else {
             return JaxenConstants.EMPTY_ITERATOR;
@@ -711,10 +784,9 @@ public class DocumentNavigator extends DefaultNavigator
         if (isText(node)) {
             buffer.append(node.getNodeValue());
         } else {
-            NodeList children = node.getChildNodes();
-            int length = children.getLength();
-            for (int i = 0; i < length; i++) {
-                getStringValue(children.item(i), buffer);
+            // walk siblings directly, NodeList.item() may share a cache between threads
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                getStringValue(child, buffer);
             }
         }
         return buffer;
@@ -797,12 +869,8 @@ public class DocumentNavigator extends DefaultNavigator
      */
     public String translateNamespacePrefixToUri (String prefix, Object element)
     {
-        Iterator it = getNamespaceAxisIterator(element);
-        while (it.hasNext()) {
-            NamespaceNode ns = (NamespaceNode)it.next();
-            if (prefix.equals(ns.getNodeName())) return ns.getNodeValue();
-        }
-        return null;
+        if (!isElement(element)) return null;
+        return (String) InScopeNamespaces.getBindings((Node) element).get(prefix);
     }
 
     /**
@@ -984,6 +1052,161 @@ public class DocumentNavigator extends DefaultNavigator
 
 
     
+    ////////////////////////////////////////////////////////////////////
+    // Inner class: iterate over named child elements.
+    ////////////////////////////////////////////////////////////////////
+
+
+    /**
+     * An iterator over the child elements that have a specified name.
+     */
+    private static class NamedChildIterator implements Iterator
+    {
+
+        /**
+         * Constructor.
+         *
+         * @param parent the parent DOM node for the child elements.
+         * @param localName the local name of the child elements.
+         * @param namespaceURI the namespace URI of the child elements.
+         */
+        NamedChildIterator (Node parent, String localName, String namespaceURI)
+        {
+            this.localName = localName;
+            this.namespaceURI = (namespaceURI != null && namespaceURI.length() > 0) ? namespaceURI : null;
+            this.node = findNext(parent.getFirstChild());
+        }
+
+        public boolean hasNext ()
+        {
+            return (node != null);
+        }
+
+        public Object next ()
+        {
+            if (node == null) throw new NoSuchElementException();
+            Node ret = node;
+            node = findNext(node.getNextSibling());
+            return ret;
+        }
+
+        public void remove ()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        private Node findNext (Node current)
+        {
+            for (; current != null; current = current.getNextSibling()) {
+                if (current.getNodeType() != Node.ELEMENT_NODE) continue;
+                
+                String name = current.getLocalName();
+                if (name == null) name = current.getNodeName();
+                if (!localName.equals(name)) continue;
+                
+                String uri = current.getNamespaceURI();
+                if (uri != null && uri.length() == 0) uri = null;
+                if (namespaceURI == null ? uri == null : namespaceURI.equals(uri)) {
+                    return current;
+                }
+            }
+            return null;
+        }
+
+        private String localName;
+        private String namespaceURI;
+        private Node node;
+
+    }
+
+
+    /**
+     * An iterator over the descendant elements that have a specified name.
+     */
+    private static class NamedDescendantIterator implements Iterator
+    {
+
+        /**
+         * Constructor.
+         *
+         * @param root the DOM node whose descendants are returned.
+         * @param localName the local name of the elements.
+         * @param namespaceURI the namespace URI of the elements.
+         * @param self true if the root itself is returned when it matches.
+         */
+        NamedDescendantIterator (Node root, String localName, String namespaceURI, boolean self)
+        {
+            this.root = root;
+            this.localName = localName;
+            this.namespaceURI = (namespaceURI != null && namespaceURI.length() > 0) ? namespaceURI : null;
+            this.node = (self && matches(root)) ? root : findNext(root);
+        }
+
+        public boolean hasNext ()
+        {
+            return (node != null);
+        }
+
+        public Object next ()
+        {
+            if (node == null) throw new NoSuchElementException();
+            Node ret = node;
+            node = findNext(node);
+            return ret;
+        }
+
+        public void remove ()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        private Node findNext (Node current)
+        {
+            // only elements have element descendants
+            Node next = firstElement(current.getFirstChild());
+            while (next == null || !matches(next)) {
+                if (next != null) {
+                    current = next;
+                    next = firstElement(current.getFirstChild());
+                    continue;
+                }
+                if (current == root) return null;
+                next = firstElement(current.getNextSibling());
+                current = current.getParentNode();
+            }
+            return next;
+        }
+
+        private static Node firstElement (Node current)
+        {
+            while (current != null && current.getNodeType() != Node.ELEMENT_NODE) {
+                current = current.getNextSibling();
+            }
+            return current;
+        }
+
+        private boolean matches (Node current)
+        {
+            if (current.getNodeType() != Node.ELEMENT_NODE) return false;
+
+            String name = current.getLocalName();
+            if (name == null) name = current.getNodeName();
+            if (!localName.equals(name)) return false;
+
+            String uri = current.getNamespaceURI();
+            if (uri != null && uri.length() == 0) uri = null;
+            return (namespaceURI == null ? uri == null : namespaceURI.equals(uri));
+        }
+
+        private Node root;
+        private String localName;
+        private String namespaceURI;
+        private Node node;
+
+    }
+
+
+
     ////////////////////////////////////////////////////////////////////
     // Inner class: iterate over a DOM named node map.
     ////////////////////////////////////////////////////////////////////
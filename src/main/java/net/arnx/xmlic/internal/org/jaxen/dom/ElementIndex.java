@@ -0,0 +1,189 @@
+package net.arnx.xmlic.internal.org.jaxen.dom;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * <p>A per-document index of the elements by namespace URI and local name.</p>
+ *
+ * <p>The elements are numbered in document order, and each element knows the
+ * number of the last element in its subtree. The elements with a name under a
+ * node are therefore a range of the list of the elements with that name, which
+ * is found by a binary search. The index is stored in the user data of the
+ * document and is dropped by {@link #clear(Document)}, and by any DOM mutation
+ * through {@link DocumentCache}. No index is built for a document that doesn't
+ * support mutation events.</p>
+ */
+public final class ElementIndex
+{
+    private static final String INDEX = ElementIndex.class.getName() + ".index";
+
+    private final Map ranges = new IdentityHashMap();
+    private final Map names = new HashMap();
+
+    private ElementIndex()
+    {
+    }
+
+    /**
+     * Returns the elements with a name in the subtree of a node, in document
+     * order. The list must not be modified.
+     *
+     * @param node the document or the element to search
+     * @param localName the local name of the elements
+     * @param namespaceURI the namespace URI of the elements, or null for no namespace
+     * @param self true if the node itself is included
+     * @return the elements, or null if the node is not in the index or the
+     *   document can't be indexed
+     */
+    public static List getElements(Node node, String localName, String namespaceURI, boolean self)
+    {
+        Document doc = (node.getNodeType() == Node.DOCUMENT_NODE) ? (Document) node : node.getOwnerDocument();
+        if (doc == null || !DocumentCache.isSupported(doc)) {
+            return null;
+        }
+
+        ElementIndex index;
+        synchronized (doc) {
+            index = (ElementIndex) doc.getUserData(INDEX);
+            if (index == null) {
+                index = build(doc);
+                DocumentCache.put(doc, INDEX, index);
+            }
+        }
+        return index.find(node, localName, namespaceURI, self);
+    }
+
+    /**
+     * Drops the index of a document.
+     *
+     * @param doc a document
+     */
+    public static void clear(Document doc)
+    {
+        synchronized (doc) {
+            DocumentCache.remove(doc, INDEX);
+        }
+    }
+
+    private List find(Node node, String localName, String namespaceURI, boolean self)
+    {
+        int[] range = (int[]) ranges.get(node);
+        if (range == null) {
+            return null;
+        }
+
+        Names list = (Names) names.get(key(localName, namespaceURI));
+        if (list == null) {
+            return Collections.EMPTY_LIST;
+        }
+
+        int start = list.search(self ? range[0] : range[0] + 1);
+        int end = list.search(range[1] + 1);
+        return Arrays.asList(list.nodes).subList(start, end);
+    }
+
+    private static ElementIndex build(Document doc)
+    {
+        ElementIndex index = new ElementIndex();
+
+        // the same nodes as the descendant axis of DocumentNavigator
+        int count = 0;
+        Node node = doc;
+        while (node != null) {
+            int number = count++;
+            index.ranges.put(node, new int[] { number, number });
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                String name = node.getLocalName();
+                if (name == null) name = node.getNodeName();
+                String key = key(name, node.getNamespaceURI());
+                Names list = (Names) index.names.get(key);
+                if (list == null) {
+                    list = new Names();
+                    index.names.put(key, list);
+                }
+                list.add(node, number);
+            }
+
+            Node next = firstElement(node.getFirstChild());
+            while (next == null && node != doc) {
+                ((int[]) index.ranges.get(node))[1] = count - 1;
+                next = firstElement(node.getNextSibling());
+                node = node.getParentNode();
+            }
+            node = next;
+        }
+        ((int[]) index.ranges.get(doc))[1] = count - 1;
+
+        for (Iterator i = index.names.values().iterator(); i.hasNext(); ) {
+            ((Names) i.next()).trim();
+        }
+        return index;
+    }
+
+    private static Node firstElement(Node node)
+    {
+        while (node != null && node.getNodeType() != Node.ELEMENT_NODE) {
+            node = node.getNextSibling();
+        }
+        return node;
+    }
+
+    private static String key(String localName, String namespaceURI)
+    {
+        if (namespaceURI == null || namespaceURI.length() == 0) {
+            return localName;
+        }
+        return "{" + namespaceURI + "}" + localName;
+    }
+
+    private static class Names
+    {
+        Object[] nodes = new Object[4];
+        int[] numbers = new int[4];
+        int size;
+
+        void add(Node node, int number)
+        {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                numbers = Arrays.copyOf(numbers, size * 2);
+            }
+            nodes[size] = node;
+            numbers[size] = number;
+            size++;
+        }
+
+        void trim()
+        {
+            nodes = Arrays.copyOf(nodes, size);
+            numbers = Arrays.copyOf(numbers, size);
+        }
+
+        /**
+         * Returns the index of the first element whose number is not less than the number.
+         */
+        int search(int number)
+        {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (numbers[mid] < number) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
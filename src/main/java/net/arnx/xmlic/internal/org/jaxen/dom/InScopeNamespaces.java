@@ -0,0 +1,212 @@
+package net.arnx.xmlic.internal.org.jaxen.dom;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * <p>A per-document cache of the namespaces in scope for each element.</p>
+ *
+ * <p>The bindings of an element are computed from the bindings of its parent,
+ * and an element that doesn't declare or use a new namespace shares the map of
+ * its parent. The cache is stored in the user data of the document and is
+ * dropped by {@link #clear(Document)}, and by any DOM mutation through
+ * {@link DocumentCache}. For a document that doesn't support mutation events,
+ * the scopes are computed again for each call.</p>
+ */
+public final class InScopeNamespaces
+{
+    private static final String XMLNS_NS = "http://www.w3.org/2000/xmlns/";
+    private static final String XML_NS = "http://www.w3.org/XML/1998/namespace";
+
+    private static final String CACHE = InScopeNamespaces.class.getName() + ".cache";
+
+    private static final Map ROOT;
+
+    static {
+        // Section 5.4 of the XPath rec requires xml to be present.
+        Map root = new HashMap();
+        root.put("xml", XML_NS);
+        ROOT = Collections.unmodifiableMap(root);
+    }
+
+    private InScopeNamespaces()
+    {
+    }
+
+    /**
+     * Returns the namespaces in scope for an element as an unmodifiable map
+     * from a prefix ("" for the default namespace) to a namespace URI.
+     *
+     * @param element an element
+     * @return the in-scope namespaces
+     */
+    public static Map getBindings(Node element)
+    {
+        return getScope(element).bindings;
+    }
+
+    /**
+     * Returns the namespace nodes of an element. The same element always
+     * returns the same nodes until the cache is cleared.
+     *
+     * @param element an element
+     * @return an unmodifiable list of {@link NamespaceNode}
+     */
+    public static List getNamespaceNodes(Node element)
+    {
+        Scope scope = getScope(element);
+        synchronized (scope) {
+            if (scope.nodes == null) {
+                List nodes = new ArrayList(scope.bindings.size());
+                for (Iterator i = scope.bindings.entrySet().iterator(); i.hasNext(); ) {
+                    Map.Entry entry = (Map.Entry) i.next();
+                    nodes.add(new NamespaceNode(element, (String) entry.getKey(), (String) entry.getValue()));
+                }
+                scope.nodes = Collections.unmodifiableList(nodes);
+            }
+            return scope.nodes;
+        }
+    }
+
+    /**
+     * Drops the cache of a document.
+     *
+     * @param doc a document
+     */
+    public static void clear(Document doc)
+    {
+        synchronized (doc) {
+            DocumentCache.remove(doc, CACHE);
+        }
+    }
+
+    private static Scope getScope(Node element)
+    {
+        Document doc = element.getOwnerDocument();
+        synchronized (doc) {
+            Map cache = (Map) doc.getUserData(CACHE);
+            if (cache == null) {
+                cache = new IdentityHashMap();
+                DocumentCache.put(doc, CACHE, cache);
+            }
+
+            Scope scope = (Scope) cache.get(element);
+            if (scope != null) {
+                return scope;
+            }
+
+            // find the nearest cached ancestor and compute the scopes downward
+            List path = new ArrayList();
+            Map bindings = ROOT;
+            for (Node n = element; n != null && n.getNodeType() == Node.ELEMENT_NODE; n = n.getParentNode()) {
+                Scope cached = (Scope) cache.get(n);
+                if (cached != null) {
+                    bindings = cached.bindings;
+                    break;
+                }
+                path.add(n);
+            }
+
+            for (int i = path.size() - 1; i >= 0; i--) {
+                Node n = (Node) path.get(i);
+                bindings = bind(n, bindings);
+                scope = new Scope(bindings);
+                cache.put(n, scope);
+            }
+            return scope;
+        }
+    }
+
+    private static Map bind(Node element, Map parent)
+    {
+        Map local = null;
+
+        // 1. the namespace of the element itself
+        String uri = element.getNamespaceURI();
+        if (uri != null && uri.length() != 0) {
+            local = put(local, element.getPrefix(), uri);
+        }
+
+        if (element.hasAttributes()) {
+            NamedNodeMap atts = element.getAttributes();
+            int length = atts.getLength();
+
+            // 2. the namespaces of attributes
+            for (int i = 0; i < length; i++) {
+                Attr att = (Attr) atts.item(i);
+                String attributeNamespace = att.getNamespaceURI();
+                if (attributeNamespace != null && !XMLNS_NS.equals(attributeNamespace)) {
+                    local = put(local, att.getPrefix(), attributeNamespace);
+                }
+            }
+
+            // 3. namespace declarations
+            for (int i = 0; i < length; i++) {
+                Attr att = (Attr) atts.item(i);
+                if (XMLNS_NS.equals(att.getNamespaceURI())) {
+                    // work around Crimson bug; Crimson reports the prefix as the node name
+                    String name = att.getNodeName();
+                    if (name.equals("xmlns")) {
+                        name = "";
+                    } else if (name.startsWith("xmlns:")) {
+                        name = name.substring(6);
+                    }
+                    local = put(local, name, att.getNodeValue());
+                }
+            }
+        }
+
+        if (local == null) {
+            return parent;
+        }
+
+        // copy the parent bindings only if this element changes them
+        Map bindings = null;
+        for (Iterator i = local.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry entry = (Map.Entry) i.next();
+            Object prefix = entry.getKey();
+            Object value = entry.getValue();
+            if ("".equals(prefix) && "".equals(value)) {
+                // an empty default namespace cancels any previous default
+                if (parent.containsKey(prefix)) {
+                    if (bindings == null) bindings = new HashMap(parent);
+                    bindings.remove(prefix);
+                }
+            } else if (!value.equals(parent.get(prefix))) {
+                if (bindings == null) bindings = new HashMap(parent);
+                bindings.put(prefix, value);
+            }
+        }
+        return (bindings != null) ? Collections.unmodifiableMap(bindings) : parent;
+    }
+
+    private static Map put(Map local, String prefix, String uri)
+    {
+        if (prefix == null) prefix = "";
+        if (local == null) local = new HashMap();
+        // the first binding on the element wins
+        if (!local.containsKey(prefix)) local.put(prefix, uri);
+        return local;
+    }
+
+    private static class Scope
+    {
+        final Map bindings;
+        List nodes;
+
+        Scope(Map bindings)
+        {
+            this.bindings = bindings;
+        }
+    }
+}
@@ -86,6 +86,16 @@ public class DefaultAbsoluteLocationPath extends DefaultLocationPath
         return "/" + super.getText();
     }
 
+    Object getStartNode(Context context)
+    {
+        List contextNodes = context.getNodeSet();
+        if ( contextNodes.isEmpty() )
+        {
+            return null;
+        }
+        return context.getNavigator().getDocumentNode( contextNodes.get( 0 ) );
+    }
+
     public Object evaluate(Context context) throws JaxenException
     {
         ContextSupport support = context.getContextSupport();
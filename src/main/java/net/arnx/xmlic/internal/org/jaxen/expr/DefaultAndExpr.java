@@ -49,8 +49,6 @@ package net.arnx.xmlic.internal.org.jaxen.expr;
 
 import net.arnx.xmlic.internal.org.jaxen.Context;
 import net.arnx.xmlic.internal.org.jaxen.JaxenException;
-import net.arnx.xmlic.internal.org.jaxen.Navigator;
-import net.arnx.xmlic.internal.org.jaxen.function.BooleanFunction;
 
 class DefaultAndExpr extends DefaultLogicalExpr
 {
@@ -78,8 +76,7 @@ class DefaultAndExpr extends DefaultLogicalExpr
 
     public Object evaluate(Context context) throws JaxenException
     {
-        Navigator nav = context.getNavigator();
-        Boolean lhsValue = BooleanFunction.evaluate( getLHS().evaluate( context ), nav );
+        Boolean lhsValue = evaluateAsBoolean( getLHS(), context );
 
         if ( !lhsValue.booleanValue() )
         {
@@ -88,7 +85,7 @@ class DefaultAndExpr extends DefaultLogicalExpr
 
         // Short circuits are required in XPath. "The right operand is not 
         // evaluated if the left operand evaluates to false."
-        Boolean rhsValue = BooleanFunction.evaluate( getRHS().evaluate( context ), nav );
+        Boolean rhsValue = evaluateAsBoolean( getRHS(), context );
 
         if ( !rhsValue.booleanValue() )
         {
@@ -49,6 +49,9 @@
 
 package net.arnx.xmlic.internal.org.jaxen.expr;
 
+import net.arnx.xmlic.internal.org.jaxen.Context;
+import net.arnx.xmlic.internal.org.jaxen.JaxenException;
+
 abstract class DefaultArithExpr extends DefaultBinaryExpr 
 {
     DefaultArithExpr(Expr lhs,
@@ -58,6 +61,17 @@ abstract class DefaultArithExpr extends DefaultBinaryExpr
                rhs );
     }
 
+    /**
+     * Boxes the result of {@link #evaluateNumber(Context)}. The operands
+     * are evaluated as primitives, so only the final result is boxed.
+     */
+    public Object evaluate(Context context) throws JaxenException
+    {
+        return new Double( evaluateNumber( context ) );
+    }
+
+    public abstract double evaluateNumber(Context context) throws JaxenException;
+
     public String toString()
     {
         return "[(DefaultArithExpr): " + getLHS() + ", " + getRHS() + "]";
@@ -50,7 +50,6 @@ package net.arnx.xmlic.internal.org.jaxen.expr;
 
 import net.arnx.xmlic.internal.org.jaxen.Context;
 import net.arnx.xmlic.internal.org.jaxen.JaxenException;
-import net.arnx.xmlic.internal.org.jaxen.function.NumberFunction;
 
 class DefaultDivExpr extends DefaultMultiplicativeExpr
 {
@@ -71,16 +70,9 @@ class DefaultDivExpr extends DefaultMultiplicativeExpr
         return "div";
     }
 
-    public Object evaluate(Context context) throws JaxenException
+    public double evaluateNumber(Context context) throws JaxenException
     {
-        Number lhsValue = NumberFunction.evaluate( getLHS().evaluate( context ),
-                                                   context.getNavigator() );
-        Number rhsValue = NumberFunction.evaluate( getRHS().evaluate( context ),
-                                                   context.getNavigator() );
-
-        double result = lhsValue.doubleValue() / rhsValue.doubleValue();
-
-        return new Double( result );
+        return evaluateAsNumber( getLHS(), context ) / evaluateAsNumber( getRHS(), context );
     }
 
 }
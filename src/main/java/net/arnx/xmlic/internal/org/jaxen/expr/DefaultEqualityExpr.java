@@ -47,8 +47,10 @@
 
 package net.arnx.xmlic.internal.org.jaxen.expr;
 
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import net.arnx.xmlic.internal.org.jaxen.Context;
 import net.arnx.xmlic.internal.org.jaxen.JaxenException;
@@ -71,15 +73,28 @@ abstract class DefaultEqualityExpr extends DefaultTruthExpr implements EqualityE
   
   public Object evaluate( Context context ) throws JaxenException
     {
+    if( isNumeric( getLHS() ) && isNumeric( getRHS() ) )
+      {
+      double lhs = evaluateAsNumber( getLHS(), context );
+      double rhs = evaluateAsNumber( getRHS(), context );
+      return evaluateDoubleDouble( lhs, rhs ) ? Boolean.TRUE : Boolean.FALSE;
+      }
+    
     Object lhsValue = getLHS().evaluate( context );
     Object rhsValue = getRHS().evaluate( context );
     
+    return evaluate( lhsValue, rhsValue, context.getNavigator() );
+  }
+  
+  /**
+   * Compares the values of both sides, which have been evaluated already.
+   */
+  Boolean evaluate( Object lhsValue, Object rhsValue, Navigator nav )
+    {
     if( lhsValue == null || rhsValue == null ) {
       return Boolean.FALSE;
     }
     
-    Navigator nav = context.getNavigator();
-
     if( bothAreSets(lhsValue, rhsValue) ) {
       return evaluateSetSet( (List) lhsValue, (List) rhsValue, nav );
     }
@@ -116,6 +131,11 @@ abstract class DefaultEqualityExpr extends DefaultTruthExpr implements EqualityE
             return Boolean.FALSE;
       }
     
+    if( !containsScalar( lhsSet ) && !containsScalar( rhsSet ) )
+      {
+      return evaluateStringSets( lhsSet, rhsSet, nav ) ? Boolean.TRUE : Boolean.FALSE;
+      }
+    
     for( Iterator lhsIterator = lhsSet.iterator(); lhsIterator.hasNext(); )
       {
       Object lhs = lhsIterator.next();
@@ -134,6 +154,66 @@ abstract class DefaultEqualityExpr extends DefaultTruthExpr implements EqualityE
     return Boolean.FALSE;
     }
   
+  /**
+   * Compares the string-values of two sets without a nested loop: the values of 
+   * the smaller set are hashed once and the other set is probed against them.
+   */
+  private boolean evaluateStringSets( List lhsSet, List rhsSet, Navigator nav )
+    {
+    List smaller = ( lhsSet.size() <= rhsSet.size() ) ? lhsSet : rhsSet;
+    List larger = ( smaller == lhsSet ) ? rhsSet : lhsSet;
+    
+    Set values = new HashSet();
+    for( Iterator iterator = smaller.iterator(); iterator.hasNext(); )
+      {
+      values.add( StringFunction.evaluate( iterator.next(), nav ) );
+      }
+    
+    if( "!=".equals( getOperator() ) )
+      {
+      // two different values are a pair of unequal nodes by themselves
+      if( values.size() > 1 )
+        {
+        return true;
+        }
+      Object value = values.iterator().next();
+      for( Iterator iterator = larger.iterator(); iterator.hasNext(); )
+        {
+        if( !value.equals( StringFunction.evaluate( iterator.next(), nav ) ) )
+          {
+          return true;
+          }
+        }
+      return false;
+      }
+    
+    for( Iterator iterator = larger.iterator(); iterator.hasNext(); )
+      {
+      if( values.contains( StringFunction.evaluate( iterator.next(), nav ) ) )
+        {
+        return true;
+        }
+      }
+    return false;
+    }
+  
+  /**
+   * Tests if a set contains a number or a boolean, which changes the way
+   * the values are compared.
+   */
+  private static boolean containsScalar( List set )
+    {
+    for( Iterator iterator = set.iterator(); iterator.hasNext(); )
+      {
+      Object obj = iterator.next();
+      if( obj instanceof Number || obj instanceof Boolean )
+        {
+        return true;
+        }
+      }
+    return false;
+    }
+  
   private boolean evaluateObjectObject( Object lhs, Object rhs, Navigator nav )
     {
     if( eitherIsBoolean( lhs, rhs ) )
@@ -143,10 +223,10 @@ abstract class DefaultEqualityExpr extends DefaultTruthExpr implements EqualityE
       }
     else if( eitherIsNumber( lhs, rhs ) )
       {
-      return evaluateObjectObject( NumberFunction.evaluate( lhs,
-                                                            nav ),
-                                   NumberFunction.evaluate( rhs,
-                                                            nav ) );                                              
+      return evaluateDoubleDouble( NumberFunction.doubleValue( lhs,
+                                                               nav ),
+                                   NumberFunction.doubleValue( rhs,
+                                                               nav ) );                                              
       }
     else
       {
@@ -158,4 +238,6 @@ abstract class DefaultEqualityExpr extends DefaultTruthExpr implements EqualityE
     }
   
   protected abstract boolean evaluateObjectObject( Object lhs, Object rhs );
+  
+  protected abstract boolean evaluateDoubleDouble( double lhs, double rhs );
   }
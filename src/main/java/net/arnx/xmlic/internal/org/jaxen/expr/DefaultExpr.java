@@ -52,6 +52,11 @@ package net.arnx.xmlic.internal.org.jaxen.expr;
 import java.util.Iterator;
 import java.util.List;
 
+import net.arnx.xmlic.internal.org.jaxen.Context;
+import net.arnx.xmlic.internal.org.jaxen.JaxenException;
+import net.arnx.xmlic.internal.org.jaxen.JaxenRuntimeException;
+import net.arnx.xmlic.internal.org.jaxen.function.BooleanFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.NumberFunction;
 import net.arnx.xmlic.internal.org.jaxen.util.SingleObjectIterator;
 import net.arnx.xmlic.internal.org.jaxen.util.SingletonList;
 
@@ -66,6 +71,59 @@ public abstract class DefaultExpr implements Expr
         return this;
     }
 
+    /**
+     * Evaluates the expression as the <code>number()</code> function
+     * converts it. Numeric expressions override this to compute the value
+     * as a primitive, so that a nested arithmetic expression doesn't box
+     * every intermediate result.
+     * 
+     * @param context the context to evaluate the expression in
+     * @return the number value of the expression
+     * @throws JaxenException if the evaluation fails
+     */
+    public double evaluateNumber(Context context) throws JaxenException
+    {
+        return NumberFunction.doubleValue( evaluate( context ), context.getNavigator() );
+    }
+
+    /**
+     * Evaluates an expression as a number, without boxing it when the
+     * expression supports it.
+     * 
+     * @param expr the expression to evaluate
+     * @param context the context to evaluate the expression in
+     * @return the number value of the expression
+     * @throws JaxenException if the evaluation fails
+     */
+    static double evaluateAsNumber(Expr expr, Context context) throws JaxenException
+    {
+        if ( expr instanceof DefaultExpr )
+        {
+            return ((DefaultExpr) expr).evaluateNumber( context );
+        }
+        return NumberFunction.doubleValue( expr.evaluate( context ), context.getNavigator() );
+    }
+
+    /**
+     * Tests if an expression always evaluates to a number: a number literal,
+     * an arithmetic expression or a negation, or a cached one of these. Function
+     * calls are not included, because a function can be replaced in the
+     * function context.
+     * 
+     * @param expr the expression to test
+     * @return true if the result is always a number
+     */
+    static boolean isNumeric(Expr expr)
+    {
+        if ( expr instanceof InvariantExpr )
+        {
+            return isNumeric( ((InvariantExpr) expr).getExpr() );
+        }
+        return expr instanceof DefaultNumberExpr
+            || expr instanceof DefaultArithExpr
+            || expr instanceof DefaultUnaryExpr;
+    }
+
     static public Iterator convertToIterator(Object obj)
     {
         if ( obj instanceof Iterator )
@@ -81,6 +139,55 @@ public abstract class DefaultExpr implements Expr
         return new SingleObjectIterator( obj );
     }
 
+    /**
+     * Returns an iterator that evaluates an expression on demand, or null
+     * if the expression is not a location path that can be evaluated lazily.
+     * The iterator throws {@link JaxenRuntimeException} on errors.
+     * 
+     * @param expr the expression to evaluate
+     * @param context the context to evaluate the expression in
+     * @return an iterator over the selected nodes in document order, or null
+     * @throws JaxenException if the evaluation can't start
+     */
+    static public Iterator iterate(Expr expr, Context context) throws JaxenException
+    {
+        if ( expr instanceof DefaultLocationPath )
+        {
+            return ((DefaultLocationPath) expr).iterate( context );
+        }
+        return null;
+    }
+
+    /**
+     * Evaluates an expression as a boolean. A location path is evaluated
+     * lazily when possible and stops at the first selected node.
+     * 
+     * @param expr the expression to evaluate
+     * @param context the context to evaluate the expression in
+     * @return the boolean value of the expression
+     * @throws JaxenException if the evaluation fails
+     */
+    static Boolean evaluateAsBoolean(Expr expr, Context context) throws JaxenException
+    {
+        Iterator iter = iterate( expr, context );
+        if ( iter != null )
+        {
+            try
+            {
+                return iter.hasNext() ? Boolean.TRUE : Boolean.FALSE;
+            }
+            catch ( JaxenRuntimeException e )
+            {
+                if ( e.getCause() instanceof JaxenException )
+                {
+                    throw (JaxenException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        return BooleanFunction.evaluate( expr.evaluate( context ), context.getNavigator() );
+    }
+
     static public List convertToList(Object obj)
     {
         if ( obj instanceof List )
@@ -99,6 +99,11 @@ public class DefaultFilterExpr extends DefaultExpr implements FilterExpr, Predic
         return this.expr;
     }
 
+    void setExpr(Expr expr)
+    {
+        this.expr = expr;
+    }
+
     public String toString()
     {
         return "[(DefaultFilterExpr): expr: " + expr + " predicates: " + predicates + " ]";
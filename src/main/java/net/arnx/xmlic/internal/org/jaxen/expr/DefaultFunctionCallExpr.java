@@ -53,8 +53,19 @@ import java.util.Iterator;
 import java.util.List;
 
 import net.arnx.xmlic.internal.org.jaxen.Context;
+import net.arnx.xmlic.internal.org.jaxen.ContextSupport;
 import net.arnx.xmlic.internal.org.jaxen.Function;
+import net.arnx.xmlic.internal.org.jaxen.FunctionContext;
 import net.arnx.xmlic.internal.org.jaxen.JaxenException;
+import net.arnx.xmlic.internal.org.jaxen.NamespaceContext;
+import net.arnx.xmlic.internal.org.jaxen.UnresolvableException;
+import net.arnx.xmlic.internal.org.jaxen.function.BooleanFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.CeilingFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.FloorFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.NotFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.NumberFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.RoundFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.SumFunction;
 
 /**
  * @deprecated this class will become non-public in the future;
@@ -70,6 +81,11 @@ public class DefaultFunctionCallExpr extends DefaultExpr implements FunctionCall
     private String functionName;
     private List parameters;
 
+    /** The contexts the function was resolved with by bind() */
+    private transient NamespaceContext boundNamespaces;
+    private transient FunctionContext boundFunctions;
+    private transient Function boundFunction;
+
     public DefaultFunctionCallExpr(String prefix, String functionName)
     {
         this.prefix = prefix;
@@ -165,7 +181,78 @@ public class DefaultFunctionCallExpr extends DefaultExpr implements FunctionCall
     }
 
     public Object evaluate(Context context) throws JaxenException
+    {
+        Function func = getFunction(context);
+        
+        // boolean() and not() only need to know if a location path selects any node
+        List params = getParameters();
+        if (params.size() == 1 && params.get(0) instanceof LocationPath) {
+            if (func instanceof BooleanFunction) {
+                return evaluateAsBoolean((Expr) params.get(0), context);
+            } else if (func instanceof NotFunction) {
+                return evaluateAsBoolean((Expr) params.get(0), context).booleanValue()
+                    ? Boolean.FALSE : Boolean.TRUE;
+            }
+        }
+        
+        if (params.size() == 1 && isNumberFunction(func)) {
+            return new Double(evaluateNumber(func, (Expr) params.get(0), context));
+        }
+        
+        List paramValues = evaluateParams(context);
+
+        return func.call(context, paramValues);
+    }
+
+    public double evaluateNumber(Context context) throws JaxenException
+    {
+        Function func = getFunction(context);
+        
+        List params = getParameters();
+        if (params.size() == 1 && isNumberFunction(func)) {
+            return evaluateNumber(func, (Expr) params.get(0), context);
+        }
+        
+        Object result = func.call(context, evaluateParams(context));
+        return NumberFunction.doubleValue(result, context.getNavigator());
+    }
+
+    /**
+     * Resolves the function through a context support once. The evaluations
+     * in a context with the same namespace and function contexts call the
+     * resolved function without
+     * looking it up again. A function that can't be resolved is left to the
+     * evaluation, which reports the error.
+     */
+    void bind(ContextSupport support)
     {
+        String prefix = getPrefix();
+        String namespaceURI = null;
+        // default namespace is not used within XPath expressions
+        if (prefix != null && !"".equals(prefix)) {
+            namespaceURI = support.translateNamespacePrefixToUri(prefix);
+        }
+
+        try {
+            this.boundFunction = support.getFunction(namespaceURI,
+                    prefix,
+                    getFunctionName());
+            this.boundNamespaces = support.getNamespaceContext();
+            this.boundFunctions = support.getFunctionContext();
+        } catch (UnresolvableException e) {
+            this.boundFunction = null;
+            this.boundFunctions = null;
+        }
+    }
+
+    private Function getFunction(Context context) throws JaxenException
+    {
+        ContextSupport support = context.getContextSupport();
+        if (boundFunctions != null && support.getFunctionContext() == boundFunctions
+                && support.getNamespaceContext() == boundNamespaces) {
+            return boundFunction;
+        }
+
         String prefix = getPrefix();
         String namespaceURI = null;
         // default namespace is not used within XPath expressions
@@ -173,12 +260,46 @@ public class DefaultFunctionCallExpr extends DefaultExpr implements FunctionCall
             namespaceURI = context.translateNamespacePrefixToUri(prefix);
         }
 
-        Function func = context.getFunction(namespaceURI,
+        return context.getFunction(namespaceURI,
                 prefix,
                 getFunctionName());
-        List paramValues = evaluateParams(context);
+    }
 
-        return func.call(context, paramValues);
+    /**
+     * Tests if a function is one of the core functions that take a number
+     * or a node-set and return a number. Subclasses are excluded, since they
+     * may change what the function does.
+     */
+    private static boolean isNumberFunction(Function func)
+    {
+        Class type = func.getClass();
+        return type == NumberFunction.class
+            || type == SumFunction.class
+            || type == RoundFunction.class
+            || type == FloorFunction.class
+            || type == CeilingFunction.class;
+    }
+
+    /**
+     * Calls a function accepted by {@link #isNumberFunction(Function)}
+     * with primitive values.
+     */
+    private static double evaluateNumber(Function func, Expr param, Context context) throws JaxenException
+    {
+        Class type = func.getClass();
+        if (type == SumFunction.class) {
+            return SumFunction.sum(param.evaluate(context), context.getNavigator());
+        }
+        
+        double value = evaluateAsNumber(param, context);
+        if (type == RoundFunction.class) {
+            return RoundFunction.round(value);
+        } else if (type == FloorFunction.class) {
+            return Math.floor(value);
+        } else if (type == CeilingFunction.class) {
+            return Math.ceil(value);
+        }
+        return value;
     }
 
     public List evaluateParams(Context context) throws JaxenException
@@ -63,9 +63,9 @@ DefaultGreaterThanEqualExpr( Expr lhs, Expr rhs )
     return ">=";
     }
 
-  protected boolean evaluateDoubleDouble( Double lhs, Double rhs )
+  protected boolean evaluateDoubleDouble( double lhs, double rhs )
     {
-    return lhs.compareTo( rhs ) >= 0;        
+    return Double.compare( lhs, rhs ) >= 0;        
     }
 
 }
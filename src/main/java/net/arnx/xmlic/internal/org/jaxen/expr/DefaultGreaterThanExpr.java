@@ -64,9 +64,9 @@ DefaultGreaterThanExpr( Expr lhs, Expr rhs )
     return ">";
     }
 
-  protected boolean evaluateDoubleDouble( Double lhs, Double rhs )
+  protected boolean evaluateDoubleDouble( double lhs, double rhs )
     {
-    return lhs.doubleValue() > rhs.doubleValue();        
+    return lhs > rhs;        
     }
     
 }
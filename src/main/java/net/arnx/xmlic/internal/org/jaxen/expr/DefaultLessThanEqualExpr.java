@@ -61,9 +61,9 @@ DefaultLessThanEqualExpr( Expr lhs, Expr rhs )
     return "<=";
     }
 
-  protected boolean evaluateDoubleDouble( Double lhs, Double rhs )
+  protected boolean evaluateDoubleDouble( double lhs, double rhs )
     {
-    return lhs.doubleValue() <= rhs.doubleValue();        
+    return lhs <= rhs;        
     }
 
 }
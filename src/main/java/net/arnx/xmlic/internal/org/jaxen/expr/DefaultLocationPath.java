@@ -61,6 +61,9 @@ abstract class DefaultLocationPath extends DefaultExpr implements LocationPath
 {
     private List steps;
     
+    private transient LazyLocationIterator.LazyStep[] lazySteps;
+    private transient boolean planned;
+    
     /**
      * Create a new empty location path.
      */
@@ -72,6 +75,7 @@ abstract class DefaultLocationPath extends DefaultExpr implements LocationPath
     public void addStep(Step step)
     {
         getSteps().add(step);
+        this.planned = false;
     }
 
     public List getSteps()
@@ -81,6 +85,7 @@ abstract class DefaultLocationPath extends DefaultExpr implements LocationPath
 
     public Expr simplify()
     {
+        this.planned = false;
         Iterator stepIter = getSteps().iterator();
         Step eachStep = null;
         while (stepIter.hasNext())
@@ -126,6 +131,46 @@ abstract class DefaultLocationPath extends DefaultExpr implements LocationPath
         return false;
     }
 
+    /**
+     * Returns an iterator that evaluates this location path on demand, or null
+     * if this path can't be evaluated lazily for the context. The iterator returns
+     * the same nodes as {@link #evaluate(Context)}, in document order, and throws
+     * {@link net.arnx.xmlic.internal.org.jaxen.JaxenRuntimeException} on errors.
+     * 
+     * @param context the context to evaluate this path in
+     * @return an iterator over the selected nodes, or null
+     * @throws JaxenException if the evaluation can't start
+     */
+    public Iterator iterate(Context context) throws JaxenException
+    {
+        if (!planned) {
+            lazySteps = LazyLocationIterator.plan(getSteps());
+            planned = true;
+        }
+        LazyLocationIterator.LazyStep[] plan = lazySteps;
+        if (plan == null) {
+            return null;
+        }
+        
+        Object startNode = getStartNode(context);
+        if (startNode == null) {
+            return null;
+        }
+        return new LazyLocationIterator(plan, startNode, context.getContextSupport());
+    }
+    
+    /**
+     * Returns the node that the first step starts from when the path is evaluated lazily.
+     * 
+     * @param context the context to evaluate this path in
+     * @return the start node, or null if there is not exactly one
+     */
+    Object getStartNode(Context context)
+    {
+        List nodeSet = context.getNodeSet();
+        return (nodeSet.size() == 1) ? nodeSet.get(0) : null;
+    }
+
     public Object evaluate(Context context) throws JaxenException
     {
         List nodeSet = context.getNodeSet();
@@ -40,7 +40,9 @@ import java.util.List;
 
 import net.arnx.xmlic.internal.org.jaxen.Context;
 import net.arnx.xmlic.internal.org.jaxen.ContextSupport;
+import net.arnx.xmlic.internal.org.jaxen.JaxenConstants;
 import net.arnx.xmlic.internal.org.jaxen.JaxenException;
+import net.arnx.xmlic.internal.org.jaxen.NamespaceContext;
 import net.arnx.xmlic.internal.org.jaxen.Navigator;
 import net.arnx.xmlic.internal.org.jaxen.UnresolvableException;
 import net.arnx.xmlic.internal.org.jaxen.expr.iter.IterableAxis;
@@ -87,6 +89,15 @@ public class DefaultNameStep extends DefaultStep implements NameStep {
     /** Quick flag denoting if we have a namespace prefix **/
     private boolean hasPrefix;
 
+    /** Whether the namespace URI was resolved by bind() */
+    private transient boolean bound;
+
+    /** The namespace context the namespace URI was resolved with */
+    private transient NamespaceContext boundNamespaces;
+
+    /** The namespace URI of the prefix, or of the default namespace */
+    private transient String boundURI;
+
     /**
      * Constructor.
      * 
@@ -170,14 +181,9 @@ public class DefaultNameStep extends DefaultStep implements NameStep {
             Object contextNode = contextNodeSet.get(0);
             if (namedAccess) {
                 // get the iterator over the nodes and check it
-                String uri = null;
-                if (hasPrefix) {
-                    uri = support.translateNamespacePrefixToUri(prefix);
-                    if (uri == null) {
-                        throw new UnresolvableException("XPath expression uses unbound namespace prefix " + prefix);
-                    }
-                } else {
-                	uri = support.translateNamespacePrefixToUri("");
+                String uri = translateNamespacePrefixToUri(support);
+                if (hasPrefix && uri == null) {
+                    throw new UnresolvableException("XPath expression uses unbound namespace prefix " + prefix);
                 }
                 Iterator axisNodeIter = iterableAxis.namedAccessIterator(
                                 contextNode, support, localName, prefix, uri);
@@ -185,15 +191,9 @@ public class DefaultNameStep extends DefaultStep implements NameStep {
                     return Collections.EMPTY_LIST;
                 }
 
-                // convert iterator to list for predicate test
-                // no need to filter as named access guarantees this
-                List newNodeSet = new ArrayList();
-                while (axisNodeIter.hasNext()) {
-                    newNodeSet.add(axisNodeIter.next());
-                }
-                
                 // evaluate the predicates
-                return getPredicateSet().evaluatePredicates(newNodeSet, support);
+                // no need to filter as named access guarantees this
+                return evaluateAxis(axisNodeIter, false, null, support);
                 
             } 
             else {
@@ -204,34 +204,19 @@ public class DefaultNameStep extends DefaultStep implements NameStep {
                 }
 
                 // run through iterator, filtering using matches()
-                // adding to list for predicate test
-                List newNodeSet = new ArrayList(contextSize);
-                while (axisNodeIter.hasNext()) {
-                    Object eachAxisNode = axisNodeIter.next();
-                    if (matches(eachAxisNode, support)) {
-                        newNodeSet.add(eachAxisNode);
-                    }
-                }
-                
-                // evaluate the predicates
-                return getPredicateSet().evaluatePredicates(newNodeSet, support);
+                // and evaluate the predicates
+                return evaluateAxis(axisNodeIter, true, null, support);
             }
         }
 
         // full case
         IdentitySet unique = new IdentitySet();
-        List interimSet = new ArrayList(contextSize);
         List newNodeSet = new ArrayList(contextSize);
         
         if (namedAccess) {
-            String uri = null;
-            if (hasPrefix) {
-                uri = support.translateNamespacePrefixToUri(prefix);
-                if (uri == null) {
-                    throw new UnresolvableException("XPath expression uses unbound namespace prefix " + prefix);
-                }
-            } else {
-                uri = support.translateNamespacePrefixToUri("");
+            String uri = translateNamespacePrefixToUri(support);
+            if (hasPrefix && uri == null) {
+                throw new UnresolvableException("XPath expression uses unbound namespace prefix " + prefix);
             }
             for (int i = 0; i < contextSize; ++i) {
                 Object eachContextNode = contextNodeSet.get(i);
@@ -242,14 +227,8 @@ public class DefaultNameStep extends DefaultStep implements NameStep {
                     continue;
                 }
 
-				while (axisNodeIter.hasNext())
-				{
-					Object eachAxisNode = axisNodeIter.next();
-					interimSet.add(eachAxisNode);
-				}
-
 				// evaluate the predicates
-				List predicateNodes = getPredicateSet().evaluatePredicates(interimSet, support);
+				List predicateNodes = evaluateAxis(axisNodeIter, false, null, support);
 
 				// ensure only one of each node in the result
 				Iterator predicateNodeIter = predicateNodes.iterator();
@@ -262,7 +241,6 @@ public class DefaultNameStep extends DefaultStep implements NameStep {
 						newNodeSet.add(eachPredicateNode);
 					}
 				}
-				interimSet.clear();
 			}
             
         } else {
@@ -282,17 +260,8 @@ public class DefaultNameStep extends DefaultStep implements NameStep {
                  * see any attributes or namespaces
                  */
                 
-                // ensure only unique matching nodes in the result
-                while (axisNodeIter.hasNext()) {
-                    Object eachAxisNode = axisNodeIter.next();
-
-                    if (matches(eachAxisNode, support)) {
-						interimSet.add(eachAxisNode);
-                    }
-                }
-
                 // evaluate the predicates
-				List predicateNodes = getPredicateSet().evaluatePredicates(interimSet, support);
+				List predicateNodes = evaluateAxis(axisNodeIter, true, null, support);
 
 				// ensure only one of each node in the result
 				Iterator predicateNodeIter = predicateNodes.iterator();
@@ -305,13 +274,35 @@ public class DefaultNameStep extends DefaultStep implements NameStep {
 						newNodeSet.add(eachPredicateNode);
 					}
 				}
-                interimSet.clear();
             }
         }
         
         return newNodeSet;
     }
     
+    /**
+     * Returns an iterator over the nodes of the axis that have the name of
+     * this step, or null if the axis can't look them up by name.
+     * 
+     * @param contextNode  the node from which to follow this step
+     * @param support  the context support
+     * @return an iterator, or null if named access isn't possible
+     * @throws JaxenException 
+     */
+    Iterator namedAxisIterator(Object contextNode, ContextSupport support) throws JaxenException {
+        IterableAxis iterableAxis = getIterableAxis();
+        if (matchesAnyName || !iterableAxis.supportsNamedAccess(support)) {
+            return null;
+        }
+        String uri = translateNamespacePrefixToUri(support);
+        if (hasPrefix && uri == null) {
+            return null;
+        }
+        Iterator axisNodeIter = iterableAxis.namedAccessIterator(
+                        contextNode, support, localName, prefix, uri);
+        return (axisNodeIter != null) ? axisNodeIter : JaxenConstants.EMPTY_ITERATOR;
+    }
+
     /**
      * Checks whether the node matches this step.
      * 
@@ -357,12 +348,12 @@ public class DefaultNameStep extends DefaultStep implements NameStep {
         }
 
         if (hasPrefix) {
-            myUri = contextSupport.translateNamespacePrefixToUri(this.prefix);
+            myUri = translateNamespacePrefixToUri(contextSupport);
             if (myUri == null) {
             	throw new UnresolvableException("Cannot resolve namespace prefix '"+this.prefix+"'");
             }
         } else if (!matchesAnyName) {
-        	myUri = contextSupport.translateNamespacePrefixToUri("");
+        	myUri = translateNamespacePrefixToUri(contextSupport);
         } else {
         	return true;
         }
@@ -383,6 +374,36 @@ public class DefaultNameStep extends DefaultStep implements NameStep {
         return false;
     }
 
+    /**
+     * Resolves the namespace URI of this step through a context support once.
+     * The evaluations with the same namespace context use the resolved URI. An unbound
+     * prefix is left to the evaluation, which reports the error.
+     * 
+     * @param support  the context support
+     */
+    void bind(ContextSupport support) {
+        String uri = support.translateNamespacePrefixToUri(hasPrefix ? prefix : "");
+        if (!hasPrefix || uri != null) {
+            this.boundURI = uri;
+            this.boundNamespaces = support.getNamespaceContext();
+            this.bound = true;
+        }
+    }
+
+    /**
+     * Gets the namespace URI of the prefix, or of the default namespace if
+     * there is no prefix.
+     * 
+     * @param support  the context support
+     * @return the namespace URI, or null if not bound
+     */
+    private String translateNamespacePrefixToUri(ContextSupport support) {
+        if (bound && support.getNamespaceContext() == boundNamespaces) {
+            return boundURI;
+        }
+        return support.translateNamespacePrefixToUri(hasPrefix ? prefix : "");
+    }
+
     /**
      * Checks whether the URI represents a namespace.
      * 
@@ -76,14 +76,19 @@ DefaultNotEqualsExpr( Expr lhs, Expr rhs )
         if( eitherIsNumber( lhs, rhs ) )
         {
     
-            // Double.equals does not implement standard IEEE 754 comparisons but != does
             Double left = (Double) lhs;
             Double right = (Double) rhs;
             
-            return left.doubleValue() != right.doubleValue();
+            return evaluateDoubleDouble( left.doubleValue(), right.doubleValue() );
     
         }
         return !lhs.equals( rhs );
     }
     
+    protected boolean evaluateDoubleDouble( double lhs, double rhs )
+    {
+        // Double.equals does not implement standard IEEE 754 comparisons but != does
+        return lhs != rhs;
+    }
+    
 }
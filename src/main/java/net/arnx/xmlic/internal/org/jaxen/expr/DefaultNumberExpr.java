@@ -84,5 +84,10 @@ class DefaultNumberExpr extends DefaultExpr implements NumberExpr
     {
         return getNumber();
     }
+
+    public double evaluateNumber( Context context )
+    {
+        return number.doubleValue();
+    }
     
 }
@@ -51,8 +51,6 @@ package net.arnx.xmlic.internal.org.jaxen.expr;
 
 import net.arnx.xmlic.internal.org.jaxen.Context;
 import net.arnx.xmlic.internal.org.jaxen.JaxenException;
-import net.arnx.xmlic.internal.org.jaxen.Navigator;
-import net.arnx.xmlic.internal.org.jaxen.function.BooleanFunction;
 
 class DefaultOrExpr extends DefaultLogicalExpr 
 {
@@ -80,8 +78,7 @@ class DefaultOrExpr extends DefaultLogicalExpr
 
     public Object evaluate(Context context) throws JaxenException
     {
-        Navigator nav = context.getNavigator();
-        Boolean lhsValue = BooleanFunction.evaluate( getLHS().evaluate( context ), nav );
+        Boolean lhsValue = evaluateAsBoolean( getLHS(), context );
 
         if ( lhsValue.booleanValue() )
         {
@@ -90,7 +87,7 @@ class DefaultOrExpr extends DefaultLogicalExpr
 
         // Short circuits are required in XPath. "The right operand is not 
         // evaluated if the left operand evaluates to true."
-        Boolean rhsValue = BooleanFunction.evaluate( getRHS().evaluate( context ), nav );
+        Boolean rhsValue = evaluateAsBoolean( getRHS(), context );
 
         if ( rhsValue.booleanValue() )
         {
@@ -71,10 +71,24 @@ abstract class DefaultRelationalExpr extends DefaultTruthExpr implements Relatio
 
   public Object evaluate( Context context ) throws JaxenException
     {
+    if( isNumeric( getLHS() ) && isNumeric( getRHS() ) )
+      {
+      double lhs = evaluateAsNumber( getLHS(), context );
+      double rhs = evaluateAsNumber( getRHS(), context );
+      return evaluateNumbers( lhs, rhs ) ? Boolean.TRUE : Boolean.FALSE;
+      }
+    
     Object lhsValue = getLHS().evaluate( context );
     Object rhsValue = getRHS().evaluate( context );
-    Navigator nav = context.getNavigator();
-
+    
+    return evaluate( lhsValue, rhsValue, context.getNavigator() );
+    }
+  
+  /**
+   * Compares the values of both sides, which have been evaluated already.
+   */
+  Object evaluate( Object lhsValue, Object rhsValue, Navigator nav )
+    {
     if( bothAreSets( lhsValue, rhsValue ) )
       {
       return evaluateSetSet( (List) lhsValue, (List) rhsValue, nav );
@@ -102,22 +116,60 @@ abstract class DefaultRelationalExpr extends DefaultTruthExpr implements Relatio
       return Boolean.FALSE;
       }    
     
-    for( Iterator lhsIterator = lhsSet.iterator(); lhsIterator.hasNext(); )
+    /* Some pair satisfies the comparison if and only if the extremes do:
+     * min(lhs) < max(rhs) for < and <=, max(lhs) > min(rhs) for > and >=. 
+     * The other extreme pair can't be true when that one is false. */
+    double[] lhsRange = range( lhsSet, nav );
+    double[] rhsRange = range( rhsSet, nav );
+    if( lhsRange == null || rhsRange == null )
+      {
+      return Boolean.FALSE;
+      }
+    
+    if( evaluateDoubleDouble( lhsRange[0], rhsRange[1] )
+        || evaluateDoubleDouble( lhsRange[1], rhsRange[0] ) )
       {
-      Object lhs = lhsIterator.next();        
+      return Boolean.TRUE;
+      }
+    
+    return Boolean.FALSE;
+    }
+  
+  /**
+   * Returns the minimum and the maximum number of a set, ignoring NaN.
+   * Returns null if there is no number to compare.
+   */
+  private static double[] range( List set, Navigator nav )
+    {
+    double[] range = null;
+    for( Iterator iterator = set.iterator(); iterator.hasNext(); )
+      {
+      Object obj = iterator.next();
+      if( obj == null )
+        {
+        continue;
+        }
       
-      for( Iterator rhsIterator = rhsSet.iterator(); rhsIterator.hasNext(); )
+      double value = NumberFunction.doubleValue( obj, nav );
+      if( Double.isNaN( value ) )
         {
-        Object rhs = rhsIterator.next();
-        
-        if( evaluateObjectObject( lhs, rhs, nav ) )
-          {
-          return Boolean.TRUE;
-          }
+        continue;
         }
-      }      
-    
-    return Boolean.FALSE;
+      
+      if( range == null )
+        {
+        range = new double[] { value, value };
+        }
+      else if( value < range[0] )
+        {
+        range[0] = value;
+        }
+      else if( value > range[1] )
+        {
+        range[1] = value;
+        }
+      }
+    return range;
     }
   
   private boolean evaluateObjectObject( Object lhs, Object rhs, Navigator nav )
@@ -127,17 +179,20 @@ abstract class DefaultRelationalExpr extends DefaultTruthExpr implements Relatio
       return false;
       }
     
-    Double lhsNum = NumberFunction.evaluate( lhs, nav );
-    Double rhsNum = NumberFunction.evaluate( rhs, nav );      
-    
-    if( NumberFunction.isNaN( lhsNum ) || NumberFunction.isNaN( rhsNum ) )
+    return evaluateNumbers( NumberFunction.doubleValue( lhs, nav ),
+                            NumberFunction.doubleValue( rhs, nav ) );
+    }
+  
+  private boolean evaluateNumbers( double lhs, double rhs )
+    {
+    if( Double.isNaN( lhs ) || Double.isNaN( rhs ) )
       {
       return false;
       }
     
-    return evaluateDoubleDouble( lhsNum, rhsNum );
+    return evaluateDoubleDouble( lhs, rhs );
     }
   
-  protected abstract boolean evaluateDoubleDouble( Double lhs, Double rhs );    
+  protected abstract boolean evaluateDoubleDouble( double lhs, double rhs );    
   }
 
@@ -47,6 +47,7 @@
 package net.arnx.xmlic.internal.org.jaxen.expr;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
@@ -131,9 +132,11 @@ public abstract class DefaultStep implements Step
 
         // ???? try linked lists instead?
         // ???? initial size for these?
-        final ArrayList interimSet = new ArrayList();
         final ArrayList newNodeSet = new ArrayList();
         final ContextSupport support = context.getContextSupport();
+        // positions are counted over all the nodes of the axis, so the duplicates
+        // must be removed after the predicates, as DefaultNameStep does
+        final boolean uniqueAfter = ! getPredicates().isEmpty();
             
         // ???? use iterator instead
         for ( int i = 0 ; i < contextSize ; ++i )
@@ -149,23 +152,102 @@ public abstract class DefaultStep implements Step
                  * see any attributes or namespaces
                  */
             Iterator axisNodeIter = axis.iterator(eachContextNode, support);
-            while ( axisNodeIter.hasNext() )
+            if ( uniqueAfter )
             {
-                Object eachAxisNode = axisNodeIter.next();
-                if ( ! unique.contains( eachAxisNode ) )
+                List predicateNodes = evaluateAxis(axisNodeIter, true, null, support);
+                for ( int j = 0 ; j < predicateNodes.size() ; ++j )
                 {
-                    if ( matches( eachAxisNode, support ) )
+                    Object eachPredicateNode = predicateNodes.get( j );
+                    if ( ! unique.contains( eachPredicateNode ) )
                     {
-                        unique.add( eachAxisNode );
-                        interimSet.add( eachAxisNode );
+                        unique.add( eachPredicateNode );
+                        newNodeSet.add( eachPredicateNode );
                     }
                 }
             }
-            newNodeSet.addAll(getPredicateSet().evaluatePredicates(
-                              interimSet, support ));
-            interimSet.clear();
+            else
+            {
+                newNodeSet.addAll(evaluateAxis(axisNodeIter, true, unique, support));
+            }
         }
         return newNodeSet;
     }
 
+    /**
+     * Applies the predicates of this step to the nodes produced by an axis iterator.
+     * When the first predicate is a constant position such as <code>[1]</code> or
+     * <code>[last()]</code>, the selected node is taken directly from the iterator,
+     * which stops at the requested position, and no intermediate list is built.
+     * 
+     * @param axisNodeIter the nodes of the axis
+     * @param filter true if the nodes must be tested by {@link #matches(Object, ContextSupport)}
+     * @param unique if not null, nodes already in the set are skipped, and matching nodes are added to it
+     * @param support the context support
+     * @return the nodes that satisfy the predicates
+     * @throws JaxenException
+     */
+    protected List evaluateAxis(Iterator axisNodeIter, boolean filter, IdentitySet unique, ContextSupport support)
+            throws JaxenException
+    {
+        PredicateSet predicateSet = getPredicateSet();
+        int position = predicateSet.getFirstPosition( support );
+        
+        if ( position == 0 )
+        {
+            List interimSet = new ArrayList();
+            while ( axisNodeIter.hasNext() )
+            {
+                Object eachAxisNode = axisNodeIter.next();
+                if ( accept( eachAxisNode, filter, unique, support ) )
+                {
+                    interimSet.add( eachAxisNode );
+                }
+            }
+            return predicateSet.evaluatePredicates( interimSet, support );
+        }
+        
+        Object selected = null;
+        int count = 0;
+        while ( axisNodeIter.hasNext() )
+        {
+            Object eachAxisNode = axisNodeIter.next();
+            if ( accept( eachAxisNode, filter, unique, support ) )
+            {
+                count++;
+                if ( position == PredicateSet.LAST )
+                {
+                    selected = eachAxisNode;
+                }
+                else if ( count == position )
+                {
+                    selected = eachAxisNode;
+                    break;
+                }
+            }
+        }
+        
+        if ( selected == null )
+        {
+            return Collections.EMPTY_LIST;
+        }
+        List result = new ArrayList(1);
+        result.add( selected );
+        return predicateSet.evaluatePredicates( result, 1, support );
+    }
+    
+    private boolean accept(Object node, boolean filter, IdentitySet unique, ContextSupport support)
+            throws JaxenException
+    {
+        if ( unique != null )
+        {
+            if ( unique.contains( node ) || ! matches( node, support ) )
+            {
+                return false;
+            }
+            unique.add( node );
+            return true;
+        }
+        return ! filter || matches( node, support );
+    }
+
 }
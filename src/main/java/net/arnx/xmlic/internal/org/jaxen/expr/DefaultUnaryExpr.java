@@ -51,7 +51,6 @@ package net.arnx.xmlic.internal.org.jaxen.expr;
 
 import net.arnx.xmlic.internal.org.jaxen.Context;
 import net.arnx.xmlic.internal.org.jaxen.JaxenException;
-import net.arnx.xmlic.internal.org.jaxen.function.NumberFunction;
 
 class DefaultUnaryExpr extends DefaultExpr implements UnaryExpr
 {
@@ -71,6 +70,11 @@ class DefaultUnaryExpr extends DefaultExpr implements UnaryExpr
         return this.expr;
     }
 
+    void setExpr(Expr expr)
+    {
+        this.expr = expr;
+    }
+
     public String toString()
     {
         return "[(DefaultUnaryExpr): " + getExpr() + "]";
@@ -90,10 +94,12 @@ class DefaultUnaryExpr extends DefaultExpr implements UnaryExpr
 
     public Object evaluate(Context context) throws JaxenException
     {
-        Number number = NumberFunction.evaluate( getExpr().evaluate( context ),
-                                                 context.getNavigator() );
+        return new Double( evaluateNumber( context ) );
+    }
 
-        return new Double( number.doubleValue() * -1 );
+    public double evaluateNumber(Context context) throws JaxenException
+    {
+        return evaluateAsNumber( getExpr(), context ) * -1;
     }
     
 }
@@ -51,13 +51,12 @@ package net.arnx.xmlic.internal.org.jaxen.expr;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
 import net.arnx.xmlic.internal.org.jaxen.Context;
 import net.arnx.xmlic.internal.org.jaxen.JaxenException;
+import net.arnx.xmlic.internal.org.jaxen.Navigator;
 import net.arnx.xmlic.internal.org.jaxen.XPathSyntaxException;
+import net.arnx.xmlic.internal.org.jaxen.saxpath.Axis;
 
 /**
  * @deprecated this class will become non-public in the future;
@@ -87,38 +86,154 @@ public class DefaultUnionExpr extends DefaultBinaryExpr implements UnionExpr
         return "[(DefaultUnionExpr): " + getLHS() + ", " + getRHS() + "]";
     }
 
+    /**
+     * Evaluates all the operands of <code>a | b | c</code> at once, and merges
+     * their node-sets in document order.
+     */
     public Object evaluate(Context context) throws JaxenException
     {
-        List results = new ArrayList();
+        List operands = new ArrayList();
+        List owners = new ArrayList();
+        flatten( this, operands, owners );
 
-        try {
-            List lhsResults = (List) getLHS().evaluate( context );
-            List rhsResults = (List) getRHS().evaluate( context );
-    
-            Set unique = new HashSet();
-    
-            results.addAll( lhsResults );
-            unique.addAll( lhsResults );
-    
-            Iterator rhsIter = rhsResults.iterator();
-    
-            while ( rhsIter.hasNext() )
+        Navigator navigator = context.getNavigator();
+        List[] lists = new List[operands.size()];
+        for ( int i = 0; i < lists.length; i++ )
+        {
+            Expr operand = (Expr) operands.get( i );
+            Object result = operand.evaluate( context );
+            if ( ! (result instanceof List) )
             {
-                Object each = rhsIter.next();
-    
-                if ( ! unique.contains( each ) )
+                Expr owner = (Expr) owners.get( i );
+                throw new XPathSyntaxException(owner.getText(), context.getPosition(), "Unions are only allowed over node-sets");
+            }
+            lists[i] = isOrdered( operand ) ? (List) result : sort( (List) result, navigator );
+        }
+
+        return merge( lists, navigator );
+    }
+
+    /**
+     * Collects the operands of nested unions from left to right, with the
+     * union each of them belongs to.
+     */
+    private static void flatten(DefaultUnionExpr union, List operands, List owners)
+    {
+        Expr[] sides = { union.getLHS(), union.getRHS() };
+        for ( int i = 0; i < sides.length; i++ )
+        {
+            if ( sides[i] instanceof DefaultUnionExpr )
+            {
+                flatten( (DefaultUnionExpr) sides[i], operands, owners );
+            }
+            else
+            {
+                operands.add( sides[i] );
+                owners.add( union );
+            }
+        }
+    }
+
+    /**
+     * Tests if an expression always selects nodes in document order: a union,
+     * or a location path other than a single step on the attribute or the
+     * namespace axis, whose nodes are in the order of the DOM.
+     * 
+     * @param expr the operand of a union
+     * @return true if the nodes are known to be in document order
+     */
+    static boolean isOrdered(Expr expr)
+    {
+        if ( expr instanceof InvariantExpr )
+        {
+            return isOrdered( ((InvariantExpr) expr).getExpr() );
+        }
+        else if ( expr instanceof UnionExpr )
+        {
+            return true;
+        }
+        else if ( expr instanceof FilterExpr )
+        {
+            // predicates keep the order of the nodes
+            Expr filtered = ((FilterExpr) expr).getExpr();
+            return filtered != null && isOrdered( filtered );
+        }
+        else if ( expr instanceof PathExpr && ((PathExpr) expr).getLocationPath() != null )
+        {
+            return isOrdered( ((PathExpr) expr).getLocationPath() );
+        }
+        else if ( expr instanceof LocationPath )
+        {
+            // a location path sorts the nodes unless it has a single step from a single node
+            List steps = ((LocationPath) expr).getSteps();
+            if ( steps.size() != 1 )
+            {
+                return true;
+            }
+            int axis = ((Step) steps.get( 0 )).getAxis();
+            return axis != Axis.ATTRIBUTE && axis != Axis.NAMESPACE;
+        }
+        return false;
+    }
+
+    static List sort(List nodes, Navigator navigator)
+    {
+        List sorted = new ArrayList( nodes );
+        Collections.sort( sorted, new NodeComparator( navigator ) );
+        return sorted;
+    }
+
+    /**
+     * Merges node-sets in document order into a new list. Each node is added
+     * once: a node is a duplicate if it is the same object as the node added
+     * last, or if both are namespace nodes at the same position, as the
+     * namespace axis creates a new object for a namespace node each time.
+     * Of equal nodes, the one in the first node-set is kept.
+     * 
+     * @param lists node-sets in document order
+     * @param navigator the navigator
+     * @return the merged node-set
+     */
+    static List merge(List[] lists, Navigator navigator)
+    {
+        NodeComparator comparator = new NodeComparator( navigator );
+        int size = 0;
+        for ( int i = 0; i < lists.length; i++ )
+        {
+            size += lists[i].size();
+        }
+
+        List results = new ArrayList( size );
+        int[] indexes = new int[lists.length];
+        Object last = null;
+        while ( true )
+        {
+            int min = -1;
+            Object minNode = null;
+            for ( int i = 0; i < lists.length; i++ )
+            {
+                if ( indexes[i] < lists[i].size() )
                 {
-                    results.add( each );
-                    unique.add( each );
+                    Object node = lists[i].get( indexes[i] );
+                    if ( min < 0 || (node != minNode && comparator.compare( node, minNode ) < 0) )
+                    {
+                        min = i;
+                        minNode = node;
+                    }
                 }
             }
-            
-            Collections.sort(results, new NodeComparator(context.getNavigator()));
-    
-            return results;
-        }
-        catch (ClassCastException e) {
-            throw new XPathSyntaxException(this.getText(), context.getPosition(), "Unions are only allowed over node-sets");
+            if ( min < 0 )
+            {
+                return results;
+            }
+
+            indexes[min]++;
+            if ( minNode != last && ! (last != null && navigator.isNamespace( minNode )
+                    && comparator.compare( last, minNode ) == 0) )
+            {
+                results.add( minNode );
+                last = minNode;
+            }
         }
     }
     
@@ -0,0 +1,115 @@
+package net.arnx.xmlic.internal.org.jaxen.expr;
+
+import java.util.List;
+
+import net.arnx.xmlic.internal.org.jaxen.Context;
+import net.arnx.xmlic.internal.org.jaxen.JaxenException;
+import net.arnx.xmlic.internal.org.jaxen.function.BooleanFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.NumberFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.StringFunction;
+
+/**
+ * <p>A compiled form of an {@link Expr}, created by {@link ExprCompiler}.</p>
+ *
+ * <p>Besides {@link #evaluate(Context)}, which returns the same objects as
+ * <code>Expr.evaluate</code>, an evaluator can be asked for a number, a boolean
+ * or a string directly. Evaluators that know the type of their result override
+ * these methods, so that nested expressions pass primitive values to each other
+ * instead of boxing them.</p>
+ */
+public abstract class Evaluator
+{
+    /** The type of the result is known only after the evaluation. */
+    public static final int ANY = 0;
+
+    /** The result is a node-set, which is a <code>List</code> of nodes. */
+    public static final int NODE_SET = 1;
+
+    /** The result is a <code>Boolean</code>. */
+    public static final int BOOLEAN = 2;
+
+    /** The result is a <code>Double</code>. */
+    public static final int NUMBER = 3;
+
+    /** The result is a <code>String</code>. */
+    public static final int STRING = 4;
+
+    private final int type;
+
+    protected Evaluator(int type)
+    {
+        this.type = type;
+    }
+
+    /**
+     * Returns the type of the result.
+     *
+     * @return one of {@link #ANY}, {@link #NODE_SET}, {@link #BOOLEAN},
+     *     {@link #NUMBER} or {@link #STRING}
+     */
+    public int getType()
+    {
+        return type;
+    }
+
+    /**
+     * Evaluates the expression.
+     *
+     * @param context the context of the evaluation
+     * @return the result, as <code>Expr.evaluate</code> returns it
+     * @throws JaxenException if the evaluation fails
+     */
+    public abstract Object evaluate(Context context) throws JaxenException;
+
+    /**
+     * Evaluates the expression and converts the result as the
+     * <code>number()</code> function does.
+     *
+     * @param context the context of the evaluation
+     * @return the result as a number
+     * @throws JaxenException if the evaluation fails
+     */
+    public double evaluateNumber(Context context) throws JaxenException
+    {
+        return NumberFunction.doubleValue(evaluate(context), context.getNavigator());
+    }
+
+    /**
+     * Evaluates the expression and converts the result as the
+     * <code>boolean()</code> function does.
+     *
+     * @param context the context of the evaluation
+     * @return the result as a boolean
+     * @throws JaxenException if the evaluation fails
+     */
+    public boolean evaluateBoolean(Context context) throws JaxenException
+    {
+        return BooleanFunction.evaluate(evaluate(context), context.getNavigator()).booleanValue();
+    }
+
+    /**
+     * Evaluates the expression and converts the result as the
+     * <code>string()</code> function does.
+     *
+     * @param context the context of the evaluation
+     * @return the result as a string
+     * @throws JaxenException if the evaluation fails
+     */
+    public String evaluateString(Context context) throws JaxenException
+    {
+        return StringFunction.evaluate(evaluate(context), context.getNavigator());
+    }
+
+    /**
+     * Evaluates the expression and returns the result as a list, as
+     * <code>XPathExpr.asList</code> does.
+     *
+     * @param context the context of the evaluation
+     * @return the result as a list
+     * @throws JaxenException if the evaluation fails
+     */
+    public List evaluateList(Context context) throws JaxenException
+    {
+        return DefaultExpr.convertToList(evaluate(context));
+    }
+}
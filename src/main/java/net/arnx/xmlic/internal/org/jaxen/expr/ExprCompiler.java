@@ -0,0 +1,1546 @@
+package net.arnx.xmlic.internal.org.jaxen.expr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import net.arnx.xmlic.internal.org.jaxen.Context;
+import net.arnx.xmlic.internal.org.jaxen.ContextSupport;
+import net.arnx.xmlic.internal.org.jaxen.Function;
+import net.arnx.xmlic.internal.org.jaxen.JaxenException;
+import net.arnx.xmlic.internal.org.jaxen.Navigator;
+import net.arnx.xmlic.internal.org.jaxen.UnresolvableException;
+import net.arnx.xmlic.internal.org.jaxen.XPathSyntaxException;
+import net.arnx.xmlic.internal.org.jaxen.function.BooleanFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.CeilingFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.ContainsFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.CountFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.FalseFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.FloorFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.LastFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.NotFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.NumberFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.PositionFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.RoundFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.StartsWithFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.StringFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.SumFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.TrueFunction;
+import net.arnx.xmlic.internal.org.jaxen.saxpath.Axis;
+
+/**
+ * <p>Compiles an expression tree into a tree of {@link Evaluator}s.</p>
+ *
+ * <p>The evaluators are specialized by the static type of each operand:
+ * arithmetic and comparisons of numbers work on primitive doubles, and
+ * <code>and</code>, <code>or</code> and predicates ask their operands for a
+ * boolean directly. Location paths walk the DOM tree without going through
+ * the {@link Navigator} for the child, descendant, self, parent and attribute
+ * axes. Namespace prefixes of node tests and the functions are resolved
+ * once, so the compiled form must be thrown away when the namespace or the
+ * function registrations of the context support change.</p>
+ *
+ * <p>The result of an evaluator is the same as the result of the expression
+ * it was compiled from, including the order of the nodes. Any expression
+ * that isn't known here is evaluated by the expression itself.</p>
+ */
+public final class ExprCompiler
+{
+    private static final String XMLNS_NS = "http://www.w3.org/2000/xmlns/";
+
+    private final ContextSupport support;
+
+    private ExprCompiler(ContextSupport support)
+    {
+        this.support = support;
+    }
+
+    /**
+     * Compiles an expression.
+     *
+     * @param expr the expression to compile
+     * @param support the context support used to resolve namespace prefixes and functions
+     * @return the compiled expression
+     */
+    public static Evaluator compile(Expr expr, ContextSupport support)
+    {
+        return new ExprCompiler(support).compile(expr);
+    }
+
+    private Evaluator compile(Expr expr)
+    {
+        if (expr instanceof LiteralExpr) {
+            return new StringConstant(((LiteralExpr) expr).getLiteral());
+        } else if (expr instanceof NumberExpr) {
+            return new NumberConstant(((NumberExpr) expr).getNumber().doubleValue());
+        } else if (expr instanceof LocationPath) {
+            return compilePath((LocationPath) expr);
+        } else if (expr instanceof PathExpr) {
+            PathExpr path = (PathExpr) expr;
+            if (path.getFilterExpr() == null) {
+                return compile(path.getLocationPath());
+            } else if (path.getLocationPath() == null) {
+                return compile(path.getFilterExpr());
+            }
+            return new PathFilter(compile(path.getFilterExpr()), compilePath(path.getLocationPath()));
+        } else if (expr instanceof FilterExpr) {
+            FilterExpr filter = (FilterExpr) expr;
+            Evaluator[] predicates = compilePredicates(filter.getPredicateSet());
+            Evaluator inner = compile(filter.getExpr());
+            return (predicates.length == 0) ? inner : new Filter(inner, predicates);
+        } else if (expr instanceof UnaryExpr) {
+            return new Negate(compile(((UnaryExpr) expr).getExpr()));
+        } else if (expr instanceof BinaryExpr) {
+            return compileBinary((BinaryExpr) expr);
+        } else if (expr instanceof FunctionCallExpr) {
+            return compileFunction((FunctionCallExpr) expr);
+        } else if (expr instanceof InvariantExpr) {
+            InvariantExpr invariant = (InvariantExpr) expr;
+            return new Invariant(compile(invariant.getExpr()), invariant.isAbsolute());
+        }
+        return new Interpreted(expr);
+    }
+
+    private Evaluator compileBinary(BinaryExpr expr)
+    {
+        if (expr instanceof DefaultUnionExpr) {
+            return compileUnion((DefaultUnionExpr) expr);
+        }
+
+        Evaluator lhs = compile(expr.getLHS());
+        Evaluator rhs = compile(expr.getRHS());
+        String op = expr.getOperator();
+
+        if ("and".equals(op)) {
+            return new And(lhs, rhs);
+        } else if ("or".equals(op)) {
+            return new Or(lhs, rhs);
+        } else if ("+".equals(op)) {
+            return new Arithmetic(Arithmetic.PLUS, lhs, rhs);
+        } else if ("-".equals(op)) {
+            return new Arithmetic(Arithmetic.MINUS, lhs, rhs);
+        } else if ("*".equals(op)) {
+            return new Arithmetic(Arithmetic.MULTIPLY, lhs, rhs);
+        } else if ("div".equals(op)) {
+            return new Arithmetic(Arithmetic.DIV, lhs, rhs);
+        } else if ("mod".equals(op)) {
+            return new Arithmetic(Arithmetic.MOD, lhs, rhs);
+        } else if (expr instanceof DefaultEqualityExpr || expr instanceof DefaultRelationalExpr) {
+            return new Comparison(Comparison.operatorOf(op), lhs, rhs, expr);
+        }
+        return new Interpreted(expr);
+    }
+
+    /**
+     * Compiles the operands of <code>a | b | c</code> into one evaluator,
+     * which merges all the node-sets at once.
+     */
+    private Evaluator compileUnion(DefaultUnionExpr union)
+    {
+        List operands = new ArrayList();
+        List owners = new ArrayList();
+        collectUnion(union, operands, owners);
+
+        Evaluator[] evaluators = new Evaluator[operands.size()];
+        boolean[] ordered = new boolean[operands.size()];
+        for (int i = 0; i < evaluators.length; i++) {
+            Expr operand = (Expr) operands.get(i);
+            evaluators[i] = compile(operand);
+            ordered[i] = DefaultUnionExpr.isOrdered(operand);
+        }
+        return new Union(evaluators, ordered, (Expr[]) owners.toArray(new Expr[owners.size()]));
+    }
+
+    private static void collectUnion(DefaultUnionExpr union, List operands, List owners)
+    {
+        Expr[] sides = { union.getLHS(), union.getRHS() };
+        for (int i = 0; i < sides.length; i++) {
+            if (sides[i] instanceof DefaultUnionExpr) {
+                collectUnion((DefaultUnionExpr) sides[i], operands, owners);
+            } else {
+                operands.add(sides[i]);
+                owners.add(union);
+            }
+        }
+    }
+
+    private Evaluator compileFunction(FunctionCallExpr call)
+    {
+        String prefix = call.getPrefix();
+        String name = call.getFunctionName();
+        List params = call.getParameters();
+        Evaluator[] args = new Evaluator[params.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = compile((Expr) params.get(i));
+        }
+
+        if (prefix != null && prefix.length() > 0) {
+            String uri = support.translateNamespacePrefixToUri(prefix);
+            try {
+                return new FunctionCall(prefix, name, args, support.getFunction(uri, prefix, name));
+            } catch (UnresolvableException e) {
+                // let the evaluation report it
+                return new FunctionCall(prefix, name, args, null);
+            }
+        }
+
+        Function function;
+        try {
+            function = support.getFunction(null, prefix, name);
+        } catch (UnresolvableException e) {
+            // let the evaluation report it
+            return new FunctionCall(prefix, name, args, null);
+        }
+
+        // only the standard implementations are known to behave as below
+        Class type = function.getClass();
+        switch (args.length) {
+        case 0:
+            if (type == PositionFunction.class) {
+                return new Position();
+            } else if (type == LastFunction.class) {
+                return new Last();
+            } else if (type == TrueFunction.class) {
+                return new BooleanConstant(true);
+            } else if (type == FalseFunction.class) {
+                return new BooleanConstant(false);
+            } else if (type == StringFunction.class) {
+                return new ToString(null);
+            } else if (type == NumberFunction.class) {
+                return new ToNumber(null);
+            }
+            break;
+        case 1:
+            if (type == NotFunction.class) {
+                return new Not(args[0]);
+            } else if (type == BooleanFunction.class) {
+                return new ToBoolean(args[0]);
+            } else if (type == StringFunction.class) {
+                return new ToString(args[0]);
+            } else if (type == NumberFunction.class) {
+                return new ToNumber(args[0]);
+            } else if (type == CountFunction.class && args[0].getType() == Evaluator.NODE_SET) {
+                return new Count(args[0]);
+            } else if (type == SumFunction.class && args[0].getType() == Evaluator.NODE_SET) {
+                return new Sum(args[0]);
+            } else if (type == RoundFunction.class || type == FloorFunction.class || type == CeilingFunction.class) {
+                return new Rounding(args[0], type);
+            }
+            break;
+        case 2:
+            if (type == ContainsFunction.class) {
+                return new Contains(args[0], args[1], false);
+            } else if (type == StartsWithFunction.class) {
+                return new Contains(args[0], args[1], true);
+            }
+            break;
+        }
+        return new FunctionCall(prefix, name, args, function);
+    }
+
+    private PathEvaluator compilePath(LocationPath path)
+    {
+        List steps = path.getSteps();
+        List compiled = new ArrayList(steps.size());
+        boolean ordered = true;
+        boolean nested = false;
+        boolean independent = true;
+
+        for (int i = 0; i < steps.size(); i++) {
+            Step step = (Step) steps.get(i);
+            int axis = step.getAxis();
+
+            // descendant-or-self::node()/child::x[p] is the same as descendant::x[p]
+            // unless p depends on the position
+            if (axis == Axis.DESCENDANT_OR_SELF && step instanceof AllNodeStep
+                    && step.getPredicateSet().getPredicates().isEmpty() && i + 1 < steps.size()) {
+                Step next = (Step) steps.get(i + 1);
+                if (next.getAxis() == Axis.CHILD && LazyLocationIterator.isPositionIndependent(next)) {
+                    step = next;
+                    axis = Axis.DESCENDANT;
+                    i++;
+                }
+            }
+
+            // see LazyLocationIterator, the order of the attributes
+            // of an element is the order of their names
+            switch (axis) {
+            case Axis.SELF:
+                break;
+            case Axis.CHILD:
+                ordered &= !nested;
+                break;
+            case Axis.DESCENDANT:
+            case Axis.DESCENDANT_OR_SELF:
+                ordered &= !nested;
+                nested = true;
+                break;
+            case Axis.ATTRIBUTE:
+                ordered &= step instanceof NameStep && !"*".equals(((NameStep) step).getLocalName());
+                nested = false;
+                break;
+            default:
+                ordered = false;
+            }
+
+            independent &= LazyLocationIterator.isPositionIndependent(step);
+            compiled.add(new CompiledStep(step, axis, compileTest(step, axis),
+                    compilePredicates(step.getPredicateSet()),
+                    step.getPredicateSet().getFirstPosition(support)));
+        }
+
+        return new PathEvaluator(path.isAbsolute(),
+                (CompiledStep[]) compiled.toArray(new CompiledStep[compiled.size()]),
+                steps.size() > 1, ordered, independent);
+    }
+
+    private NodeTest compileTest(Step step, int axis)
+    {
+        if (step instanceof AllNodeStep) {
+            return NodeTest.ANY;
+        } else if (step instanceof TextNodeStep) {
+            return NodeTest.TEXT;
+        } else if (step instanceof CommentNodeStep) {
+            return NodeTest.COMMENT;
+        } else if (step instanceof NameStep && axis != Axis.NAMESPACE) {
+            NameStep name = (NameStep) step;
+            String prefix = name.getPrefix();
+            boolean hasPrefix = (prefix != null && prefix.length() > 0);
+            String uri = support.translateNamespacePrefixToUri(hasPrefix ? prefix : "");
+            if (!hasPrefix || uri != null) {
+                return new NameTest(name.getLocalName(), uri, hasPrefix, axis == Axis.ATTRIBUTE);
+            }
+        }
+        return new StepTest(step);
+    }
+
+    private Evaluator[] compilePredicates(PredicateSet predicateSet)
+    {
+        List predicates = predicateSet.getPredicates();
+        Evaluator[] result = new Evaluator[predicates.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = compile(((Predicate) predicates.get(i)).getExpr());
+        }
+        return result;
+    }
+
+    /**
+     * Applies predicates to a node-set, as {@link PredicateSet} does.
+     */
+    static List applyPredicates(Evaluator[] predicates, int start, List nodes, ContextSupport support)
+            throws JaxenException
+    {
+        for (int p = start; p < predicates.length; p++) {
+            int size = nodes.size();
+            List filtered = new ArrayList(size);
+            Context predContext = new Context(support);
+            List tempList = new ArrayList(1);
+            for (int i = 0; i < size; i++) {
+                Object node = nodes.get(i);
+                tempList.clear();
+                tempList.add(node);
+                predContext.setNodeSet(tempList);
+                predContext.setPosition(i + 1);
+                predContext.setSize(size);
+                if (accept(predicates[p], predContext, i + 1)) {
+                    filtered.add(node);
+                }
+            }
+            nodes = filtered;
+        }
+        return nodes;
+    }
+
+    private static boolean accept(Evaluator predicate, Context predContext, int position)
+            throws JaxenException
+    {
+        switch (predicate.getType()) {
+        case Evaluator.NUMBER:
+            return (int) predicate.evaluateNumber(predContext) == position;
+        case Evaluator.ANY:
+            Object result = predicate.evaluate(predContext);
+            if (result instanceof Number) {
+                return ((Number) result).intValue() == position;
+            }
+            return BooleanFunction.evaluate(result, predContext.getNavigator()).booleanValue();
+        default:
+            return predicate.evaluateBoolean(predContext);
+        }
+    }
+
+    // ----------------------------------------------------------------------
+    //     Typed evaluators
+    // ----------------------------------------------------------------------
+
+    private static abstract class NumberEvaluator extends Evaluator
+    {
+        NumberEvaluator()
+        {
+            super(NUMBER);
+        }
+
+        public abstract double evaluateNumber(Context context) throws JaxenException;
+
+        public Object evaluate(Context context) throws JaxenException
+        {
+            return new Double(evaluateNumber(context));
+        }
+
+        public boolean evaluateBoolean(Context context) throws JaxenException
+        {
+            double value = evaluateNumber(context);
+            return value != 0 && !Double.isNaN(value);
+        }
+    }
+
+    private static abstract class BooleanEvaluator extends Evaluator
+    {
+        BooleanEvaluator()
+        {
+            super(BOOLEAN);
+        }
+
+        public abstract boolean evaluateBoolean(Context context) throws JaxenException;
+
+        public Object evaluate(Context context) throws JaxenException
+        {
+            return evaluateBoolean(context) ? Boolean.TRUE : Boolean.FALSE;
+        }
+
+        public double evaluateNumber(Context context) throws JaxenException
+        {
+            return evaluateBoolean(context) ? 1 : 0;
+        }
+
+        public String evaluateString(Context context) throws JaxenException
+        {
+            return evaluateBoolean(context) ? "true" : "false";
+        }
+    }
+
+    private static abstract class StringEvaluator extends Evaluator
+    {
+        StringEvaluator()
+        {
+            super(STRING);
+        }
+
+        public abstract String evaluateString(Context context) throws JaxenException;
+
+        public Object evaluate(Context context) throws JaxenException
+        {
+            return evaluateString(context);
+        }
+
+        public double evaluateNumber(Context context) throws JaxenException
+        {
+            return NumberFunction.doubleValue(evaluateString(context));
+        }
+
+        public boolean evaluateBoolean(Context context) throws JaxenException
+        {
+            return evaluateString(context).length() > 0;
+        }
+    }
+
+    private static abstract class NodeSetEvaluator extends Evaluator
+    {
+        NodeSetEvaluator()
+        {
+            super(NODE_SET);
+        }
+
+        public abstract List evaluateList(Context context) throws JaxenException;
+
+        public Object evaluate(Context context) throws JaxenException
+        {
+            return evaluateList(context);
+        }
+
+        public boolean evaluateBoolean(Context context) throws JaxenException
+        {
+            return !evaluateList(context).isEmpty();
+        }
+    }
+
+    private static final class Interpreted extends Evaluator
+    {
+        private final Expr expr;
+
+        Interpreted(Expr expr)
+        {
+            super(ANY);
+            this.expr = expr;
+        }
+
+        public Object evaluate(Context context) throws JaxenException
+        {
+            return expr.evaluate(context);
+        }
+
+        public double evaluateNumber(Context context) throws JaxenException
+        {
+            return DefaultExpr.evaluateAsNumber(expr, context);
+        }
+    }
+
+    /**
+     * Caches the value of an evaluator as {@link InvariantExpr} does.
+     */
+    private static final class Invariant extends Evaluator
+    {
+        private final Evaluator evaluator;
+        private final boolean absolute;
+
+        Invariant(Evaluator evaluator, boolean absolute)
+        {
+            super(evaluator.getType());
+            this.evaluator = evaluator;
+            this.absolute = absolute;
+        }
+
+        public Object evaluate(Context context) throws JaxenException
+        {
+            Map values = context.getContextSupport().getCachedValues();
+            if (values == null) {
+                return evaluator.evaluate(context);
+            }
+
+            Object document = null;
+            if (absolute && !context.getNodeSet().isEmpty()) {
+                document = context.getNavigator().getDocumentNode(context.getNodeSet().get(0));
+            }
+            Object[] entry = (Object[]) values.get(this);
+            if (entry == null || entry[0] != document) {
+                entry = new Object[] { document, evaluator.evaluate(context) };
+                values.put(this, entry);
+            }
+            return entry[1];
+        }
+    }
+
+    private static final class StringConstant extends StringEvaluator
+    {
+        private final String value;
+
+        StringConstant(String value)
+        {
+            this.value = value;
+        }
+
+        public String evaluateString(Context context)
+        {
+            return value;
+        }
+    }
+
+    private static final class NumberConstant extends NumberEvaluator
+    {
+        private final double value;
+
+        NumberConstant(double value)
+        {
+            this.value = value;
+        }
+
+        public double evaluateNumber(Context context)
+        {
+            return value;
+        }
+    }
+
+    private static final class BooleanConstant extends BooleanEvaluator
+    {
+        private final boolean value;
+
+        BooleanConstant(boolean value)
+        {
+            this.value = value;
+        }
+
+        public boolean evaluateBoolean(Context context)
+        {
+            return value;
+        }
+    }
+
+    private static final class Negate extends NumberEvaluator
+    {
+        private final Evaluator operand;
+
+        Negate(Evaluator operand)
+        {
+            this.operand = operand;
+        }
+
+        public double evaluateNumber(Context context) throws JaxenException
+        {
+            return operand.evaluateNumber(context) * -1;
+        }
+    }
+
+    private static final class Arithmetic extends NumberEvaluator
+    {
+        static final int PLUS = 0;
+        static final int MINUS = 1;
+        static final int MULTIPLY = 2;
+        static final int DIV = 3;
+        static final int MOD = 4;
+
+        private final int op;
+        private final Evaluator lhs;
+        private final Evaluator rhs;
+
+        Arithmetic(int op, Evaluator lhs, Evaluator rhs)
+        {
+            this.op = op;
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+
+        public double evaluateNumber(Context context) throws JaxenException
+        {
+            double left = lhs.evaluateNumber(context);
+            double right = rhs.evaluateNumber(context);
+            switch (op) {
+            case PLUS:
+                return left + right;
+            case MINUS:
+                return left - right;
+            case MULTIPLY:
+                return left * right;
+            case DIV:
+                return left / right;
+            default:
+                return left % right;
+            }
+        }
+    }
+
+    private static final class And extends BooleanEvaluator
+    {
+        private final Evaluator lhs;
+        private final Evaluator rhs;
+
+        And(Evaluator lhs, Evaluator rhs)
+        {
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+
+        public boolean evaluateBoolean(Context context) throws JaxenException
+        {
+            return lhs.evaluateBoolean(context) && rhs.evaluateBoolean(context);
+        }
+    }
+
+    private static final class Or extends BooleanEvaluator
+    {
+        private final Evaluator lhs;
+        private final Evaluator rhs;
+
+        Or(Evaluator lhs, Evaluator rhs)
+        {
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+
+        public boolean evaluateBoolean(Context context) throws JaxenException
+        {
+            return lhs.evaluateBoolean(context) || rhs.evaluateBoolean(context);
+        }
+    }
+
+    /**
+     * Compares two values. Scalars of known types and a node-set against
+     * a scalar are compared here; any other pair is given to the expression.
+     */
+    private static final class Comparison extends BooleanEvaluator
+    {
+        static final int EQ = 0;
+        static final int NE = 1;
+        static final int LT = 2;
+        static final int LE = 3;
+        static final int GT = 4;
+        static final int GE = 5;
+
+        private final int op;
+        private final Evaluator lhs;
+        private final Evaluator rhs;
+        private final BinaryExpr expr;
+
+        Comparison(int op, Evaluator lhs, Evaluator rhs, BinaryExpr expr)
+        {
+            this.op = op;
+            this.lhs = lhs;
+            this.rhs = rhs;
+            this.expr = expr;
+        }
+
+        static int operatorOf(String op)
+        {
+            if ("=".equals(op)) return EQ;
+            if ("!=".equals(op)) return NE;
+            if ("<".equals(op)) return LT;
+            if ("<=".equals(op)) return LE;
+            if (">".equals(op)) return GT;
+            return GE;
+        }
+
+        public boolean evaluateBoolean(Context context) throws JaxenException
+        {
+            int ltype = lhs.getType();
+            int rtype = rhs.getType();
+            if (isScalar(ltype) && isScalar(rtype)) {
+                return compareScalars(ltype, rtype, context);
+            } else if (ltype == NODE_SET && isScalar(rtype)) {
+                return compareSet(lhs.evaluateList(context), rhs, rtype, true, context);
+            } else if (isScalar(ltype) && rtype == NODE_SET) {
+                return compareSet(rhs.evaluateList(context), lhs, ltype, false, context);
+            }
+
+            Object lhsValue = lhs.evaluate(context);
+            Object rhsValue = rhs.evaluate(context);
+            Navigator nav = context.getNavigator();
+            if (expr instanceof DefaultEqualityExpr) {
+                return ((DefaultEqualityExpr) expr).evaluate(lhsValue, rhsValue, nav).booleanValue();
+            }
+            return ((Boolean) ((DefaultRelationalExpr) expr).evaluate(lhsValue, rhsValue, nav)).booleanValue();
+        }
+
+        private static boolean isScalar(int type)
+        {
+            return type == BOOLEAN || type == NUMBER || type == STRING;
+        }
+
+        private boolean compareScalars(int ltype, int rtype, Context context) throws JaxenException
+        {
+            if (op == EQ || op == NE) {
+                boolean equals;
+                if (ltype == BOOLEAN || rtype == BOOLEAN) {
+                    equals = lhs.evaluateBoolean(context) == rhs.evaluateBoolean(context);
+                } else if (ltype == NUMBER || rtype == NUMBER) {
+                    return compareNumbers(lhs.evaluateNumber(context), rhs.evaluateNumber(context));
+                } else {
+                    equals = lhs.evaluateString(context).equals(rhs.evaluateString(context));
+                }
+                return (op == EQ) ? equals : !equals;
+            }
+            return compareNumbers(lhs.evaluateNumber(context), rhs.evaluateNumber(context));
+        }
+
+        private boolean compareNumbers(double left, double right)
+        {
+            switch (op) {
+            case EQ:
+                return left == right;
+            case NE:
+                return left != right;
+            case LT:
+                return left < right;
+            case LE:
+                return left <= right;
+            case GT:
+                return left > right;
+            default:
+                // as DefaultGreaterThanEqualExpr, which tells -0 from 0
+                return !Double.isNaN(left) && !Double.isNaN(right) && Double.compare(left, right) >= 0;
+            }
+        }
+
+        /**
+         * Compares the nodes of a node-set with a scalar, as the expression does
+         * for each pair after converting the scalar to a node-set of one item.
+         */
+        private boolean compareSet(List nodes, Evaluator scalar, int type, boolean setIsLeft,
+                Context context) throws JaxenException
+        {
+            // the scalar is evaluated even if the node-set is empty, so that the errors
+            // are the same as the ones of the expression
+            if (op == EQ || op == NE) {
+                if (type == BOOLEAN) {
+                    // a node-set is compared with a boolean as a boolean
+                    boolean equals = (!nodes.isEmpty() == scalar.evaluateBoolean(context));
+                    return (op == EQ) ? equals : !equals;
+                } else if (type == STRING) {
+                    String value = scalar.evaluateString(context);
+                    Navigator nav = context.getNavigator();
+                    for (int i = 0; i < nodes.size(); i++) {
+                        if (value.equals(StringFunction.evaluate(nodes.get(i), nav)) == (op == EQ)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+            }
+
+            double value = scalar.evaluateNumber(context);
+            Navigator nav = context.getNavigator();
+            for (int i = 0; i < nodes.size(); i++) {
+                double node = NumberFunction.doubleValue(StringFunction.evaluate(nodes.get(i), nav));
+                if (setIsLeft ? compareNumbers(node, value) : compareNumbers(value, node)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Union extends NodeSetEvaluator
+    {
+        private final Evaluator[] operands;
+        private final boolean[] ordered;
+        private final Expr[] owners;
+
+        Union(Evaluator[] operands, boolean[] ordered, Expr[] owners)
+        {
+            this.operands = operands;
+            this.ordered = ordered;
+            this.owners = owners;
+        }
+
+        public List evaluateList(Context context) throws JaxenException
+        {
+            Navigator navigator = context.getNavigator();
+            List[] lists = new List[operands.length];
+            for (int i = 0; i < operands.length; i++) {
+                Object result = operands[i].evaluate(context);
+                if (!(result instanceof List)) {
+                    throw new XPathSyntaxException(owners[i].getText(), context.getPosition(),
+                            "Unions are only allowed over node-sets");
+                }
+                lists[i] = ordered[i] ? (List) result : DefaultUnionExpr.sort((List) result, navigator);
+            }
+            return DefaultUnionExpr.merge(lists, navigator);
+        }
+    }
+
+    private static final class Filter extends Evaluator
+    {
+        private final Evaluator inner;
+        private final Evaluator[] predicates;
+
+        Filter(Evaluator inner, Evaluator[] predicates)
+        {
+            super(inner.getType() == NODE_SET ? NODE_SET : ANY);
+            this.inner = inner;
+            this.predicates = predicates;
+        }
+
+        public Object evaluate(Context context) throws JaxenException
+        {
+            Object results = inner.evaluate(context);
+            if (results instanceof List) {
+                return applyPredicates(predicates, 0, (List) results, context.getContextSupport());
+            }
+            return results;
+        }
+    }
+
+    private static final class PathFilter extends NodeSetEvaluator
+    {
+        private final Evaluator filter;
+        private final PathEvaluator path;
+
+        PathFilter(Evaluator filter, PathEvaluator path)
+        {
+            this.filter = filter;
+            this.path = path;
+        }
+
+        public List evaluateList(Context context) throws JaxenException
+        {
+            List nodes = DefaultExpr.convertToList(filter.evaluate(context));
+            return path.evaluate(nodes, context.getContextSupport());
+        }
+    }
+
+    // ----------------------------------------------------------------------
+    //     Functions
+    // ----------------------------------------------------------------------
+
+    private static final class FunctionCall extends Evaluator
+    {
+        private final String prefix;
+        private final String name;
+        private final Evaluator[] args;
+        private final Function function;
+
+        FunctionCall(String prefix, String name, Evaluator[] args, Function function)
+        {
+            super(ANY);
+            this.prefix = prefix;
+            this.name = name;
+            this.args = args;
+            this.function = function;
+        }
+
+        public Object evaluate(Context context) throws JaxenException
+        {
+            Function func = function;
+            if (func == null) {
+                String namespaceURI = null;
+                // default namespace is not used within XPath expressions
+                if (prefix != null && prefix.length() > 0) {
+                    namespaceURI = context.translateNamespacePrefixToUri(prefix);
+                }
+                func = context.getFunction(namespaceURI, prefix, name);
+            }
+
+            List values = new ArrayList(args.length);
+            for (int i = 0; i < args.length; i++) {
+                values.add(args[i].evaluate(context));
+            }
+            return func.call(context, values);
+        }
+    }
+
+    private static final class Position extends NumberEvaluator
+    {
+        public double evaluateNumber(Context context)
+        {
+            return context.getPosition();
+        }
+    }
+
+    private static final class Last extends NumberEvaluator
+    {
+        public double evaluateNumber(Context context)
+        {
+            return context.getSize();
+        }
+    }
+
+    private static final class Count extends NumberEvaluator
+    {
+        private final Evaluator arg;
+
+        Count(Evaluator arg)
+        {
+            this.arg = arg;
+        }
+
+        public double evaluateNumber(Context context) throws JaxenException
+        {
+            return arg.evaluateList(context).size();
+        }
+    }
+
+    private static final class Sum extends NumberEvaluator
+    {
+        private final Evaluator arg;
+
+        Sum(Evaluator arg)
+        {
+            this.arg = arg;
+        }
+
+        public double evaluateNumber(Context context) throws JaxenException
+        {
+            return SumFunction.sum(arg.evaluateList(context), context.getNavigator());
+        }
+    }
+
+    private static final class Rounding extends NumberEvaluator
+    {
+        private final Evaluator arg;
+        private final Class type;
+
+        Rounding(Evaluator arg, Class type)
+        {
+            this.arg = arg;
+            this.type = type;
+        }
+
+        public double evaluateNumber(Context context) throws JaxenException
+        {
+            double value = arg.evaluateNumber(context);
+            if (type == RoundFunction.class) {
+                return RoundFunction.round(value);
+            } else if (type == FloorFunction.class) {
+                return Math.floor(value);
+            }
+            return Math.ceil(value);
+        }
+    }
+
+    private static final class Not extends BooleanEvaluator
+    {
+        private final Evaluator arg;
+
+        Not(Evaluator arg)
+        {
+            this.arg = arg;
+        }
+
+        public boolean evaluateBoolean(Context context) throws JaxenException
+        {
+            return !arg.evaluateBoolean(context);
+        }
+    }
+
+    private static final class ToBoolean extends BooleanEvaluator
+    {
+        private final Evaluator arg;
+
+        ToBoolean(Evaluator arg)
+        {
+            this.arg = arg;
+        }
+
+        public boolean evaluateBoolean(Context context) throws JaxenException
+        {
+            return arg.evaluateBoolean(context);
+        }
+    }
+
+    private static final class ToString extends StringEvaluator
+    {
+        private final Evaluator arg;
+
+        ToString(Evaluator arg)
+        {
+            this.arg = arg;
+        }
+
+        public String evaluateString(Context context) throws JaxenException
+        {
+            if (arg == null) {
+                return StringFunction.evaluate(context.getNodeSet(), context.getNavigator());
+            }
+            return arg.evaluateString(context);
+        }
+    }
+
+    private static final class ToNumber extends NumberEvaluator
+    {
+        private final Evaluator arg;
+
+        ToNumber(Evaluator arg)
+        {
+            this.arg = arg;
+        }
+
+        public double evaluateNumber(Context context) throws JaxenException
+        {
+            if (arg == null) {
+                return NumberFunction.doubleValue(context.getNodeSet(), context.getNavigator());
+            }
+            return arg.evaluateNumber(context);
+        }
+    }
+
+    private static final class Contains extends BooleanEvaluator
+    {
+        private final Evaluator str;
+        private final Evaluator match;
+        private final boolean start;
+
+        Contains(Evaluator str, Evaluator match, boolean start)
+        {
+            this.str = str;
+            this.match = match;
+            this.start = start;
+        }
+
+        public boolean evaluateBoolean(Context context) throws JaxenException
+        {
+            String value = str.evaluateString(context);
+            String part = match.evaluateString(context);
+            return start ? value.startsWith(part) : value.indexOf(part) >= 0;
+        }
+    }
+
+    // ----------------------------------------------------------------------
+    //     Location paths
+    // ----------------------------------------------------------------------
+
+    /**
+     * A location path, evaluated step by step as {@link DefaultLocationPath} does.
+     */
+    private static final class PathEvaluator extends NodeSetEvaluator
+    {
+        private final boolean absolute;
+        private final CompiledStep[] steps;
+        private final boolean multiStep;
+        private final boolean ordered;
+        private final boolean independent;
+
+        PathEvaluator(boolean absolute, CompiledStep[] steps, boolean multiStep,
+                boolean ordered, boolean independent)
+        {
+            this.absolute = absolute;
+            this.steps = steps;
+            this.multiStep = multiStep;
+            this.ordered = ordered;
+            this.independent = independent;
+        }
+
+        public List evaluateList(Context context) throws JaxenException
+        {
+            List nodes = startNodes(context);
+            if (nodes == null) {
+                return Collections.EMPTY_LIST;
+            }
+            return evaluate(nodes, context.getContextSupport());
+        }
+
+        List evaluate(List nodes, ContextSupport support) throws JaxenException
+        {
+            List result = nodes;
+            for (int i = 0; i < steps.length; i++) {
+                result = steps[i].evaluate(result, support);
+                if (steps[i].reverse) {
+                    Collections.reverse(result);
+                }
+            }
+
+            if (result == nodes) {
+                return new ArrayList(nodes);
+            }
+
+            // the nodes are in document order already if the steps never
+            // go back to a node that was passed
+            if ((multiStep || nodes.size() > 1) && !(ordered && nodes.size() <= 1)) {
+                Collections.sort(result, new NodeComparator(support.getNavigator()));
+            }
+            return result;
+        }
+
+        /**
+         * Tests if the path selects any node. When no predicate depends on the
+         * position, the steps are followed depth first until a node is found.
+         */
+        public boolean evaluateBoolean(Context context) throws JaxenException
+        {
+            if (!independent) {
+                return !evaluateList(context).isEmpty();
+            }
+
+            List nodes = startNodes(context);
+            if (nodes == null) {
+                return false;
+            }
+            for (int i = 0; i < nodes.size(); i++) {
+                if (exists(nodes.get(i), 0, context.getContextSupport())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean exists(Object node, int index, ContextSupport support) throws JaxenException
+        {
+            if (index == steps.length) {
+                return true;
+            }
+
+            CompiledStep step = steps[index];
+            Cursor cursor = new Cursor(step, support);
+            cursor.reset(node);
+            Object next;
+            while ((next = cursor.next()) != null) {
+                if (step.test.matches(next, support) && step.accept(next, support)
+                        && exists(next, index + 1, support)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private List startNodes(Context context)
+        {
+            List nodes = context.getNodeSet();
+            if (!absolute) {
+                return nodes;
+            }
+
+            if (nodes.isEmpty()) {
+                return null;
+            }
+            Object docNode = context.getNavigator().getDocumentNode(nodes.get(0));
+            return (docNode != null) ? Collections.singletonList(docNode) : null;
+        }
+    }
+
+    /**
+     * A step, evaluated as {@link DefaultStep} does.
+     */
+    private static final class CompiledStep
+    {
+        final Step step;
+        final int axis;
+        final NodeTest test;
+        final Evaluator[] predicates;
+        final int position;
+        final boolean reverse;
+        final boolean uniqueAfter;
+
+        CompiledStep(Step step, int axis, NodeTest test, Evaluator[] predicates, int position)
+        {
+            this.step = step;
+            this.axis = axis;
+            this.test = test;
+            this.predicates = predicates;
+            this.position = position;
+            this.reverse = (axis == Axis.PRECEDING || axis == Axis.PRECEDING_SIBLING
+                    || axis == Axis.ANCESTOR || axis == Axis.ANCESTOR_OR_SELF);
+            // the duplicates are removed after the predicates, unless a step without
+            // predicates can skip them before testing them
+            this.uniqueAfter = (step instanceof DefaultNameStep || predicates.length > 0);
+        }
+
+        List evaluate(List contextNodes, ContextSupport support) throws JaxenException
+        {
+            int contextSize = contextNodes.size();
+            Set unique = (contextSize > 1) ? Collections.newSetFromMap(new IdentityHashMap()) : null;
+            List result = new ArrayList();
+            Cursor cursor = new Cursor(this, support);
+
+            for (int i = 0; i < contextSize; i++) {
+                cursor.reset(contextNodes.get(i));
+                List selected = select(cursor, uniqueAfter ? null : unique, support);
+                if (uniqueAfter && unique != null) {
+                    for (int j = 0; j < selected.size(); j++) {
+                        Object node = selected.get(j);
+                        if (unique.add(node)) {
+                            result.add(node);
+                        }
+                    }
+                } else {
+                    result.addAll(selected);
+                }
+            }
+            return result;
+        }
+
+        private List select(Cursor cursor, Set unique, ContextSupport support) throws JaxenException
+        {
+            Object node;
+            if (position == 0) {
+                List interim = new ArrayList();
+                while ((node = cursor.next()) != null) {
+                    if (accept(node, unique, support)) {
+                        interim.add(node);
+                    }
+                }
+                return applyPredicates(predicates, 0, interim, support);
+            }
+
+            Object selected = null;
+            int count = 0;
+            while ((node = cursor.next()) != null) {
+                if (accept(node, unique, support)) {
+                    count++;
+                    if (position == PredicateSet.LAST) {
+                        selected = node;
+                    } else if (count == position) {
+                        selected = node;
+                        break;
+                    }
+                }
+            }
+            if (selected == null) {
+                return Collections.EMPTY_LIST;
+            }
+            List list = new ArrayList(1);
+            list.add(selected);
+            return applyPredicates(predicates, 1, list, support);
+        }
+
+        private boolean accept(Object node, Set unique, ContextSupport support) throws JaxenException
+        {
+            if (unique != null) {
+                return !unique.contains(node) && test.matches(node, support) && unique.add(node);
+            }
+            return test.matches(node, support);
+        }
+
+        /**
+         * Tests a node against the predicates, which don't depend on the position.
+         */
+        boolean accept(Object node, ContextSupport support) throws JaxenException
+        {
+            if (predicates.length == 0) {
+                return true;
+            }
+
+            Context predContext = new Context(support);
+            List tempList = new ArrayList(1);
+            tempList.add(node);
+            predContext.setNodeSet(tempList);
+            predContext.setPosition(1);
+            predContext.setSize(1);
+            for (int i = 0; i < predicates.length; i++) {
+                if (!ExprCompiler.accept(predicates[i], predContext, 1)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Walks an axis of one context node after another. The nodes that
+     * {@link DocumentNavigator} skips on these axes are skipped here too.
+     */
+    private static final class Cursor
+    {
+        private final CompiledStep step;
+        private final ContextSupport support;
+        private Object context;
+        private Node node;
+        private boolean started;
+        private NamedNodeMap attributes;
+        private int index;
+        private Iterator iterator;
+
+        Cursor(CompiledStep step, ContextSupport support)
+        {
+            this.step = step;
+            this.support = support;
+        }
+
+        void reset(Object context) throws JaxenException
+        {
+            this.context = context;
+            this.node = null;
+            this.started = false;
+
+            switch (step.axis) {
+            case Axis.DESCENDANT:
+            case Axis.DESCENDANT_OR_SELF:
+                // the navigator may look the elements up by name
+                this.iterator = (step.step instanceof DefaultNameStep)
+                    ? ((DefaultNameStep) step.step).namedAxisIterator(context, support) : null;
+                break;
+            case Axis.CHILD:
+            case Axis.SELF:
+            case Axis.PARENT:
+                break;
+            case Axis.ATTRIBUTE:
+                Node element = (Node) context;
+                this.attributes = (element.getNodeType() == Node.ELEMENT_NODE) ? element.getAttributes() : null;
+                this.index = 0;
+                break;
+            default:
+                this.iterator = step.step.axisIterator(context, support);
+            }
+        }
+
+        Object next()
+        {
+            switch (step.axis) {
+            case Axis.CHILD:
+                node = started ? nextSibling(node) : firstChild((Node) context);
+                break;
+            case Axis.DESCENDANT:
+                if (iterator != null) {
+                    return iterator.hasNext() ? iterator.next() : null;
+                }
+                node = started ? following(node, (Node) context) : firstChild((Node) context);
+                break;
+            case Axis.DESCENDANT_OR_SELF:
+                if (iterator != null) {
+                    return iterator.hasNext() ? iterator.next() : null;
+                }
+                node = started ? following(node, (Node) context) : (Node) context;
+                break;
+            case Axis.SELF:
+                if (started) {
+                    return null;
+                }
+                started = true;
+                return context;
+            case Axis.PARENT:
+                if (started) {
+                    return null;
+                }
+                node = (Node) context;
+                node = (node.getNodeType() == Node.ATTRIBUTE_NODE)
+                    ? ((Attr) node).getOwnerElement() : node.getParentNode();
+                if (node != null && !isXPathNode(node)) {
+                    node = null;
+                }
+                break;
+            case Axis.ATTRIBUTE:
+                while (attributes != null && index < attributes.getLength()) {
+                    Node attr = attributes.item(index++);
+                    if (!XMLNS_NS.equals(attr.getNamespaceURI())) {
+                        return attr;
+                    }
+                }
+                return null;
+            default:
+                return iterator.hasNext() ? iterator.next() : null;
+            }
+            started = true;
+            return node;
+        }
+
+        private static Node firstChild(Node parent)
+        {
+            short type = parent.getNodeType();
+            if (type != Node.ELEMENT_NODE && type != Node.DOCUMENT_NODE) {
+                return null;
+            }
+
+            Node child = parent.getFirstChild();
+            while (child != null && !isXPathNode(child)) {
+                child = child.getNextSibling();
+            }
+            return child;
+        }
+
+        private static Node nextSibling(Node node)
+        {
+            Node sibling = node.getNextSibling();
+            while (sibling != null && !isXPathNode(sibling)) {
+                sibling = sibling.getNextSibling();
+            }
+            return sibling;
+        }
+
+        /**
+         * Returns the next node of the subtree of root in document order.
+         */
+        private static Node following(Node node, Node root)
+        {
+            Node next = firstChild(node);
+            while (next == null && node != root) {
+                next = nextSibling(node);
+                node = node.getParentNode();
+            }
+            return next;
+        }
+
+        private static boolean isXPathNode(Node node)
+        {
+            switch (node.getNodeType()) {
+            case Node.DOCUMENT_FRAGMENT_NODE:
+            case Node.DOCUMENT_TYPE_NODE:
+            case Node.ENTITY_NODE:
+            case Node.ENTITY_REFERENCE_NODE:
+            case Node.NOTATION_NODE:
+                return false;
+            default:
+                return true;
+            }
+        }
+    }
+
+    /**
+     * A node test of a step.
+     */
+    private static abstract class NodeTest
+    {
+        static final NodeTest ANY = new NodeTest() {
+            boolean matches(Object node, ContextSupport support)
+            {
+                return true;
+            }
+        };
+
+        static final NodeTest TEXT = new NodeTest() {
+            boolean matches(Object node, ContextSupport support)
+            {
+                short type = ((Node) node).getNodeType();
+                return type == Node.TEXT_NODE || type == Node.CDATA_SECTION_NODE;
+            }
+        };
+
+        static final NodeTest COMMENT = new NodeTest() {
+            boolean matches(Object node, ContextSupport support)
+            {
+                return ((Node) node).getNodeType() == Node.COMMENT_NODE;
+            }
+        };
+
+        abstract boolean matches(Object node, ContextSupport support) throws JaxenException;
+    }
+
+    /**
+     * A name test, with the namespace prefix resolved already.
+     * See {@link DefaultNameStep#matches(Object, ContextSupport)}.
+     */
+    private static final class NameTest extends NodeTest
+    {
+        private final String localName;
+        private final String uri;
+        private final boolean matchesAnyName;
+        private final boolean hasPrefix;
+        private final boolean attribute;
+
+        NameTest(String localName, String uri, boolean hasPrefix, boolean attribute)
+        {
+            this.localName = localName;
+            this.uri = (uri != null && uri.length() > 0) ? uri : null;
+            this.matchesAnyName = "*".equals(localName);
+            this.hasPrefix = hasPrefix;
+            this.attribute = attribute;
+        }
+
+        boolean matches(Object object, ContextSupport support)
+        {
+            Node node = (Node) object;
+            switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                break;
+            case Node.ATTRIBUTE_NODE:
+                if (!attribute || XMLNS_NS.equals(node.getNamespaceURI())) {
+                    return false;
+                }
+                break;
+            default:
+                return false;
+            }
+
+            if (matchesAnyName && !hasPrefix) {
+                return true;
+            }
+
+            String nodeUri = node.getNamespaceURI();
+            if (nodeUri != null && nodeUri.length() == 0) {
+                nodeUri = null;
+            }
+            if (uri == null ? nodeUri != null : !uri.equals(nodeUri)) {
+                return false;
+            }
+            if (matchesAnyName) {
+                return true;
+            }
+
+            String name = node.getLocalName();
+            if (name == null) {
+                name = node.getNodeName();
+            }
+            return name.equals(localName);
+        }
+    }
+
+    /**
+     * Any other node test, which the step itself evaluates.
+     */
+    private static final class StepTest extends NodeTest
+    {
+        private final Step step;
+
+        StepTest(Step step)
+        {
+            this.step = step;
+        }
+
+        boolean matches(Object node, ContextSupport support) throws JaxenException
+        {
+            return step.matches(node, support);
+        }
+    }
+}
@@ -0,0 +1,560 @@
+package net.arnx.xmlic.internal.org.jaxen.expr;
+
+import java.util.List;
+
+import net.arnx.xmlic.internal.org.jaxen.Context;
+import net.arnx.xmlic.internal.org.jaxen.ContextSupport;
+import net.arnx.xmlic.internal.org.jaxen.Function;
+import net.arnx.xmlic.internal.org.jaxen.JaxenException;
+import net.arnx.xmlic.internal.org.jaxen.UnresolvableException;
+import net.arnx.xmlic.internal.org.jaxen.function.BooleanFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.CeilingFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.ConcatFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.ContainsFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.CountFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.FalseFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.FloorFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.NormalizeSpaceFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.NotFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.NumberFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.RoundFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.StartsWithFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.StringFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.StringLengthFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.SumFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.SubstringAfterFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.SubstringBeforeFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.SubstringFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.TranslateFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.TrueFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.xslt.DocumentFunction;
+import net.arnx.xmlic.internal.org.jaxen.saxpath.Axis;
+
+/**
+ * <p>Rewrites an expression tree into a cheaper form with the same result.</p>
+ *
+ * <ul>
+ * <li>Operators and core functions whose operands are all constants are
+ * replaced with their value.</li>
+ * <li>A comparison of <code>count(path)</code> with a number that only tells
+ * whether the path selects any node, such as <code>count(path) &gt; 0</code>,
+ * becomes <code>boolean(path)</code> or <code>not(path)</code>, which stop at
+ * the first node.</li>
+ * <li>Predicates that are always true are removed.</li>
+ * <li><code>descendant-or-self::node()/child::x</code> becomes
+ * <code>descendant::x</code> unless a predicate of the child step depends on
+ * the position.</li>
+ * <li>Subexpressions of a predicate that don't depend on the context node,
+ * such as absolute location paths and variable references, are wrapped in an
+ * {@link InvariantExpr}, which is evaluated once per evaluation instead of
+ * once for each node the predicate is applied to.</li>
+ * </ul>
+ *
+ * <p>Core functions are recognized by the class of the function registered in
+ * the function context, so the optimized tree must be thrown away when the
+ * function registrations change. The tree is modified in place, so it must
+ * not be shared with anyone else.</p>
+ */
+public final class ExprOptimizer
+{
+    /** The core functions that always return the same value for the same arguments. */
+    private static final Class[] PURE_FUNCTIONS = {
+        BooleanFunction.class, CeilingFunction.class, ConcatFunction.class,
+        ContainsFunction.class, FloorFunction.class, NormalizeSpaceFunction.class,
+        NotFunction.class, NumberFunction.class, RoundFunction.class,
+        StartsWithFunction.class, StringFunction.class, StringLengthFunction.class,
+        SubstringAfterFunction.class, SubstringBeforeFunction.class, SubstringFunction.class,
+        TranslateFunction.class
+    };
+
+    /** The functions whose value depends only on the arguments, besides the pure ones. */
+    private static final Class[] INVARIANT_FUNCTIONS = {
+        CountFunction.class, SumFunction.class
+    };
+
+    /** The value of the expression depends on the context node. */
+    private static final int VARIANT = 0;
+
+    /** The value of the expression is the same for any context node. */
+    private static final int INVARIANT = 1;
+
+    /** The value of the expression depends only on the document of the context node. */
+    private static final int DOCUMENT = 2;
+
+    private final ContextSupport support;
+
+    /** The context constants are evaluated in. They don't look at the context node. */
+    private final Context constants;
+
+    private final XPathFactory factory = new DefaultXPathFactory();
+
+    private ExprOptimizer(ContextSupport support)
+    {
+        this.support = support;
+        this.constants = new Context(support);
+    }
+
+    /**
+     * Optimizes an expression. The function calls and the name steps that
+     * remain are bound to the functions and the namespace URIs of the context
+     * support, so the expression must be optimized again when the namespace
+     * or the function registrations change.
+     *
+     * @param expr the expression to optimize, which is modified in place
+     * @param support the context support used to resolve functions and namespace prefixes
+     * @return the optimized expression, which may be <code>expr</code> itself
+     */
+    public static Expr optimize(Expr expr, ContextSupport support)
+    {
+        return new ExprOptimizer(support).optimize(expr);
+    }
+
+    private Expr optimize(Expr expr)
+    {
+        if (expr instanceof DefaultUnionExpr) {
+            DefaultUnionExpr union = (DefaultUnionExpr) expr;
+            union.setLHS(optimize(union.getLHS()));
+            union.setRHS(optimize(union.getRHS()));
+            return union;
+        } else if (expr instanceof DefaultBinaryExpr) {
+            return optimizeBinary((DefaultBinaryExpr) expr);
+        } else if (expr instanceof DefaultUnaryExpr) {
+            DefaultUnaryExpr unary = (DefaultUnaryExpr) expr;
+            unary.setExpr(optimize(unary.getExpr()));
+            return isConstant(unary.getExpr()) ? fold(unary) : unary;
+        } else if (expr instanceof DefaultFunctionCallExpr) {
+            DefaultFunctionCallExpr call = (DefaultFunctionCallExpr) expr;
+            List params = call.getParameters();
+            for (int i = 0; i < params.size(); i++) {
+                params.set(i, optimize((Expr) params.get(i)));
+            }
+            if (isPure(call)) {
+                Expr folded = fold(call);
+                if (folded != call) {
+                    return folded;
+                }
+            }
+            call.bind(support);
+            return call;
+        } else if (expr instanceof DefaultFilterExpr) {
+            DefaultFilterExpr filter = (DefaultFilterExpr) expr;
+            if (filter.getExpr() != null) {
+                filter.setExpr(optimize(filter.getExpr()));
+            }
+            optimizePredicates(filter.getPredicateSet());
+            if (filter.getPredicates().isEmpty() && filter.getExpr() != null) {
+                return filter.getExpr();
+            }
+            return filter;
+        } else if (expr instanceof DefaultPathExpr) {
+            DefaultPathExpr path = (DefaultPathExpr) expr;
+            if (path.getFilterExpr() != null) {
+                path.setFilterExpr(optimize(path.getFilterExpr()));
+            }
+            if (path.getLocationPath() != null) {
+                optimizePath(path.getLocationPath());
+            }
+            return path;
+        } else if (expr instanceof LocationPath) {
+            optimizePath((LocationPath) expr);
+            return expr;
+        }
+        return expr;
+    }
+
+    private Expr optimizeBinary(DefaultBinaryExpr expr)
+    {
+        expr.setLHS(optimize(expr.getLHS()));
+        expr.setRHS(optimize(expr.getRHS()));
+
+        Expr lhs = expr.getLHS();
+        Expr rhs = expr.getRHS();
+        if (isConstant(lhs) && isConstant(rhs)) {
+            return fold(expr);
+        }
+
+        if (expr instanceof DefaultLogicalExpr) {
+            // the right operand is not evaluated when the left one decides the result
+            if (isConstant(lhs) && toBoolean(lhs) == "or".equals(expr.getOperator())) {
+                return fold(expr);
+            }
+        } else if (expr instanceof DefaultEqualityExpr || expr instanceof DefaultRelationalExpr) {
+            return optimizeCount(expr);
+        }
+        return expr;
+    }
+
+    /**
+     * Replaces a comparison of <code>count(path)</code> with a number by
+     * an existence test, if the result depends only on whether the path
+     * selects any node.
+     */
+    private Expr optimizeCount(DefaultBinaryExpr expr)
+    {
+        Expr count = expr.getLHS();
+        Expr number = expr.getRHS();
+        String op = expr.getOperator();
+        if (count instanceof NumberExpr) {
+            count = expr.getRHS();
+            number = expr.getLHS();
+            op = reverse(op);
+        }
+
+        if (!(number instanceof NumberExpr) || !isCall(count, "count", 1, CountFunction.class)) {
+            return expr;
+        }
+        Expr path = (Expr) ((FunctionCallExpr) count).getParameters().get(0);
+        if (!(path instanceof LocationPath)) {
+            return expr;
+        }
+
+        double value = ((NumberExpr) number).getNumber().doubleValue();
+        if (Double.doubleToLongBits(value) == Double.doubleToLongBits(-0.0)) {
+            // >= compares -0 and 0 as Double.compareTo does
+            return expr;
+        }
+
+        boolean some;
+        if ("=".equals(op) || "!=".equals(op)) {
+            if (value >= 1 && value == Math.floor(value)) {
+                return expr;
+            }
+            some = "!=".equals(op);
+        } else {
+            some = compare(1, op, value);
+            if (some != compare(Double.POSITIVE_INFINITY, op, value)) {
+                return expr;
+            }
+        }
+        boolean none = compare(0, op, value);
+        if (none == some) {
+            // a constant, but the path may still raise an error
+            return expr;
+        }
+
+        String name = some ? "boolean" : "not";
+        Class type = some ? BooleanFunction.class : NotFunction.class;
+        if (!type.equals(getFunctionClass(name))) {
+            return expr;
+        }
+        DefaultFunctionCallExpr call = new DefaultFunctionCallExpr("", name);
+        call.addParameter(path);
+        call.bind(support);
+        return call;
+    }
+
+    private static String reverse(String op)
+    {
+        if ("<".equals(op)) {
+            return ">";
+        } else if ("<=".equals(op)) {
+            return ">=";
+        } else if (">".equals(op)) {
+            return "<";
+        } else if (">=".equals(op)) {
+            return "<=";
+        }
+        return op;
+    }
+
+    private static boolean compare(double count, String op, double value)
+    {
+        if ("=".equals(op)) {
+            return count == value;
+        } else if ("!=".equals(op)) {
+            return count != value;
+        } else if ("<".equals(op)) {
+            return count < value;
+        } else if ("<=".equals(op)) {
+            return count <= value;
+        } else if (">".equals(op)) {
+            return count > value;
+        }
+        return count >= value;
+    }
+
+    private void optimizePath(LocationPath path)
+    {
+        List steps = path.getSteps();
+        for (int i = 0; i < steps.size(); i++) {
+            optimizePredicates(((Step) steps.get(i)).getPredicateSet());
+        }
+
+        for (int i = 0; i + 1 < steps.size(); i++) {
+            Step step = (Step) steps.get(i);
+            Step next = (Step) steps.get(i + 1);
+            if (step.getAxis() == Axis.DESCENDANT_OR_SELF
+                    && step instanceof AllNodeStep
+                    && step.getPredicates().isEmpty()
+                    && next.getAxis() == Axis.CHILD
+                    && LazyLocationIterator.isPositionIndependent(next)) {
+                Step descendant = toDescendant(next);
+                if (descendant != null) {
+                    steps.remove(i);
+                    steps.set(i, descendant);
+                }
+            }
+        }
+
+        for (int i = 0; i < steps.size(); i++) {
+            if (steps.get(i) instanceof DefaultNameStep) {
+                ((DefaultNameStep) steps.get(i)).bind(support);
+            }
+        }
+    }
+
+    /**
+     * Creates a step on the descendant axis with the same node test and
+     * predicates, or returns null if the step is of an unknown type.
+     */
+    private Step toDescendant(Step step)
+    {
+        Step descendant;
+        try {
+            if (step instanceof NameStep) {
+                NameStep name = (NameStep) step;
+                descendant = factory.createNameStep(Axis.DESCENDANT, name.getPrefix(), name.getLocalName());
+            } else if (step instanceof AllNodeStep) {
+                descendant = factory.createAllNodeStep(Axis.DESCENDANT);
+            } else if (step instanceof TextNodeStep) {
+                descendant = factory.createTextNodeStep(Axis.DESCENDANT);
+            } else if (step instanceof CommentNodeStep) {
+                descendant = factory.createCommentNodeStep(Axis.DESCENDANT);
+            } else if (step instanceof ProcessingInstructionNodeStep) {
+                String name = ((ProcessingInstructionNodeStep) step).getName();
+                descendant = factory.createProcessingInstructionNodeStep(Axis.DESCENDANT, name);
+            } else {
+                return null;
+            }
+        } catch (JaxenException e) {
+            return null;
+        }
+
+        List predicates = step.getPredicates();
+        for (int i = 0; i < predicates.size(); i++) {
+            descendant.addPredicate((Predicate) predicates.get(i));
+        }
+        return descendant;
+    }
+
+    private void optimizePredicates(PredicateSet predicateSet)
+    {
+        List predicates = predicateSet.getPredicates();
+        for (int i = 0; i < predicates.size(); i++) {
+            Predicate predicate = (Predicate) predicates.get(i);
+            Expr expr = optimize(predicate.getExpr());
+
+            // a predicate that keeps every node doesn't change the positions for the next one
+            if (isConstant(expr) && !(expr instanceof NumberExpr) && toBoolean(expr)) {
+                predicates.remove(i--);
+            } else {
+                predicate.setExpr(hoist(expr));
+            }
+        }
+    }
+
+    /**
+     * Wraps the largest subexpressions of a predicate that don't depend on
+     * the context node in an {@link InvariantExpr}. Constants are left as
+     * they are, because they are no cheaper to look up.
+     */
+    private Expr hoist(Expr expr)
+    {
+        int invariance = getInvariance(expr);
+        if (invariance != VARIANT) {
+            return isConstant(expr) ? expr : new InvariantExpr(expr, invariance == DOCUMENT);
+        }
+
+        if (expr instanceof DefaultBinaryExpr) {
+            DefaultBinaryExpr binary = (DefaultBinaryExpr) expr;
+            binary.setLHS(hoist(binary.getLHS()));
+            binary.setRHS(hoist(binary.getRHS()));
+        } else if (expr instanceof DefaultUnaryExpr) {
+            DefaultUnaryExpr unary = (DefaultUnaryExpr) expr;
+            unary.setExpr(hoist(unary.getExpr()));
+        } else if (expr instanceof DefaultFunctionCallExpr) {
+            List params = ((DefaultFunctionCallExpr) expr).getParameters();
+            for (int i = 0; i < params.size(); i++) {
+                params.set(i, hoist((Expr) params.get(i)));
+            }
+        } else if (expr instanceof DefaultPathExpr) {
+            DefaultPathExpr path = (DefaultPathExpr) expr;
+            if (path.getFilterExpr() != null) {
+                path.setFilterExpr(hoist(path.getFilterExpr()));
+            }
+        }
+        return expr;
+    }
+
+    /**
+     * Tests how the value of an expression depends on the context node.
+     * The predicates of location paths and filters have their own context,
+     * so they don't matter here.
+     *
+     * @return {@link #VARIANT}, {@link #INVARIANT} or {@link #DOCUMENT}
+     */
+    private int getInvariance(Expr expr)
+    {
+        if (expr instanceof LiteralExpr
+                || expr instanceof NumberExpr
+                || expr instanceof VariableReferenceExpr) {
+            return INVARIANT;
+        } else if (expr instanceof LocationPath) {
+            return ((LocationPath) expr).isAbsolute() ? DOCUMENT : VARIANT;
+        } else if (expr instanceof BinaryExpr) {
+            BinaryExpr binary = (BinaryExpr) expr;
+            return combine(getInvariance(binary.getLHS()), getInvariance(binary.getRHS()));
+        } else if (expr instanceof UnaryExpr) {
+            return getInvariance(((UnaryExpr) expr).getExpr());
+        } else if (expr instanceof FilterExpr) {
+            Expr filter = ((FilterExpr) expr).getExpr();
+            return (filter != null) ? getInvariance(filter) : VARIANT;
+        } else if (expr instanceof PathExpr) {
+            // a relative location path is evaluated from the nodes of the filter
+            PathExpr path = (PathExpr) expr;
+            return getInvariance((path.getFilterExpr() != null) ? path.getFilterExpr() : path.getLocationPath());
+        } else if (expr instanceof FunctionCallExpr) {
+            FunctionCallExpr call = (FunctionCallExpr) expr;
+            List params = call.getParameters();
+            if (params.isEmpty() || !isInvariantFunction(call)) {
+                return VARIANT;
+            }
+            int invariance = INVARIANT;
+            for (int i = 0; i < params.size(); i++) {
+                invariance = combine(invariance, getInvariance((Expr) params.get(i)));
+            }
+            return invariance;
+        }
+        return VARIANT;
+    }
+
+    private static int combine(int a, int b)
+    {
+        return (a == VARIANT || b == VARIANT) ? VARIANT : Math.max(a, b);
+    }
+
+    private boolean isInvariantFunction(FunctionCallExpr call)
+    {
+        Class type = getFunctionClass(call);
+        for (int i = 0; i < PURE_FUNCTIONS.length; i++) {
+            if (PURE_FUNCTIONS[i].equals(type)) {
+                return true;
+            }
+        }
+        for (int i = 0; i < INVARIANT_FUNCTIONS.length; i++) {
+            if (INVARIANT_FUNCTIONS[i].equals(type)) {
+                return true;
+            }
+        }
+        // any implementation loads the same document for the same URI
+        return type != null && DocumentFunction.class.isAssignableFrom(type);
+    }
+
+    /**
+     * Tests if an expression is a literal, a number or a call of
+     * <code>true()</code> or <code>false()</code>, which are the forms
+     * {@link #fold(Expr)} creates.
+     */
+    private boolean isConstant(Expr expr)
+    {
+        return expr instanceof DefaultLiteralExpr
+            || expr instanceof DefaultNumberExpr
+            || isCall(expr, "true", 0, TrueFunction.class)
+            || isCall(expr, "false", 0, FalseFunction.class);
+    }
+
+    /**
+     * Tests if a call of a core function has only constant arguments,
+     * and so can be replaced with its value.
+     */
+    private boolean isPure(DefaultFunctionCallExpr call)
+    {
+        List params = call.getParameters();
+        if (params.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < params.size(); i++) {
+            if (!isConstant((Expr) params.get(i))) {
+                return false;
+            }
+        }
+
+        Class type = getFunctionClass(call);
+        for (int i = 0; i < PURE_FUNCTIONS.length; i++) {
+            if (PURE_FUNCTIONS[i].equals(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isCall(Expr expr, String name, int arity, Class type)
+    {
+        if (!(expr instanceof FunctionCallExpr)) {
+            return false;
+        }
+        FunctionCallExpr call = (FunctionCallExpr) expr;
+        return name.equals(call.getFunctionName())
+            && call.getParameters().size() == arity
+            && type.equals(getFunctionClass(call));
+    }
+
+    private Class getFunctionClass(FunctionCallExpr call)
+    {
+        String prefix = call.getPrefix();
+        if (prefix != null && prefix.length() > 0) {
+            return null;
+        }
+        return getFunctionClass(call.getFunctionName());
+    }
+
+    private Class getFunctionClass(String name)
+    {
+        try {
+            Function function = support.getFunction(null, null, name);
+            return (function != null) ? function.getClass() : null;
+        } catch (UnresolvableException e) {
+            return null;
+        }
+    }
+
+    private boolean toBoolean(Expr expr)
+    {
+        try {
+            return BooleanFunction.evaluate(expr.evaluate(constants), constants.getNavigator()).booleanValue();
+        } catch (JaxenException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Replaces an expression of constants with its value. The expression is
+     * left as it is if the evaluation fails, so that the error is raised
+     * when it is evaluated, or if the value has no literal form.
+     */
+    private Expr fold(Expr expr)
+    {
+        Object value;
+        try {
+            value = expr.evaluate(constants);
+        } catch (JaxenException e) {
+            return expr;
+        }
+
+        if (value instanceof String) {
+            return new DefaultLiteralExpr((String) value);
+        } else if (value instanceof Double) {
+            Double number = (Double) value;
+            if (!number.isNaN() && !number.isInfinite()) {
+                return new DefaultNumberExpr(number);
+            }
+        } else if (value instanceof Boolean) {
+            boolean b = ((Boolean) value).booleanValue();
+            String name = b ? "true" : "false";
+            if ((b ? TrueFunction.class : FalseFunction.class).equals(getFunctionClass(name))) {
+                return new DefaultFunctionCallExpr("", name);
+            }
+        }
+        return expr;
+    }
+}
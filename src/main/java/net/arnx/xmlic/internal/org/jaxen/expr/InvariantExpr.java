@@ -0,0 +1,85 @@
+package net.arnx.xmlic.internal.org.jaxen.expr;
+
+import java.util.List;
+import java.util.Map;
+
+import net.arnx.xmlic.internal.org.jaxen.Context;
+import net.arnx.xmlic.internal.org.jaxen.JaxenException;
+
+/**
+ * <p>A subexpression of a predicate whose value doesn't depend on the context
+ * node, created by {@link ExprOptimizer}.</p>
+ *
+ * <p>The value is evaluated once per evaluation and cached in the context
+ * support, if it is a copy made by <code>ContextSupport.forEvaluation()</code>.
+ * The value of an expression that contains an absolute location path also
+ * depends on the document of the context node, which is cached with it.</p>
+ */
+final class InvariantExpr extends DefaultExpr
+{
+    private static final long serialVersionUID = -2918570612361749810L;
+
+    private final Expr expr;
+    private final boolean absolute;
+
+    InvariantExpr(Expr expr, boolean absolute)
+    {
+        this.expr = expr;
+        this.absolute = absolute;
+    }
+
+    /**
+     * Returns the expression whose value is cached.
+     *
+     * @return the expression
+     */
+    public Expr getExpr()
+    {
+        return expr;
+    }
+
+    /**
+     * Tests if the value depends on the document of the context node.
+     *
+     * @return true if the expression contains an absolute location path
+     */
+    public boolean isAbsolute()
+    {
+        return absolute;
+    }
+
+    public String getText()
+    {
+        return expr.getText();
+    }
+
+    public String toString()
+    {
+        return "[(InvariantExpr): " + expr + "]";
+    }
+
+    public Object evaluate(Context context) throws JaxenException
+    {
+        Map values = context.getContextSupport().getCachedValues();
+        if (values == null) {
+            return expr.evaluate(context);
+        }
+
+        Object document = absolute ? getDocument(context) : null;
+        Object[] entry = (Object[]) values.get(this);
+        if (entry == null || entry[0] != document) {
+            entry = new Object[] { document, expr.evaluate(context) };
+            values.put(this, entry);
+        }
+        return entry[1];
+    }
+
+    private static Object getDocument(Context context)
+    {
+        List nodes = context.getNodeSet();
+        if (nodes.isEmpty()) {
+            return null;
+        }
+        return context.getNavigator().getDocumentNode(nodes.get(0));
+    }
+}
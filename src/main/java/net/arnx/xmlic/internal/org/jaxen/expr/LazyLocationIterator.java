@@ -0,0 +1,307 @@
+package net.arnx.xmlic.internal.org.jaxen.expr;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import net.arnx.xmlic.internal.org.jaxen.Context;
+import net.arnx.xmlic.internal.org.jaxen.ContextSupport;
+import net.arnx.xmlic.internal.org.jaxen.JaxenException;
+import net.arnx.xmlic.internal.org.jaxen.JaxenRuntimeException;
+import net.arnx.xmlic.internal.org.jaxen.saxpath.Axis;
+import net.arnx.xmlic.internal.org.jaxen.util.SingletonList;
+
+/**
+ * <p>Evaluates the steps of a location path on demand, one node at a time.</p>
+ *
+ * <p>The steps are chained as nested iterators, so the nodes come out
+ * in the order of the context nodes of each step. That order is document
+ * order without duplicates only if every step starts from nodes that are
+ * not nested in one another (or only the last step may produce nested nodes).
+ * {@link #plan(List)} checks that and returns null for any other path, so
+ * callers can fall back to the normal evaluation.</p>
+ *
+ * <p>Errors raised while iterating are thrown as {@link JaxenRuntimeException}.</p>
+ */
+class LazyLocationIterator implements Iterator
+{
+    /**
+     * Analyzes the steps of a location path.
+     *
+     * @param steps the steps of the location path
+     * @return the steps to evaluate lazily, or null if the path cannot be evaluated lazily
+     */
+    static LazyStep[] plan(List steps)
+    {
+        List plan = new ArrayList(steps.size());
+        boolean nested = false;
+
+        for (int i = 0; i < steps.size(); i++) {
+            Step step = (Step) steps.get(i);
+
+            switch (step.getAxis()) {
+            case Axis.SELF:
+                plan.add(new LazyStep(step, false));
+                break;
+            case Axis.CHILD:
+                if (nested) return null;
+                plan.add(new LazyStep(step, false));
+                break;
+            case Axis.ATTRIBUTE:
+                // attributes follow their element and have no descendants
+                plan.add(new LazyStep(step, false));
+                nested = false;
+                break;
+            case Axis.DESCENDANT_OR_SELF:
+                if (nested) return null;
+                // descendant-or-self::node()/child::x[p] is the same as descendant::x[p]
+                // unless p depends on the position
+                if (step instanceof AllNodeStep && step.getPredicateSet().getPredicates().isEmpty()
+                        && i + 1 < steps.size()) {
+                    Step next = (Step) steps.get(i + 1);
+                    if (next.getAxis() == Axis.CHILD && isPositionIndependent(next)) {
+                        plan.add(new LazyStep(next, true));
+                        nested = true;
+                        i++;
+                        break;
+                    }
+                }
+                plan.add(new LazyStep(step, false));
+                nested = true;
+                break;
+            case Axis.DESCENDANT:
+                if (nested) return null;
+                plan.add(new LazyStep(step, false));
+                nested = true;
+                break;
+            default:
+                return null;
+            }
+        }
+        return (LazyStep[]) plan.toArray(new LazyStep[plan.size()]);
+    }
+
+    /**
+     * Tests if the predicates of a step select the same nodes
+     * regardless of the position and the size of the context.
+     */
+    static boolean isPositionIndependent(Step step)
+    {
+        Iterator i = step.getPredicateSet().getPredicates().iterator();
+        while (i.hasNext()) {
+            Expr expr = ((Predicate) i.next()).getExpr();
+            if (!isBoolean(expr) || !isPositionIndependent(expr)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tests if a predicate expression can't be a number, which would be
+     * compared with the position.
+     */
+    private static boolean isBoolean(Expr expr)
+    {
+        if (expr instanceof InvariantExpr) {
+            return isBoolean(((InvariantExpr) expr).getExpr());
+        } else if (expr instanceof LocationPath
+                || expr instanceof LiteralExpr
+                || expr instanceof EqualityExpr
+                || expr instanceof RelationalExpr
+                || expr instanceof LogicalExpr) {
+            return true;
+        } else if (expr instanceof FunctionCallExpr) {
+            FunctionCallExpr call = (FunctionCallExpr) expr;
+            String name = call.getFunctionName();
+            return (call.getPrefix() == null || call.getPrefix().length() == 0)
+                && ("boolean".equals(name) || "not".equals(name) || "true".equals(name)
+                    || "false".equals(name) || "contains".equals(name)
+                    || "starts-with".equals(name) || "lang".equals(name));
+        }
+        return false;
+    }
+
+    private static boolean isPositionIndependent(Expr expr)
+    {
+        if (expr instanceof LocationPath
+                || expr instanceof LiteralExpr
+                || expr instanceof NumberExpr
+                || expr instanceof VariableReferenceExpr
+                || expr instanceof InvariantExpr) {
+            // the predicates of a location path have their own context
+            return true;
+        } else if (expr instanceof BinaryExpr) {
+            BinaryExpr binary = (BinaryExpr) expr;
+            return isPositionIndependent(binary.getLHS())
+                && isPositionIndependent(binary.getRHS());
+        } else if (expr instanceof UnaryExpr) {
+            return isPositionIndependent(((UnaryExpr) expr).getExpr());
+        } else if (expr instanceof FilterExpr) {
+            return isPositionIndependent(((FilterExpr) expr).getExpr());
+        } else if (expr instanceof FunctionCallExpr) {
+            FunctionCallExpr call = (FunctionCallExpr) expr;
+            if ((call.getPrefix() != null && call.getPrefix().length() != 0)
+                    || "position".equals(call.getFunctionName())
+                    || "last".equals(call.getFunctionName())) {
+                return false;
+            }
+            Iterator i = call.getParameters().iterator();
+            while (i.hasNext()) {
+                if (!isPositionIndependent((Expr) i.next())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private final LazyStep[] steps;
+    private final ContextSupport support;
+    private final Iterator[] iterators;
+    private int level;
+    private Object next;
+
+    LazyLocationIterator(LazyStep[] steps, Object contextNode, ContextSupport support) throws JaxenException
+    {
+        this.steps = steps;
+        this.support = support;
+        this.iterators = new Iterator[steps.length];
+
+        if (steps.length == 0) {
+            this.next = contextNode;
+            this.level = -1;
+        } else {
+            this.iterators[0] = steps[0].iterator(contextNode, support);
+            this.level = 0;
+        }
+    }
+
+    public boolean hasNext()
+    {
+        if (next != null) {
+            return true;
+        }
+
+        try {
+            while (level >= 0) {
+                if (!iterators[level].hasNext()) {
+                    iterators[level] = null;
+                    level--;
+                    continue;
+                }
+
+                Object node = iterators[level].next();
+                if (level == steps.length - 1) {
+                    next = node;
+                    return true;
+                }
+
+                level++;
+                iterators[level] = steps[level].iterator(node, support);
+            }
+        } catch (JaxenException e) {
+            throw new JaxenRuntimeException(e);
+        }
+        return false;
+    }
+
+    public Object next()
+    {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Object result = next;
+        next = null;
+        return result;
+    }
+
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    static class LazyStep
+    {
+        private final Step step;
+        private final boolean descendant;
+        private final boolean filter;
+
+        LazyStep(Step step, boolean descendant)
+        {
+            this.step = step;
+            this.descendant = descendant;
+
+            // walk the axis lazily unless a predicate needs the position or the size
+            this.filter = descendant || isPositionIndependent(step);
+        }
+
+        Iterator iterator(Object contextNode, ContextSupport support) throws JaxenException
+        {
+            if (descendant) {
+                return new FilterIterator(step,
+                        support.getNavigator().getDescendantAxisIterator(contextNode), support);
+            } else if (filter) {
+                Iterator named = (step instanceof DefaultNameStep)
+                    ? ((DefaultNameStep) step).namedAxisIterator(contextNode, support) : null;
+                return new FilterIterator(step,
+                        (named != null) ? named : step.axisIterator(contextNode, support), support);
+            }
+
+            Context context = new Context(support);
+            context.setNodeSet(new SingletonList(contextNode));
+            return step.evaluate(context).iterator();
+        }
+    }
+
+    private static class FilterIterator implements Iterator
+    {
+        private final Step step;
+        private final Iterator iterator;
+        private final ContextSupport support;
+        private final boolean predicated;
+        private Object next;
+
+        FilterIterator(Step step, Iterator iterator, ContextSupport support)
+        {
+            this.step = step;
+            this.iterator = iterator;
+            this.support = support;
+            this.predicated = !step.getPredicateSet().getPredicates().isEmpty();
+        }
+
+        public boolean hasNext()
+        {
+            try {
+                while (next == null && iterator != null && iterator.hasNext()) {
+                    Object node = iterator.next();
+                    if (step.matches(node, support) && (!predicated
+                            || !step.getPredicateSet().evaluatePredicates(
+                                    new SingletonList(node), support).isEmpty())) {
+                        next = node;
+                    }
+                }
+            } catch (JaxenException e) {
+                throw new JaxenRuntimeException(e);
+            }
+            return next != null;
+        }
+
+        public Object next()
+        {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Object result = next;
+            next = null;
+            return result;
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
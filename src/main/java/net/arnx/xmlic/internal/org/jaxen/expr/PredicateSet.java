@@ -58,8 +58,11 @@ import java.util.List;
 
 import net.arnx.xmlic.internal.org.jaxen.Context;
 import net.arnx.xmlic.internal.org.jaxen.ContextSupport;
+import net.arnx.xmlic.internal.org.jaxen.Function;
 import net.arnx.xmlic.internal.org.jaxen.JaxenException;
+import net.arnx.xmlic.internal.org.jaxen.UnresolvableException;
 import net.arnx.xmlic.internal.org.jaxen.function.BooleanFunction;
+import net.arnx.xmlic.internal.org.jaxen.function.LastFunction;
 
 /**
  * <p>
@@ -79,6 +82,11 @@ public class PredicateSet implements Serializable
 
     private static final long serialVersionUID = -7166491740228977853L;
     
+    /**
+     * The position returned by {@link #getFirstPosition(ContextSupport)} for a <code>last()</code> predicate.
+     */
+    public static final int LAST = -1;
+    
     private List predicates;
 
     /**
@@ -115,6 +123,57 @@ public class PredicateSet implements Serializable
         return this.predicates;
     }
 
+    /**
+     * Returns the position that the first predicate selects when it is
+     * a positive integer literal such as <code>[1]</code>, or {@link #LAST}
+     * when it is <code>[last()]</code> and <code>last</code> resolves to the
+     * standard function in the context. Returns 0 for any other predicate,
+     * or if there are no predicates.
+     * 
+     * @param support the context support that resolves the functions
+     * @return the constant position selected by the first predicate
+     */
+    public int getFirstPosition(ContextSupport support)
+    {
+        if ( this.predicates.isEmpty() )
+        {
+            return 0;
+        }
+        
+        Expr expr = ((Predicate) this.predicates.get( 0 )).getExpr();
+        if ( expr instanceof NumberExpr )
+        {
+            double value = ((NumberExpr) expr).getNumber().doubleValue();
+            if ( value >= 1 && value <= Integer.MAX_VALUE && value == Math.floor( value ) )
+            {
+                return (int) value;
+            }
+        }
+        else if ( expr instanceof FunctionCallExpr )
+        {
+            FunctionCallExpr call = (FunctionCallExpr) expr;
+            if ( (call.getPrefix() == null || call.getPrefix().length() == 0)
+                 && "last".equals( call.getFunctionName() )
+                 && call.getParameters().isEmpty() )
+            {
+                try
+                {
+                    // a function context may replace last() with another function
+                    Function function = support.getFunction( null, call.getPrefix(), call.getFunctionName() );
+                    if ( function != null && function.getClass() == LastFunction.class )
+                    {
+                        return LAST;
+                    }
+                }
+                catch ( UnresolvableException e )
+                {
+                    // let the evaluation report it
+                }
+            }
+        }
+        return 0;
+    }
+
     /**
      * Simplify each of the predicates in the list.
      */
@@ -195,7 +254,14 @@ public class PredicateSet implements Serializable
                 // ????
                 predContext.setPosition(i + 1);
                 predContext.setSize(nodes2FilterSize);
-                Object predResult = ((Predicate)predIter.next()).evaluate(predContext);
+                Predicate predicate = (Predicate)predIter.next();
+                if (predicate.getExpr() instanceof LocationPath) {
+                    if (DefaultExpr.evaluateAsBoolean(predicate.getExpr(), predContext).booleanValue()) {
+                        return true;
+                    }
+                    continue;
+                }
+                Object predResult = predicate.evaluate(predContext);
                 if (predResult instanceof Number) {
                     // Here we assume nodes are in forward or reverse order
                     // as appropriate for axis
@@ -232,11 +298,26 @@ public class PredicateSet implements Serializable
     */
    protected List evaluatePredicates(List contextNodeSet, ContextSupport support)
             throws JaxenException {
+        return evaluatePredicates(contextNodeSet, 0, support);
+   }
+   
+   /**
+    * <p>Returns all of the supplied nodes that satisfy 
+    * the predicates in the set, starting from the specified one. </p>
+    * 
+    * @param contextNodeSet the nodes to test against these predicates
+    * @param start the index of the first predicate to apply
+    * @param support the context support
+    * @return all the nodes that match each of the predicates
+    * @throws JaxenException
+    */
+   protected List evaluatePredicates(List contextNodeSet, int start, ContextSupport support)
+            throws JaxenException {
         // Easy way out (necessary)
-        if (predicates.size() == 0) {
+        if (predicates.size() <= start) {
             return contextNodeSet;
         }
-        Iterator predIter = predicates.iterator();
+        Iterator predIter = predicates.listIterator(start);
 
         // initial list to filter
         List nodes2Filter = contextNodeSet;
@@ -267,6 +348,13 @@ public class PredicateSet implements Serializable
             // ????
             predContext.setPosition(i + 1);
             predContext.setSize(nodes2FilterSize);
+            if (predicate.getExpr() instanceof LocationPath) {
+                // a node-set is true if it is not empty, so stop at the first node
+                if (DefaultExpr.evaluateAsBoolean(predicate.getExpr(), predContext).booleanValue()) {
+                    filteredNodes.add(contextNode);
+                }
+                continue;
+            }
             Object predResult = predicate.evaluate(predContext);
             if (predResult instanceof Number) {
                 // Here we assume nodes are in forward or reverse order
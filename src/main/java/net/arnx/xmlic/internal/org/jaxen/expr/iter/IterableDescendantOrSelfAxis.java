@@ -51,6 +51,7 @@ package net.arnx.xmlic.internal.org.jaxen.expr.iter;
 import java.util.Iterator;
 
 import net.arnx.xmlic.internal.org.jaxen.ContextSupport;
+import net.arnx.xmlic.internal.org.jaxen.NamedAccessNavigator;
 import net.arnx.xmlic.internal.org.jaxen.UnsupportedAxisException;
 
 public class IterableDescendantOrSelfAxis extends IterableAxis
@@ -70,4 +71,19 @@ public class IterableDescendantOrSelfAxis extends IterableAxis
     {
         return support.getNavigator().getDescendantOrSelfAxisIterator( contextNode );
     }
+
+    public Iterator namedAccessIterator(Object contextNode,
+                                        ContextSupport support,
+                                        String localName,
+                                        String namespacePrefix,
+                                        String namespaceURI) throws UnsupportedAxisException
+    {
+        NamedAccessNavigator nav = (NamedAccessNavigator) support.getNavigator();
+        return nav.getDescendantOrSelfAxisIterator( contextNode, localName, namespacePrefix, namespaceURI );
+    }
+
+    public boolean supportsNamedAccess(ContextSupport support)
+    {
+        return ( support.getNavigator() instanceof NamedAccessNavigator );
+    }
 }
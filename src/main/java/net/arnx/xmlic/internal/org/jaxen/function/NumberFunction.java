@@ -178,41 +178,64 @@ public class NumberFunction implements Function
         {
             return (Double) obj;
         }
+        return new Double( doubleValue( obj, nav ) );
+    }
+  
+    /** 
+     * Returns the number value of <code>obj</code> as a primitive
+     * <code>double</code>, without boxing it.
+     *
+     * @param obj the object to be converted to a number
+     * @param nav the <code>Navigator</code> used to calculate the string-value
+     *     of node-sets
+     * 
+     * @return the number value
+     */
+    public static double doubleValue(Object obj, Navigator nav)
+    {
+        if( obj instanceof Double )
+        {
+            return ((Double) obj).doubleValue();
+        }
         else if ( obj instanceof String )
         {
-            String str = (String) obj;
-            try
-            {
-                Double doubleValue = new Double( str );        
-                return doubleValue;
-            }
-            catch (NumberFormatException e)
-            {
-                return NaN;
-            }
+            return doubleValue( (String) obj );
         }
         else if ( obj instanceof List || obj instanceof Iterator )
         {
-          return evaluate( StringFunction.evaluate( obj, nav ), nav );
+          return doubleValue( StringFunction.evaluate( obj, nav ) );
         }
         else if ( nav.isElement( obj ) || nav.isAttribute( obj ) 
                 || nav.isText( obj ) || nav.isComment( obj ) || nav.isProcessingInstruction( obj ) 
                 || nav.isDocument( obj ) || nav.isNamespace( obj ))
         {
-            return evaluate( StringFunction.evaluate( obj, nav ), nav );
+            return doubleValue( StringFunction.evaluate( obj, nav ) );
         }
         else if ( obj instanceof Boolean )
           {
-          if ( Boolean.TRUE.equals(obj) )
-          {
-              return new Double( 1 );
-          }
-          else
-          {
-              return new Double( 0 );
-          }
+          return Boolean.TRUE.equals(obj) ? 1 : 0;
         }    
-        return NaN;
+        return Double.NaN;
+    }
+  
+    /** 
+     * Returns the number value of a string, or NaN if the string
+     * is not a number.
+     *
+     * @param str the string to be converted to a number
+     * 
+     * @return the number value
+     */
+    public static double doubleValue(String str)
+    {
+        try
+        {
+            return Double.parseDouble( str );
+        }
+        catch (NumberFormatException e)
+        {
+            return Double.NaN;
+        }
     }
   
   /**
@@ -127,7 +127,23 @@ public class RoundFunction implements Function
             return d;
         }
 
-        double value = d.doubleValue();
-        return new Double( Math.round( value ) );
+        return new Double( round( d.doubleValue() ) );
+    }
+
+    /**
+     * Returns the integer nearest to a number without boxing it.
+     * NaN and infinities are returned as they are.
+     *
+     * @param value the number to round
+     * @return the nearest integer
+     */
+    public static double round(double value)
+    {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+        {
+            return value;
+        }
+
+        return Math.round( value );
     }
 }
@@ -113,6 +113,23 @@ public class SumFunction implements Function
      */
     public static Double evaluate(Object obj,
                                   Navigator nav) throws FunctionCallException
+    {
+        return new Double( sum( obj, nav ) );
+    }
+
+    /** 
+     * Returns the sum of the items in a list as a primitive <code>double</code>.
+     * 
+     * @param obj a <code>List</code> of numbers to be summed
+     * @param nav the <code>Navigator</code> used to calculate the string-value
+     *     of nodes
+     * 
+     * @return the sum of the list
+     * 
+     * @throws FunctionCallException if <code>obj</code> is not a <code>List</code>
+     */
+    public static double sum(Object obj,
+                             Navigator nav) throws FunctionCallException
     {
         double sum  = 0;
 
@@ -121,8 +138,8 @@ public class SumFunction implements Function
             Iterator nodeIter = ((List)obj).iterator();
             while ( nodeIter.hasNext() )
             {
-                double term = NumberFunction.evaluate( nodeIter.next(),
-                                                nav ).doubleValue();
+                double term = NumberFunction.doubleValue( nodeIter.next(),
+                                                          nav );
                 sum += term;
             }
         }
@@ -131,7 +148,7 @@ public class SumFunction implements Function
             throw new FunctionCallException("The argument to the sum function must be a node-set");
         }
 
-        return new Double(sum);
+        return sum;
     }
     
 }
@@ -0,0 +1,63 @@
+package net.arnx.xmlic.internal.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+public class DocumentBuilderPool {
+	public static final int DEFAULT_POOL_SIZE = 16;
+
+	private final DocumentBuilderFactory factory;
+	private final int maxSize;
+
+	private final Queue<DocumentBuilder> pool = new ConcurrentLinkedQueue<DocumentBuilder>();
+	private final AtomicInteger size = new AtomicInteger();
+
+	public DocumentBuilderPool(DocumentBuilderFactory factory) {
+		this(factory, DEFAULT_POOL_SIZE);
+	}
+
+	public DocumentBuilderPool(DocumentBuilderFactory factory, int maxSize) {
+		if (maxSize < 0) throw new IllegalArgumentException("maxSize must not be negative: " + maxSize);
+
+		this.factory = factory;
+		this.maxSize = maxSize;
+	}
+
+	public DocumentBuilder acquire() throws ParserConfigurationException {
+		DocumentBuilder db = pool.poll();
+		if (db != null) {
+			size.decrementAndGet();
+			return db;
+		}
+
+		synchronized (factory) {
+			return factory.newDocumentBuilder();
+		}
+	}
+
+	public void release(DocumentBuilder db) {
+		if (db == null) return;
+
+		try {
+			db.reset();
+		} catch (UnsupportedOperationException e) {
+			// a builder that can't be reset is not reusable
+			return;
+		}
+
+		if (size.incrementAndGet() <= maxSize) {
+			pool.offer(db);
+		} else {
+			size.decrementAndGet();
+		}
+	}
+
+	public int size() {
+		return size.get();
+	}
+}
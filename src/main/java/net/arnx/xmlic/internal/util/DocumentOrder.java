@@ -0,0 +1,76 @@
+package net.arnx.xmlic.internal.util;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import net.arnx.xmlic.internal.org.jaxen.dom.DocumentCache;
+
+/**
+ * A document-order numbering of the nodes of a document.
+ *
+ * The numbering is built lazily and stored in the user data of the document.
+ * It is dropped by {@link #clear(Document)}, and by any DOM mutation through
+ * {@link DocumentCache}. No numbering is built for a document that doesn't
+ * support mutation events.
+ */
+public class DocumentOrder {
+	private static final String INDEX = DocumentOrder.class.getName() + ".index";
+
+	/**
+	 * Gets the document-order numbering of the document.
+	 *
+	 * @param doc a document
+	 * @param create true if the numbering should be built when it doesn't exist
+	 * @return a map from a node to its position. null if not exists and create is false,
+	 *   or if the document can't be watched.
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<Node, Integer> get(Document doc, boolean create) {
+		synchronized (doc) {
+			Map<Node, Integer> index = (Map<Node, Integer>)doc.getUserData(INDEX);
+			if (index == null && create && DocumentCache.isSupported(doc)) {
+				index = build(doc);
+				DocumentCache.put(doc, INDEX, index);
+			}
+			return index;
+		}
+	}
+
+	public static void clear(Document doc) {
+		synchronized (doc) {
+			DocumentCache.remove(doc, INDEX);
+		}
+	}
+
+	private static Map<Node, Integer> build(Document doc) {
+		Map<Node, Integer> index = new IdentityHashMap<Node, Integer>();
+		int count = 0;
+
+		Node node = doc;
+		while (node != null) {
+			index.put(node, count++);
+
+			NamedNodeMap attrs = node.getAttributes();
+			if (attrs != null) {
+				for (int i = 0; i < attrs.getLength(); i++) {
+					index.put(attrs.item(i), count++);
+				}
+			}
+
+			Node next = node.getFirstChild();
+			while (next == null && node != null) {
+				next = node.getNextSibling();
+				if (next == null) node = node.getParentNode();
+			}
+			node = next;
+		}
+		return index;
+	}
+
+	private DocumentOrder() {
+	}
+}
@@ -0,0 +1,107 @@
+package net.arnx.xmlic.internal.util;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LRUCache<K, V> implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final LinkedHashMap<K, V> map;
+	private volatile int maxSize;
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	public LRUCache(int maxSize) {
+		if (maxSize < 0) throw new IllegalArgumentException("maxSize must not be negative: " + maxSize);
+
+		this.maxSize = maxSize;
+		this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				if (size() > LRUCache.this.maxSize) {
+					evictionCount.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	public V get(K key) {
+		if (maxSize == 0) {
+			missCount.incrementAndGet();
+			return null;
+		}
+
+		V value;
+		synchronized (map) {
+			value = map.get(key);
+		}
+		if (value != null) {
+			hitCount.incrementAndGet();
+		} else {
+			missCount.incrementAndGet();
+		}
+		return value;
+	}
+
+	public void put(K key, V value) {
+		if (maxSize == 0) return;
+
+		synchronized (map) {
+			map.put(key, value);
+		}
+	}
+
+	public void clear() {
+		synchronized (map) {
+			map.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (map) {
+			return map.size();
+		}
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public void setMaxSize(int maxSize) {
+		if (maxSize < 0) throw new IllegalArgumentException("maxSize must not be negative: " + maxSize);
+
+		synchronized (map) {
+			this.maxSize = maxSize;
+			int count = map.size() - maxSize;
+			if (count > 0) {
+				Iterator<K> i = map.keySet().iterator();
+				for (; count > 0 && i.hasNext(); count--) {
+					i.next();
+					i.remove();
+					evictionCount.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+}
@@ -0,0 +1,117 @@
+package net.arnx.xmlic.internal.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+
+/**
+ * A simple location path for streaming: element names separated by / or //.
+ *
+ * A prefix is resolved by the namespace mappings of a context, and an unprefixed name 
+ * uses the mapping of the default prefix, as XPath expressions of xmlic do.
+ */
+public class StreamPath {
+	private static final Pattern STEP = Pattern.compile("\\*|([^\\s/:\\[\\]()@*|=]+:)?([^\\s/:\\[\\]()@*|=]+|\\*)");
+
+	public static StreamPath compile(String path) {
+		if (path == null || path.isEmpty()) {
+			throw new IllegalArgumentException("path must not be empty.");
+		}
+
+		List<Step> steps = new ArrayList<Step>();
+		boolean descendant = !path.startsWith("/");
+		int start = 0;
+		if (path.startsWith("//")) {
+			start = 2;
+		} else if (path.startsWith("/")) {
+			start = 1;
+		}
+
+		while (true) {
+			int end = path.indexOf('/', start);
+			String text = (end != -1) ? path.substring(start, end) : path.substring(start);
+			if (!STEP.matcher(text).matches()) {
+				throw new IllegalArgumentException("unsupported path: " + path);
+			}
+			steps.add(new Step(text, descendant));
+			if (end == -1) break;
+
+			descendant = path.startsWith("//", end);
+			start = end + (descendant ? 2 : 1);
+		}
+		return new StreamPath(steps.toArray(new Step[steps.size()]));
+	}
+
+	private final Step[] steps;
+
+	private StreamPath(Step[] steps) {
+		this.steps = steps;
+	}
+
+	/**
+	 * Tests if the innermost element of the stack matches this path.
+	 *
+	 * @param stack the names of the open elements from the root element
+	 * @param xcontext the namespace mappings to resolve prefixes
+	 * @return true if matched
+	 */
+	public boolean matches(List<QName> stack, XmlicContext xcontext) {
+		if (stack.size() < steps.length) return false;
+		return matches(steps.length - 1, stack.size() - 1, stack, xcontext);
+	}
+
+	private boolean matches(int i, int j, List<QName> stack, XmlicContext xcontext) {
+		if (!steps[i].matches(stack.get(j), xcontext)) return false;
+
+		if (i == 0) {
+			return steps[0].descendant || j == 0;
+		} else if (steps[i].descendant) {
+			for (int k = j - 1; k >= i - 1; k--) {
+				if (matches(i - 1, k, stack, xcontext)) return true;
+			}
+			return false;
+		} else {
+			return j > 0 && matches(i - 1, j - 1, stack, xcontext);
+		}
+	}
+
+	private static class Step {
+		final String prefix;
+		final String localName;
+		final boolean descendant;
+
+		public Step(String text, boolean descendant) {
+			int index = text.indexOf(':');
+			if (index != -1) {
+				this.prefix = text.substring(0, index);
+				this.localName = text.substring(index + 1);
+			} else if ("*".equals(text)) {
+				this.prefix = null;
+				this.localName = text;
+			} else {
+				this.prefix = XMLConstants.DEFAULT_NS_PREFIX;
+				this.localName = text;
+			}
+			this.descendant = descendant;
+		}
+
+		public boolean matches(QName name, XmlicContext xcontext) {
+			if (!"*".equals(localName) && !localName.equals(name.getLocalPart())) {
+				return false;
+			}
+			if (prefix == null) {
+				return true;
+			}
+
+			String uri = xcontext.getNamespaceURI(prefix);
+			if (uri == null) {
+				if (!prefix.isEmpty()) return false;
+				uri = XMLConstants.NULL_NS_URI;
+			}
+			return uri.equals(name.getNamespaceURI());
+		}
+	}
+}
@@ -7,10 +7,13 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
@@ -33,7 +36,10 @@ import net.arnx.xmlic.internal.org.jaxen.UnresolvableException;
 import net.arnx.xmlic.internal.org.jaxen.VariableContext;
 import net.arnx.xmlic.internal.org.jaxen.XPath;
 import net.arnx.xmlic.internal.org.jaxen.XPathFunctionContext;
+import net.arnx.xmlic.internal.org.jaxen.dom.DocumentCache;
 import net.arnx.xmlic.internal.org.jaxen.dom.DocumentNavigator;
+import net.arnx.xmlic.internal.org.jaxen.dom.ElementIndex;
+import net.arnx.xmlic.internal.org.jaxen.dom.InScopeNamespaces;
 import net.arnx.xmlic.internal.org.jaxen.function.BooleanFunction;
 import net.arnx.xmlic.internal.org.jaxen.function.NumberFunction;
 import net.arnx.xmlic.internal.org.jaxen.function.StringFunction;
@@ -41,40 +47,92 @@ import net.arnx.xmlic.internal.org.jaxen.pattern.Pattern;
 import net.arnx.xmlic.internal.org.jaxen.pattern.PatternParser;
 import net.arnx.xmlic.internal.org.jaxen.saxpath.SAXPathException;
 
+import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 public class XmlicContext implements Serializable {
 	private static final long serialVersionUID = 1L;
 	public static final String VARIABLE_NAME = "__XML_CONTEXT__";
+	public static final int DEFAULT_CACHE_SIZE = 256;
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 1024;
+	
+	private static final String KEY_INDEXES = XmlicContext.class.getName() + ".keyIndexes";
+	private static final String EXPANDED = XmlicContext.class.getName() + ".expanded";
+	
+	private static final DocumentBuilderPool BUILDER_POOL = createDocumentBuilderPool();
 	
 	private ThreadLocal<Node> current = new ThreadLocal<Node>();
 	
 	private Map<String, Key> keyMap = new ConcurrentHashMap<String, Key>();
+	private volatile long keyVersion = 0;
 	private Map<Node, Map<String, Object>> dataSet = new WeakHashMap<Node, Map<String, Object>>(); 
 	
 	private NamespaceContextImpl nsContext = new NamespaceContextImpl();
 	private VariableContextImpl varContext = new VariableContextImpl();
 	private FunctionContextImpl fnContext = new FunctionContextImpl();
 	
-	private ContextSupport support = new ContextSupport(nsContext, fnContext, varContext, 
-			DocumentNavigator.getInstance());
+	private DocumentNavigator navigator = new DocumentNavigator();
+	private ContextSupport support = new ContextSupport(nsContext, fnContext, varContext, navigator);
+	
+	private LRUCache<XPathKey, XPath> xpathCache = new LRUCache<XPathKey, XPath>(DEFAULT_CACHE_SIZE);
+	private LRUCache<String, NodeMatcher> patternCache = new LRUCache<String, NodeMatcher>(DEFAULT_CACHE_SIZE);
+	
+	private transient volatile ForkJoinPool forkJoinPool;
+	private volatile int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+	private volatile boolean xpathCompilation = false;
+	private volatile long functionVersion = 0;
+	private Map<QName, Function> functions = new LinkedHashMap<QName, Function>();
 	
 	public XmlicContext() {
 	}
 	
-	public static DocumentBuilder getDocumentBuilder() {
+	/**
+	 * Creates a context that has a copy of the namespaces, keys, variables, functions 
+	 * and settings of this context. Later changes to either context don't affect the other.
+	 */
+	public synchronized XmlicContext snapshot() {
+		XmlicContext copy = new XmlicContext();
+		copy.nsContext.nsMap.putAll(nsContext.nsMap);
+		copy.keyMap.putAll(keyMap);
+		copy.varContext.varMap.putAll(varContext.varMap);
+		for (Map.Entry<QName, Function> entry : functions.entrySet()) {
+			QName name = entry.getKey();
+			copy.addFunction(name.getNamespaceURI().isEmpty() ? null : name.getNamespaceURI(), 
+					name.getLocalPart(), entry.getValue());
+		}
+		copy.xpathCompilation = xpathCompilation;
+		copy.setElementIndex(isElementIndex());
+		return copy;
+	}
+	
+	public static DocumentBuilderPool getDocumentBuilderPool() {
+		return BUILDER_POOL;
+	}
+	
+	public static Document newDocument() {
+		DocumentBuilder db;
+		try {
+			db = BUILDER_POOL.acquire();
+		} catch (ParserConfigurationException e) {
+			throw new IllegalStateException(e);
+		}
+		try {
+			return db.newDocument();
+		} finally {
+			BUILDER_POOL.release(db);
+		}
+	}
+	
+	private static DocumentBuilderPool createDocumentBuilderPool() {
 		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
 		dbf.setCoalescing(true);
 		dbf.setNamespaceAware(true);
 		dbf.setExpandEntityReferences(true);
 		dbf.setXIncludeAware(true);
-		try {
-			return dbf.newDocumentBuilder();
-		} catch (ParserConfigurationException e) {
-			throw new IllegalArgumentException(e);
-		}
+		return new DocumentBuilderPool(dbf);
 	}
 	
 	public ContextSupport getContextSupport() {
@@ -89,16 +147,150 @@ public class XmlicContext implements Serializable {
 		
 	}
 	
-	public void addKey(String name, Key key) {
+	public synchronized void addKey(String name, Key key) {
 		keyMap.put(name, key);
+		keyVersion++;
 	}
 	
 	public Key getKey(String name) {
 		return keyMap.get(name);
 	}
 	
-	public void removeKey(String name) {
-		keyMap.remove(name);
+	public synchronized void removeKey(String name) {
+		if (keyMap.remove(name) != null) {
+			keyVersion++;
+		}
+	}
+	
+	public Map<String, List<Object>> getKeyIndex(Object doc, String name) throws JaxenException {
+		Key key = keyMap.get(name);
+		if (key == null) return null;
+		
+		if (!(doc instanceof Document)) {
+			return createKeyIndex(doc, key);
+		}
+		
+		synchronized (doc) {
+			@SuppressWarnings("unchecked")
+			Map<XmlicContext, KeyIndexes> map = (Map<XmlicContext, KeyIndexes>)((Document)doc).getUserData(KEY_INDEXES);
+			if (map == null) {
+				map = new WeakHashMap<XmlicContext, KeyIndexes>();
+				DocumentCache.put((Document)doc, KEY_INDEXES, map);
+			}
+			
+			// the patterns of the keys depend on the namespaces and functions too
+			long nsVersion = nsContext.getVersion();
+			KeyIndexes indexes = map.get(this);
+			if (indexes == null || !indexes.isValid(keyVersion, nsVersion, functionVersion)) {
+				indexes = new KeyIndexes(keyVersion, nsVersion, functionVersion);
+				map.put(this, indexes);
+			}
+			
+			Map<String, List<Object>> index = indexes.get(name);
+			if (index == null) {
+				index = createKeyIndex(doc, key);
+				indexes.put(name, index);
+			}
+			return index;
+		}
+	}
+	
+	private Map<String, List<Object>> createKeyIndex(Object doc, Key key) throws JaxenException {
+		XPath match = compileXPath(key.match, true);
+		XPath use = compileXPath(key.use, false);
+		
+		Map<String, List<Object>> index = new HashMap<String, List<Object>>();
+		for (Object node : match.selectNodes(doc)) {
+			String value = use.stringValueOf(node);
+			List<Object> list = index.get(value);
+			if (list == null) {
+				list = new ArrayList<Object>(1);
+				index.put(value, list);
+			}
+			list.add(node);
+		}
+		return index;
+	}
+	
+	public void modified(Document doc) {
+		synchronized (doc) {
+			DocumentCache.remove(doc, KEY_INDEXES);
+			doc.setUserData(EXPANDED, null, null);
+		}
+		DocumentOrder.clear(doc);
+		InScopeNamespaces.clear(doc);
+		ElementIndex.clear(doc);
+	}
+	
+	public ForkJoinPool getForkJoinPool() {
+		return forkJoinPool;
+	}
+	
+	public void setForkJoinPool(ForkJoinPool pool) {
+		this.forkJoinPool = pool;
+	}
+	
+	public int getParallelThreshold() {
+		return parallelThreshold;
+	}
+	
+	public void setParallelThreshold(int threshold) {
+		if (threshold < 1) throw new IllegalArgumentException("threshold must be positive: " + threshold);
+		this.parallelThreshold = threshold;
+	}
+	
+	public boolean isXPathCompilation() {
+		return xpathCompilation;
+	}
+	
+	public void setXPathCompilation(boolean enabled) {
+		this.xpathCompilation = enabled;
+	}
+	
+	public boolean isElementIndex() {
+		return navigator.isElementIndex();
+	}
+	
+	public void setElementIndex(boolean enabled) {
+		navigator.setElementIndex(enabled);
+	}
+	
+	/**
+	 * Touches every node of the document once, so that a parser that builds nodes lazily
+	 * (like Xerces' deferred DOM) has nothing left to build when several threads read it.
+	 */
+	public void prepareConcurrentAccess(Document doc) {
+		synchronized (doc) {
+			if (doc.getUserData(EXPANDED) != null) return;
+			
+			Node node = doc;
+			while (node != null) {
+				node.getNodeName();
+				node.getNodeValue();
+				node.getNamespaceURI();
+				node.getLocalName();
+				
+				NamedNodeMap attrs = node.getAttributes();
+				if (attrs != null) {
+					for (int i = 0; i < attrs.getLength(); i++) {
+						Node attr = attrs.item(i);
+						attr.getNodeName();
+						attr.getNodeValue();
+						attr.getNamespaceURI();
+						attr.getLocalName();
+						attr.getFirstChild();
+					}
+				}
+				
+				Node next = node.getFirstChild();
+				while (next == null && node != null) {
+					next = node.getNextSibling();
+					if (next == null) node = node.getParentNode();
+				}
+				node = next;
+			}
+			doc.setUserData(EXPANDED, Boolean.TRUE, null);
+		}
 	}
 	
 	public void addData(Node node, String name, Object value) {
@@ -222,10 +414,12 @@ public class XmlicContext implements Serializable {
 	
 	public void addNamespace(String prefix, String namespaceURI) {
 		nsContext.addNamespace(prefix, namespaceURI);
+		patternCache.clear();
 	}
 	
 	public void removeNamespace(String prefix) {
 		nsContext.removeNamespace(prefix);
+		patternCache.clear();
 	}
 	
 	public String getNamespaceURI(String prefix) {
@@ -240,6 +434,10 @@ public class XmlicContext implements Serializable {
 		return nsContext.getPrefixes();
 	}
 	
+	public long getNamespaceVersion() {
+		return nsContext.getVersion();
+	}
+	
 	public void addVariable(String namespaceURI, String localName, Object value) {
 		varContext.addVariable(namespaceURI, localName, value);
 	}
@@ -252,8 +450,14 @@ public class XmlicContext implements Serializable {
 		}
 	}
 	
-	public void addFunction(String namespaceURI, String localName, Function function) {
+	public synchronized void addFunction(String namespaceURI, String localName, Function function) {
 		fnContext.registerFunction(namespaceURI, localName, function);
+		functions.put(new QName(namespaceURI, localName), function);
+		functionVersion++;
+	}
+	
+	public long getFunctionVersion() {
+		return functionVersion;
 	}
 	
 	public Function getFunction(String namespaceURI, String localName) {
@@ -265,8 +469,20 @@ public class XmlicContext implements Serializable {
 	}
 	
 	public NodeMatcher compileXPathPattern(String text) {
+		NodeMatcher matcher = patternCache.get(text);
+		if (matcher == null) {
+			matcher = createNodeMatcher(text);
+			patternCache.put(text, matcher);
+		}
+		return matcher;
+	}
+	
+	public LRUCache<?, ?> getPatternCache() {
+		return patternCache;
+	}
+	
+	private NodeMatcher createNodeMatcher(String text) {
 		final Pattern pattern;
-		final Context context = new Context(support);
 		try {
 			pattern = PatternParser.parse(text);
 		} catch (net.arnx.xmlic.internal.org.jaxen.XPathSyntaxException e) {
@@ -309,7 +525,7 @@ public class XmlicContext implements Serializable {
 			@Override
 			public boolean match(Node node) {
 				try {
-					return pattern.matches(node, context);
+					return pattern.matches(node, new Context(support));
 				} catch (JaxenException e) {
 					throw new IllegalStateException(e);
 				}
@@ -318,15 +534,52 @@ public class XmlicContext implements Serializable {
 	}
 	
 	public XPath compileXPath(String text, boolean pattern) {
-		return  new XmlicXPath(this, text, pattern);
+		XPathKey key = new XPathKey(text, pattern, nsContext.getVersion());
+		XPath xpath = xpathCache.get(key);
+		if (xpath == null) {
+			xpath = new XmlicXPath(this, text, pattern);
+			xpathCache.put(key, xpath);
+		}
+		return xpath;
+	}
+	
+	public LRUCache<?, ?> getXPathCache() {
+		return xpathCache;
+	}
+	
+	/**
+	 * Creates a variable context that resolves the specified variables first 
+	 * and the variables of this context next.
+	 * 
+	 * @param variables the values of variables. may be null.
+	 * @return a variable context
+	 */
+	public VariableContext bind(Map<QName, ?> variables) {
+		if (variables == null || variables.isEmpty()) {
+			return varContext;
+		}
+		return new VariableBindings(variables);
 	}
 	
-	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public <T> T evaluate(XML owner, XPath xpath, Node node, Class<T> cls) {
+		return evaluate(owner, xpath, node, varContext, cls);
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public <T> T evaluate(XML owner, XPath xpath, Node node, VariableContext variables, Class<T> cls) {
 		try {
 			current.set(node);
 			
-			List result = xpath.selectNodes(node);
+			if ((cls.equals(Boolean.class) || cls.equals(boolean.class)) && xpath instanceof XmlicXPath) {
+				// a node-set is true if it is not empty, so stop at the first node
+				Iterator<?> i = ((XmlicXPath)xpath).iterate(toContext(xpath, node, variables));
+				if (i != null) {
+					boolean exists = XmlicXPath.hasNext(i);
+					return (exists || cls.isPrimitive()) ? (T)Boolean.valueOf(exists) : null;
+				}
+			}
+			
+			List result = xpath.selectNodes(toContext(xpath, node, variables));
 			if (cls.equals(Object.class)) {
 				return (T)result;
 			} if (!cls.isPrimitive() 
@@ -403,6 +656,63 @@ public class XmlicContext implements Serializable {
 		}
 	}
 	
+	public Node selectFirst(XPath xpath, Node node) {
+		return selectFirst(xpath, node, varContext);
+	}
+	
+	public Node selectFirst(XPath xpath, Node node, VariableContext variables) {
+		try {
+			current.set(node);
+			
+			Object result;
+			Iterator<?> i = (xpath instanceof XmlicXPath) ? ((XmlicXPath)xpath).iterate(toContext(xpath, node, variables)) : null;
+			if (i != null) {
+				result = XmlicXPath.hasNext(i) ? i.next() : null;
+			} else {
+				List<?> list = xpath.selectNodes(toContext(xpath, node, variables));
+				result = !list.isEmpty() ? list.get(0) : null;
+			}
+			
+			if (result != null && !(result instanceof Node)) {
+				throw new UnsupportedOperationException("result is not Node: " + result.getClass().getName());
+			}
+			return (Node)result;
+		} catch (net.arnx.xmlic.internal.org.jaxen.XPathSyntaxException e) {
+			throw new XPathSyntaxException(e.getXPath(), e.getPosition(), e.getMultilineMessage(), e);
+		} catch (JaxenException e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		} finally {
+			current.remove();
+		}
+	}
+	
+	private Object toContext(XPath xpath, Node node, VariableContext variables) {
+		if (variables == varContext || !(xpath instanceof XmlicXPath)) {
+			return node;
+		}
+		return ((XmlicXPath)xpath).getContext(node, variables);
+	}
+	
+	private static class KeyIndexes extends HashMap<String, Map<String, List<Object>>> {
+		private static final long serialVersionUID = 1L;
+		
+		final long version;
+		final long nsVersion;
+		final long fnVersion;
+		
+		public KeyIndexes(long version, long nsVersion, long fnVersion) {
+			this.version = version;
+			this.nsVersion = nsVersion;
+			this.fnVersion = fnVersion;
+		}
+		
+		boolean isValid(long version, long nsVersion, long fnVersion) {
+			return this.version == version 
+					&& this.nsVersion == nsVersion 
+					&& this.fnVersion == fnVersion;
+		}
+	}
+	
 	public static class Key {
 		public final String match;
 		public final String use;
@@ -413,17 +723,58 @@ public class XmlicContext implements Serializable {
 		}
 	}
 	
+	private static class XPathKey implements Serializable {
+		private static final long serialVersionUID = 1L;
+		
+		private final String text;
+		private final boolean pattern;
+		private final long version;
+		
+		public XPathKey(String text, boolean pattern, long version) {
+			this.text = text;
+			this.pattern = pattern;
+			this.version = version;
+		}
+		
+		@Override
+		public int hashCode() {
+			int result = text.hashCode();
+			result = 31 * result + (pattern ? 1 : 0);
+			result = 31 * result + (int)(version ^ (version >>> 32));
+			return result;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof XPathKey)) return false;
+			
+			XPathKey other = (XPathKey)obj;
+			return text.equals(other.text) 
+					&& pattern == other.pattern 
+					&& version == other.version;
+		}
+	}
+	
 	private class NamespaceContextImpl implements NamespaceContext {
 		private Map<String, String> nsMap = new ConcurrentHashMap<String, String>();
+		private volatile long version = 0;
 		
-		public void addNamespace(String prefix, String namespaceURI) {
+		public synchronized void addNamespace(String prefix, String namespaceURI) {
 			if (prefix == null) throw new NullPointerException("prefix must not be null.");
 			if (namespaceURI == null) throw new NullPointerException("namespaceURI must not be null.");
 			nsMap.put(prefix, namespaceURI);
+			version++;
 		}
 		
-		public void removeNamespace(String prefix) {
-			nsMap.remove(prefix);
+		public synchronized void removeNamespace(String prefix) {
+			if (nsMap.remove(prefix) != null) {
+				version++;
+			}
+		}
+		
+		public long getVersion() {
+			return version;
 		}
 		
 		public String getPrefix(String namespaceURI) {
@@ -483,6 +834,36 @@ public class XmlicContext implements Serializable {
 		}
 	}
 	
+	/**
+	 * Variables bound for one call. Numbers are converted to Double and a node 
+	 * to a node-set, because XPath functions only know those types.
+	 */
+	private class VariableBindings implements VariableContext {
+		private Map<QName, Object> varMap;
+		
+		public VariableBindings(Map<QName, ?> variables) {
+			varMap = new HashMap<QName, Object>(variables.size() * 4 / 3 + 1);
+			for (Map.Entry<QName, ?> entry : variables.entrySet()) {
+				Object value = entry.getValue();
+				if (value instanceof Number && !(value instanceof Double)) {
+					value = ((Number)value).doubleValue();
+				} else if (value instanceof Node) {
+					value = Collections.singletonList(value);
+				}
+				varMap.put(entry.getKey(), value);
+			}
+		}
+		
+		@Override
+		public Object getVariableValue(String namespaceURI, String prefix, String localName) throws UnresolvableException {
+			QName name = new QName(namespaceURI, localName);
+			if (varMap.containsKey(name)) {
+				return varMap.get(name);
+			}
+			return varContext.getVariableValue(namespaceURI, prefix, localName);
+		}
+	}
+	
 	private class FunctionContextImpl extends XPathFunctionContext {
 		public FunctionContextImpl() {
 			super(false);
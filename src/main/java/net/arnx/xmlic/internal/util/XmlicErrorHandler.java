@@ -18,6 +18,17 @@ import org.xml.sax.SAXParseException;
 public class XmlicErrorHandler implements ErrorHandler, ErrorListener {
 	private List<XMLException.Detail> warnings = new ArrayList<XMLException.Detail>(1);
 	private List<XMLException.Detail> errors = new ArrayList<XMLException.Detail>(1);
+	private ErrorListener listener;
+	
+	public XmlicErrorHandler() {
+	}
+	
+	/**
+	 * Creates a handler that also reports transformation errors to the specified listener.
+	 */
+	public XmlicErrorHandler(ErrorListener listener) {
+		this.listener = listener;
+	}
 	
 	@Override
 	public void warning(SAXParseException e) throws SAXException {
@@ -43,6 +54,7 @@ public class XmlicErrorHandler implements ErrorHandler, ErrorListener {
 		int line = (e.getLocator() != null) ? e.getLocator().getLineNumber() : -1;
 		int column = (e.getLocator() != null) ? e.getLocator().getColumnNumber() : -1;
 		warnings.add(new XMLException.Detail(line, column, e.getMessage(), e));
+		if (listener != null) listener.warning(e);
 	}
 	
 	@Override
@@ -50,10 +62,12 @@ public class XmlicErrorHandler implements ErrorHandler, ErrorListener {
 		int line = (e.getLocator() != null) ? e.getLocator().getLineNumber() : -1;
 		int column = (e.getLocator() != null) ? e.getLocator().getColumnNumber() : -1;
 		errors.add(new XMLException.Detail(line, column, e.getMessage(), e));
+		if (listener != null) listener.error(e);
 	}
 	
 	@Override
 	public void fatalError(TransformerException e) throws TransformerException {
+		if (listener != null) listener.fatalError(e);
 		throw e;
 	}
 	
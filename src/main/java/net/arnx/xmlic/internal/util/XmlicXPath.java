@@ -1,19 +1,25 @@
 package net.arnx.xmlic.internal.util;
 
 import java.io.Serializable;
+import java.util.Iterator;
 import java.util.List;
 
 import net.arnx.xmlic.XPathSyntaxException;
 import net.arnx.xmlic.internal.org.jaxen.Context;
+import net.arnx.xmlic.internal.org.jaxen.ContextSupport;
 import net.arnx.xmlic.internal.org.jaxen.FunctionContext;
 import net.arnx.xmlic.internal.org.jaxen.JaxenException;
 import net.arnx.xmlic.internal.org.jaxen.JaxenHandler;
+import net.arnx.xmlic.internal.org.jaxen.JaxenRuntimeException;
 import net.arnx.xmlic.internal.org.jaxen.NamespaceContext;
 import net.arnx.xmlic.internal.org.jaxen.Navigator;
 import net.arnx.xmlic.internal.org.jaxen.VariableContext;
 import net.arnx.xmlic.internal.org.jaxen.XPath;
 import net.arnx.xmlic.internal.org.jaxen.dom.DocumentNavigator;
+import net.arnx.xmlic.internal.org.jaxen.expr.Evaluator;
 import net.arnx.xmlic.internal.org.jaxen.expr.Expr;
+import net.arnx.xmlic.internal.org.jaxen.expr.ExprCompiler;
+import net.arnx.xmlic.internal.org.jaxen.expr.ExprOptimizer;
 import net.arnx.xmlic.internal.org.jaxen.expr.FilterExpr;
 import net.arnx.xmlic.internal.org.jaxen.expr.FunctionCallExpr;
 import net.arnx.xmlic.internal.org.jaxen.expr.LocationPath;
@@ -35,12 +41,22 @@ public class XmlicXPath implements XPath, Serializable {
 	
 	private final XmlicContext xcontext;
 	
-	private final XPathExpr xpath;
+	private final String xpathExpr;
+	
+	private final boolean pattern;
+	
+	private final String source;
 
 	private Navigator navigator;
 	
+	private transient XPathExpr parsed;
+	
+	private transient volatile Compiled compiled;
+	
 	public XmlicXPath(XmlicContext xcontext, String xpathExpr, boolean pattern) {
 		this.xcontext = xcontext;
+		this.xpathExpr = xpathExpr;
+		this.pattern = pattern;
 		this.navigator = new DocumentNavigator() {
 			private static final long serialVersionUID = 1L;
 			
@@ -50,16 +66,22 @@ public class XmlicXPath implements XPath, Serializable {
 			}
 		};
 		
+		this.parsed = parse();
+		this.source = parsed.getText();
+	}
+	
+	private XPathExpr parse() {
 		try {
 			XPathReader reader = XPathReaderFactory.createReader();
 			JaxenHandler handler = new JaxenHandler();
 			reader.setXPathHandler(handler);
 			reader.parse(xpathExpr);
-			this.xpath = handler.getXPathExpr();
+			XPathExpr xpath = handler.getXPathExpr();
 			
 			if (pattern) {
-				this.xpath.setRootExpr(convertExpr(handler.getXPathFactory(), this.xpath.getRootExpr()));
+				xpath.setRootExpr(convertExpr(handler.getXPathFactory(), xpath.getRootExpr()));
 			}
+			return xpath;
 		} catch (net.arnx.xmlic.internal.org.jaxen.saxpath.XPathSyntaxException e) {
 			throw new XPathSyntaxException(e.getXPath(), e.getPosition(), e.getMultilineMessage(), e);
 		} catch (SAXPathException e) {
@@ -84,15 +106,57 @@ public class XmlicXPath implements XPath, Serializable {
 
 	@Override
 	public List<?> selectNodes(Object node) throws JaxenException {
-		return xpath.asList(getContext(node));
+		Evaluator evaluator = getEvaluator();
+		if (evaluator != null) {
+			return evaluator.evaluateList(getContext(node));
+		}
+		return getXPathExpr().asList(getContext(node));
 	}
 
 	@Override
 	public Object selectSingleNode(Object node) throws JaxenException {
+		Iterator<?> i = iterate(node);
+		if (i != null) {
+			return hasNext(i) ? i.next() : null;
+		}
+		
 		List<?> results = selectNodes(node);
 		return !results.isEmpty() ? results.get(0) : null;
 	}
 	
+	/**
+	 * Returns an iterator that selects nodes in document order on demand, 
+	 * or null if this expression can't be evaluated lazily.
+	 * 
+	 * @param node a context node
+	 * @return an iterator or null
+	 * @throws JaxenException if the evaluation can't start
+	 */
+	@SuppressWarnings("deprecation")
+	public Iterator<?> iterate(Object node) throws JaxenException {
+		// DefaultExpr is deprecated only to hide it from jaxen's users, so it isn't imported
+		return net.arnx.xmlic.internal.org.jaxen.expr.DefaultExpr.iterate(getXPathExpr().getRootExpr(), getContext(node));
+	}
+	
+	/**
+	 * Tests if an iterator from {@link #iterate(Object)} has a next node.
+	 * 
+	 * @param i an iterator
+	 * @return true if the iterator has a next node
+	 * @throws JaxenException if the evaluation fails
+	 */
+	public static boolean hasNext(Iterator<?> i) throws JaxenException {
+		try {
+			return i.hasNext();
+		} catch (JaxenRuntimeException e) {
+			if (e.getCause() instanceof JaxenException) {
+				throw (JaxenException)e.getCause();
+			}
+			throw e;
+		}
+	}
+	
+	@SuppressWarnings("deprecation")
 	@Override
 	public String valueOf(Object node) throws JaxenException {
 		return stringValueOf(node);
@@ -101,21 +165,36 @@ public class XmlicXPath implements XPath, Serializable {
 	@Override
 	public String stringValueOf(Object node) throws JaxenException {
 		Context context = getContext(node);
-		List<?> result = xpath.asList(context);
+		Evaluator evaluator = getEvaluator();
+		if (evaluator != null) {
+			return evaluator.evaluateString(context);
+		}
+		List<?> result = getXPathExpr().asList(context);
 	   	return StringFunction.evaluate(result, context.getNavigator());
 	}
 
 	@Override
 	public boolean booleanValueOf(Object node) throws JaxenException {
+		Evaluator evaluator = getEvaluator();
+		if (evaluator != null) {
+			return evaluator.evaluateBoolean(getContext(node));
+		}
+		
+		Iterator<?> i = iterate(node);
+		if (i != null) {
+			return hasNext(i);
+		}
+		
 		Context context = getContext(node);
-		List<?> result = xpath.asList(context);
+		List<?> result = getXPathExpr().asList(context);
 		return BooleanFunction.evaluate(result, context.getNavigator()).booleanValue();
 	}
 
 	@Override
 	public Number numberValueOf(Object node) throws JaxenException {
 		Context context = getContext(node);
-		List<?> result = xpath.asList(context);
+		Evaluator evaluator = getEvaluator();
+		List<?> result = (evaluator != null) ? evaluator.evaluateList(context) : getXPathExpr().asList(context);
 		return NumberFunction.evaluate(result, context.getNavigator());
 	}
 
@@ -159,12 +238,79 @@ public class XmlicXPath implements XPath, Serializable {
 		return navigator;
 	}
 	
+	/**
+	 * Returns the compiled form of this expression if the compilation is enabled.
+	 * 
+	 * @return an evaluator or null
+	 */
+	public Evaluator getEvaluator() {
+		if (!xcontext.isXPathCompilation()) {
+			return null;
+		}
+		return getCompiled(true).evaluator;
+	}
+	
+	/**
+	 * Returns the text of this expression after the optimization.
+	 * 
+	 * @return the optimized expression
+	 */
+	public String getText() {
+		return getXPathExpr().getText();
+	}
+	
+	private XPathExpr getXPathExpr() {
+		return getCompiled(false).xpath;
+	}
+	
+	/**
+	 * Returns the optimized form of this expression. It is optimized and compiled 
+	 * again when a namespace or a function is registered, because both are 
+	 * resolved at that time.
+	 */
+	private Compiled getCompiled(boolean compilation) {
+		long nsVersion = xcontext.getNamespaceVersion();
+		long fnVersion = xcontext.getFunctionVersion();
+		Compiled current = compiled;
+		if (current != null && current.isValid(nsVersion, fnVersion, compilation)) {
+			return current;
+		}
+		
+		synchronized (this) {
+			current = compiled;
+			if (current == null || !current.isValid(nsVersion, fnVersion, compilation)) {
+				// the first tree is optimized in place, the others are parsed again
+				XPathExpr xpath = (parsed != null) ? parsed : parse();
+				parsed = null;
+				
+				ContextSupport support = xcontext.getContextSupport();
+				xpath.setRootExpr(ExprOptimizer.optimize(xpath.getRootExpr(), support));
+				Evaluator evaluator = compilation ? ExprCompiler.compile(xpath.getRootExpr(), support) : null;
+				current = new Compiled(nsVersion, fnVersion, xpath, evaluator);
+				compiled = current;
+			}
+			return current;
+		}
+	}
+	
 	protected Context getContext(Object node) {
 		if (node instanceof Context) {
 			return (Context)node;
 		}
-
-		Context context = new Context(xcontext.getContextSupport());
+		return getContext(node, xcontext.getContextSupport().getVariableContext());
+	}
+	
+	/**
+	 * Returns a context for one evaluation that resolves variables with the specified 
+	 * variable context. It can be passed to the evaluation methods in place of the node.
+	 * 
+	 * @param node a context node
+	 * @param variables a variable context
+	 * @return a new context
+	 */
+	public Context getContext(Object node, VariableContext variables) {
+		// a support for each evaluation caches the values that don't depend on the context node
+		Context context = new Context(xcontext.getContextSupport().forEvaluation(variables));
 		if (node instanceof List) {
 			context.setNodeSet((List<?>)node);
 		} else {
@@ -238,6 +384,25 @@ public class XmlicXPath implements XPath, Serializable {
 	
 	@Override
 	public String toString() {
-		return "XmlicXPath [xpath=" + xpath.getText() + "]";
+		return "XmlicXPath [xpath=" + source + "]";
+	}
+	
+	private static class Compiled {
+		final long nsVersion;
+		final long fnVersion;
+		final XPathExpr xpath;
+		final Evaluator evaluator;
+		
+		Compiled(long nsVersion, long fnVersion, XPathExpr xpath, Evaluator evaluator) {
+			this.nsVersion = nsVersion;
+			this.fnVersion = fnVersion;
+			this.xpath = xpath;
+			this.evaluator = evaluator;
+		}
+		
+		boolean isValid(long nsVersion, long fnVersion, boolean compilation) {
+			return this.nsVersion == nsVersion && this.fnVersion == fnVersion
+					&& (evaluator != null || !compilation);
+		}
 	}
 }
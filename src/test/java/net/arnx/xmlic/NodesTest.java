@@ -3,10 +3,13 @@ package net.arnx.xmlic;
 import static org.junit.Assert.*;
 
 import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Test;
+import org.w3c.dom.Element;
 
 public class NodesTest {
 	@Test
@@ -200,6 +203,96 @@ public class NodesTest {
 		assertEquals("", xml.find("//div").find(".//body").toString());
 	}
 
+	@Test
+	public void testParallel() throws IOException {
+		StringBuilder sb = new StringBuilder("<root>");
+		for (int i = 0; i < 500; i++) {
+			sb.append("<item id='").append(i).append("'><a>").append(i).append("</a><b/></item>");
+		}
+		sb.append("</root>");
+		XML xml = XML.load(new StringReader(sb.toString()));
+		
+		Nodes items = xml.find("item");
+		String expectedFind = items.find("a").toString();
+		String expectedSelect = items.select("../item[@id mod 7 = 0]/a/text()").toString();
+		
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			xml.setForkJoinPool(pool).setParallelThreshold(10);
+			assertEquals(500, items.find("a").size());
+			assertEquals(expectedFind, items.find("a").toString());
+			assertEquals(expectedSelect, items.select("../item[@id mod 7 = 0]/a/text()").toString());
+			assertEquals(expectedFind, xml.find("item").find("a").toString());
+		} finally {
+			xml.setForkJoinPool(null);
+			pool.shutdown();
+		}
+	}
+	
+	@Test
+	public void testSort() throws IOException {
+		StringBuilder sb = new StringBuilder("<root>");
+		for (int i = 0; i < 100; i++) {
+			sb.append("<item id='").append(i).append("'/>");
+		}
+		sb.append("</root>");
+		XML xml = XML.load(new StringReader(sb.toString()));
+		
+		Nodes items = xml.find("item");
+		Nodes nodes = new Nodes(xml);
+		for (int i = items.size() - 1; i >= 0; i--) {
+			nodes.add(items.get(i));
+			nodes.add(items.get(i).getAttributes().item(0));
+		}
+		nodes.add(items.get(50));
+		nodes.add(xml.get());
+		Nodes.unique(nodes);
+		assertEquals(201, nodes.size());
+		assertEquals(xml.get(), nodes.get(0));
+		for (int i = 0; i < 100; i++) {
+			assertEquals(items.get(i), nodes.get(i * 2 + 1));
+			assertEquals(items.get(i).getAttributes().item(0), nodes.get(i * 2 + 2));
+		}
+		
+		Element first = (Element)items.get(0);
+		first.getParentNode().appendChild(first);
+		Nodes.unique(nodes);
+		assertEquals(first, nodes.get(199));
+		
+		xml.find("item[@id='1']").insertAfter("item[@id='2']");
+		Nodes.unique(nodes);
+		assertEquals("2", ((Element)nodes.get(1)).getAttribute("id"));
+		assertEquals("1", ((Element)nodes.get(3)).getAttribute("id"));
+	}
+	
+	@Test
+	public void testSortAfterDirectEdit() throws IOException {
+		StringBuilder sb = new StringBuilder("<root>");
+		for (int i = 0; i < 100; i++) {
+			sb.append("<i n='").append(i).append("'/>");
+		}
+		sb.append("</root>");
+		XML xml = XML.load(new StringReader(sb.toString()));
+		
+		Nodes items = xml.select("//i");
+		assertEquals("0", ((Element)items.get(0)).getAttribute("n"));
+		
+		Element last = (Element)items.get(99);
+		last.getParentNode().insertBefore(last, items.get(0));
+		items = xml.select("//i");
+		assertEquals(100, items.size());
+		assertEquals("99", ((Element)items.get(0)).getAttribute("n"));
+		assertEquals("0", ((Element)items.get(1)).getAttribute("n"));
+		
+		Element added = xml.get().createElement("i");
+		added.setAttribute("n", "100");
+		xml.get().getDocumentElement().insertBefore(added, last);
+		items = xml.select("//i");
+		assertEquals(101, items.size());
+		assertEquals("100", ((Element)items.get(0)).getAttribute("n"));
+		assertEquals("99", ((Element)items.get(1)).getAttribute("n"));
+	}
+	
 	@Test
 	public void testFirst() throws IOException {
 		XML xml = XML.load(getClass().getResource("test.xml"));
@@ -397,6 +490,14 @@ public class NodesTest {
 		XML xml = XML.load(getClass().getResource("test_ns.xml"));
 		assertEquals("<html:body xmlns:html=\"http://www.w3.org/1999/xhtml\" xmlns:svg=\"http://www.w3.org/2000/svg\">\ntop\n<html:div class=\"s1\">\n\t<html:ul class=\"s11\">\n\t\t<html:li>t1</html:li>\n\t\t<html:li>t2</html:li>\n\t\t<html:li>t3</html:li>\n\t</html:ul>\n\t<html:ul class=\"s12\">\n\t\t<html:li>t4</html:li>\n\t\t<html:li>t5</html:li>\n\t\t<html:li>t6</html:li>\n\t</html:ul>\n</html:div>\nmiddle\n<html:div class=\"s2\">\n\tprefix\n\t<html:ul svg:class=\"s21\">\n\t\t<html:li>t7</html:li>\n\t\t<html:li>t8</html:li>\n\t\t<html:li>t9</html:li>\n\t</html:ul>\n\tsuffix\n</html:div>\nbottom\n</html:body>", xml.normalize().toString());
 		assertEquals("<body xmlns:svg=\"http://www.w3.org/2000/svg\">\ntop\n<div class=\"s1\">\n\t<ul class=\"s11\">\n\t\t<li>t1</li>\n\t\t<li>t2</li>\n\t\t<li>t3</li>\n\t</ul>\n\t<ul class=\"s12\">\n\t\t<li>t4</li>\n\t\t<li>t5</li>\n\t\t<li>t6</li>\n\t</ul>\n</div>\nmiddle\n<div class=\"s2\">\n\tprefix\n\t<ul svg:class=\"s21\">\n\t\t<li>t7</li>\n\t\t<li>t8</li>\n\t\t<li>t9</li>\n\t</ul>\n\tsuffix\n</div>\nbottom\n</body>", xml.find("//*").removeNamespace("http://www.w3.org/1999/xhtml").owner().normalize().toString());
+		
+		xml = new XML("<a xmlns='u' xmlns:p='v' xmlns:q='w'><p:b xmlns:p='v' xmlns:r='x'><c xmlns=''/></p:b><d q:e='1'/></a>");
+		assertEquals("<a xmlns=\"u\" xmlns:q=\"w\"><p:b xmlns:p=\"v\"><c xmlns=\"\"/></p:b><d q:e=\"1\"/></a>", xml.normalize().toString());
+		
+		xml = new XML("<a xmlns:p='v'><b xmlns:p='w'><p:c/></b><d xmlns:q='x'/></a>");
+		assertEquals("<d/>", xml.find("d").normalize().toString());
+		assertEquals("<a xmlns:p=\"v\"><b xmlns:p=\"w\"><p:c/></b><d/></a>", xml.toString());
+		assertEquals("<a><b xmlns:p=\"w\"><p:c/></b><d/></a>", xml.normalize().toString());
 	}
 
 	@Test
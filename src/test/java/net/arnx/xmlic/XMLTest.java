@@ -7,7 +7,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.io.StringReader;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.Test;
@@ -42,6 +46,86 @@ public class XMLTest {
 		}
 	}
 	
+	@Test
+	public void testLoader() {
+		XMLLoader loader = new XMLLoader();
+		assertEquals("<a><!--c--></a>", loader.load(new StringReader("<a><!--c--></a>")).toString());
+		assertEquals("<b><!--c--></b>", loader.load(new StringReader("<b><!--c--></b>")).toString());
+		assertEquals(1, loader.getDocumentBuilderPool().size());
+		
+		loader.setIgnoringComments(true);
+		assertEquals("<a/>", loader.load(new StringReader("<a><!--c--></a>")).toString());
+		
+		try {
+			loader.load(new StringReader("<a>"));
+			fail();
+		} catch (XMLException e) {
+			// no handle
+		}
+		assertEquals("<b/>", loader.load(new StringReader("<b><!--c--></b>")).toString());
+		assertEquals(1, loader.getDocumentBuilderPool().size());
+	}
+	
+	@Test
+	public void testStream() throws Exception {
+		XMLLoader loader = new XMLLoader();
+		
+		final List<String> texts = new ArrayList<String>();
+		final List<Boolean> lasts = new ArrayList<Boolean>();
+		loader.stream(getClass().getResource("test_ns.xml").toURI(), "html:ul", new Visitor<Nodes>() {
+			@Override
+			public void visit(Nodes current, Status status) {
+				assertEquals(3, current.find("html:li").size());
+				assertEquals(current.get(0), current.owner().get().getDocumentElement());
+				texts.add(current.find("html:li").first().text());
+				lasts.add(status.isLast());
+			}
+		});
+		assertEquals(Arrays.asList("t1", "t4", "t7"), texts);
+		assertEquals(Arrays.asList(false, false, true), lasts);
+		
+		texts.clear();
+		loader.stream(getClass().getResourceAsStream("test_ns.xml"), "/html:body/html:div//html:li", new Visitor<Nodes>() {
+			@Override
+			public void visit(Nodes current, Status status) {
+				texts.add(current.text());
+				if (status.getIndex() == 4) status.cancel();
+			}
+		});
+		assertEquals(Arrays.asList("t1", "t2", "t3", "t4", "t5"), texts);
+		
+		texts.clear();
+		loader.stream(new StringReader("<a xmlns='http://test'><b>1<![CDATA[2]]></b><c><b>3</b></c><!--x--><b>4</b></a>"), "/a/b", new Visitor<Nodes>() {
+			@Override
+			public void visit(Nodes current, Status status) {
+				texts.add(current.toString());
+			}
+		});
+		assertEquals(Arrays.asList("<b xmlns=\"http://test\">1<![CDATA[2]]></b>", "<b xmlns=\"http://test\">4</b>"), texts);
+		
+		String text = "<r xmlns:a='urn:1'><x xmlns:a='urn:2'><a:item>1</a:item></x><a:item>2</a:item></r>";
+		assertEquals(1, new XML(text).find("a:item").size());
+		texts.clear();
+		loader.stream(new StringReader(text), "a:item", new Visitor<Nodes>() {
+			@Override
+			public void visit(Nodes current, Status status) {
+				texts.add(current.text());
+			}
+		});
+		assertEquals(Arrays.asList("2"), texts);
+		
+		try {
+			loader.stream(new StringReader("<a><b></a>"), "b", new Visitor<Nodes>() {
+				@Override
+				public void visit(Nodes current, Status status) {
+				}
+			});
+			fail();
+		} catch (XMLException e) {
+			assertEquals(1, e.getErrors().size());
+		}
+	}
+	
 	@Test
 	public void testExtendedFunction() {
 		XML xml = XML.load(getClass().getResource("test_ns.xml"));
@@ -50,6 +134,75 @@ public class XMLTest {
 
 		xml.addKey("class-id", "*[@class]", "@class");
 		assertEquals("<html:ul xmlns:html=\"http://www.w3.org/1999/xhtml\" class=\"s11\">\n\t\t<html:li>t1</html:li>\n\t\t<html:li>t2</html:li>\n\t\t<html:li>t3</html:li>\n\t</html:ul>", xml.find("key('class-id', 's11')").toString());
+
+		xml.find("key('class-id', 's11')").attr("class", "s13");
+		assertEquals(0, xml.find("key('class-id', 's11')").size());
+		assertEquals(1, xml.find("key('class-id', 's13')").size());
+		
+		((org.w3c.dom.Element)xml.find("key('class-id', 's13')").get(0)).setAttribute("class", "s14");
+		assertEquals(0, xml.find("key('class-id', 's13')").size());
+		assertEquals(1, xml.find("key('class-id', 's14')").size());
+		
+		xml.addKey("class-id", "html:li", "text()");
+		assertEquals("<html:li xmlns:html=\"http://www.w3.org/1999/xhtml\">t5</html:li>", xml.find("key('class-id', 't5')").toString());
+		
+		xml.removeKey("class-id");
+		try {
+			xml.find("key('class-id', 't5')");
+			fail();
+		} catch (IllegalStateException e) {
+			// no handle
+		}
+	}
+	
+	@Test
+	public void testKeyWithNamespaceMapping() {
+		XML xml = XML.load(getClass().getResource("test_ns.xml"));
+		xml.addNamespaceMapping("x", "http://www.w3.org/1999/xhtml");
+		xml.addKey("item", "x:li", "text()");
+		assertEquals(1, xml.find("key('item', 't5')").size());
+		
+		xml.addNamespaceMapping("x", "http://www.w3.org/2000/svg");
+		assertEquals(0, xml.find("key('item', 't5')").size());
+		
+		xml.addNamespaceMapping("x", "http://www.w3.org/1999/xhtml");
+		assertEquals(1, xml.find("key('item', 't5')").size());
+	}
+	
+	@Test
+	public void testKeyAfterCrossDocumentChange() {
+		XML x1 = new XML("<items><item id='k2'/></items>");
+		
+		XML x2 = keyTarget();
+		x1.find("item").appendTo(x2.find("/root"));
+		assertEquals(1, x2.find("key('byid', 'k2')").size());
+		
+		x2 = keyTarget();
+		x1.find("item").prependTo(x2.find("/root"));
+		assertEquals(1, x2.find("key('byid', 'k2')").size());
+		
+		x2 = keyTarget();
+		x1.find("item").insertBefore(x2.find("item"));
+		assertEquals(1, x2.find("key('byid', 'k2')").size());
+		
+		x2 = keyTarget();
+		x1.find("item").insertAfter(x2.find("item"));
+		assertEquals(1, x2.find("key('byid', 'k2')").size());
+		
+		x2 = keyTarget();
+		x1.find("item").replaceAll(x2.find("item"));
+		assertEquals(1, x2.find("key('byid', 'k2')").size());
+		assertEquals(0, x2.find("key('byid', 'k1')").size());
+		
+		assertEquals(1, x1.find("item").size());
+	}
+	
+	private static XML keyTarget() {
+		XML xml = new XML("<root><item id='k1'/></root>");
+		xml.addKey("byid", "item", "@id");
+		assertEquals(1, xml.find("key('byid', 'k1')").size());
+		assertEquals(0, xml.find("key('byid', 'k2')").size());
+		return xml;
 	}
 	
 	@Test
@@ -73,6 +226,51 @@ public class XMLTest {
 		assertEquals(15, xml.find("*").size());
 	}
 	
+	@Test
+	public void testXPathCache() {
+		XML xml = XML.load(getClass().getResource("test.xml"));
+		
+		assertEquals(3, xml.select("//ul[@class='s11']/li").size());
+		assertEquals(3, xml.select("//ul[@class='s11']/li").size());
+		CacheStatistics stats = xml.getXPathCacheStatistics();
+		assertEquals(1, stats.getSize());
+		assertEquals(1, stats.getHitCount());
+		assertEquals(1, stats.getMissCount());
+		
+		xml.addNamespaceMapping("x", "http://test");
+		assertEquals(3, xml.select("//ul[@class='s11']/li").size());
+		assertEquals(2, xml.getXPathCacheStatistics().getMissCount());
+		
+		xml.setXPathCacheSize(1);
+		assertEquals(1, xml.select("//ul[@class='s21']").size());
+		stats = xml.getXPathCacheStatistics();
+		assertEquals(1, stats.getSize());
+		assertEquals(2, stats.getEvictionCount());
+		
+		xml.setXPathCacheSize(0);
+		assertEquals(1, xml.select("//ul[@class='s21']").size());
+		assertEquals(1, xml.select("//ul[@class='s21']").size());
+		stats = xml.getXPathCacheStatistics();
+		assertEquals(0, stats.getSize());
+		assertEquals(1, stats.getHitCount());
+	}
+	
+	@Test
+	public void testPatternCache() {
+		XML xml = XML.load(getClass().getResource("test_ns2.xml"));
+		
+		Nodes lis = xml.find("*");
+		assertEquals(9, lis.filter("li").size());
+		assertEquals(9, lis.filter("li").size());
+		CacheStatistics stats = xml.getPatternCacheStatistics();
+		assertEquals(1, stats.getSize());
+		assertEquals(1, stats.getHitCount());
+		
+		xml.addNamespaceMapping("h", "http://www.w3.org/1999/xhtml");
+		assertEquals(0, xml.getPatternCacheStatistics().getSize());
+		assertEquals(9, lis.filter("li").size());
+	}
+	
 	@Test
 	public void testWriteTo() throws IOException {
 		XML xml = XML.load(getClass().getResource("test_ns.xml"));
@@ -1,6 +1,19 @@
 package net.arnx.xmlic;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import net.arnx.xmlic.internal.org.jaxen.Context;
+import net.arnx.xmlic.internal.org.jaxen.Function;
+import net.arnx.xmlic.internal.org.jaxen.FunctionCallException;
 import net.arnx.xmlic.internal.util.XmlicContext;
 import net.arnx.xmlic.internal.util.XmlicXPath;
 
@@ -18,4 +31,414 @@ public class XPathTest {
 		assertEquals(new XmlicXPath(xcontext, "descendant-or-self::a", false).toString(), new XmlicXPath(xcontext, "descendant-or-self::a", true).toString());
 		assertEquals(new XmlicXPath(xcontext, "descendant-or-self::node()/attribute::*", false).toString(), new XmlicXPath(xcontext, "@*", true).toString());
 	}
+	
+	@Test
+	public void testXPathQuery() throws Exception {
+		XML xml = XML.load(getClass().getResource("test_ns.xml"));
+		XPathQuery query = xml.compile("//html:div/html:ul");
+		xml.removeNamespaceMapping("html");
+		assertEquals(3, query.select(xml.doc()).size());
+		assertTrue(query.exists(xml.doc()));
+		assertEquals(Integer.valueOf(3), xml.compile("count(//*[local-name()='ul'])").evaluate(xml.doc(), Integer.class));
+		
+		XPathQuery ns = XPathQuery.compile("string(//h:ul/@s:class)", 
+				Collections.singletonMap("h", "http://www.w3.org/1999/xhtml"));
+		try {
+			ns.evaluate(xml.doc(), String.class);
+			fail();
+		} catch (IllegalStateException e) {
+			// unresolvable prefix
+		}
+		
+		XPathQuery items = XPathQuery.compile("a/b");
+		XML doc1 = new XML("<r><a><b/><b/></a></r>");
+		XML doc2 = new XML("<a><b/></a>");
+		assertEquals(2, items.select(doc1.root()).size());
+		assertEquals(1, items.select(doc2.doc()).size());
+		assertFalse(items.exists(doc2.root()));
+		assertEquals(doc1, items.select(doc1.root()).owner());
+		assertEquals("a/b", items.toString());
+	}
+	
+	@Test
+	public void testVariables() throws Exception {
+		XML xml = new XML("<r><a id=\"1\">x</a><a id=\"2\">y</a><a id=\"3\">z</a></r>");
+		Map<QName, Object> vars = new HashMap<QName, Object>();
+		vars.put(new QName("id"), "2");
+		assertEquals("y", xml.evaluate("string(/r/a[@id = $id])", vars, String.class));
+		vars.put(new QName("id"), 3);
+		assertEquals(1, xml.select("/r/a[@id = $id]", vars).size());
+		assertEquals("z", xml.select("/r/a[@id = $id]", vars).text());
+		vars.put(new QName("id"), xml.select("/r/a[1]/@id").get(0));
+		assertEquals("x", xml.root().evaluate("string(a[@id = $id])", vars, String.class));
+		
+		XPathQuery query = xml.compile("/r/a[position() > $n]");
+		assertEquals(2, query.select(xml.doc(), Collections.singletonMap(new QName("n"), 1)).size());
+		assertEquals(0, query.select(xml.doc(), Collections.singletonMap(new QName("n"), 3)).size());
+		assertTrue(query.exists(xml.doc(), Collections.singletonMap(new QName("n"), 2.0)));
+		assertEquals("z", query.evaluate(xml.doc(), Collections.singletonMap(new QName("n"), 2), String.class));
+		
+		xml.setXPathCompilation(true);
+		XPathQuery compiled = xml.compile("count(/r/a[@id >= $min])");
+		assertEquals(Integer.valueOf(2), compiled.evaluate(xml.doc(), 
+				Collections.singletonMap(new QName("min"), 2), Integer.class));
+		assertEquals(Integer.valueOf(3), compiled.evaluate(xml.doc(), 
+				Collections.singletonMap(new QName("min"), 1), Integer.class));
+	}
+	
+	@Test
+	public void testNamedAccess() throws Exception {
+		XML xml = XML.load(getClass().getResource("test_ns.xml"));
+		assertEquals(2, xml.find("html:div").size());
+		assertEquals(3, xml.find("html:div/html:ul").size());
+		assertEquals(0, xml.find("html:div/svg:ul").size());
+		assertEquals(0, xml.find("div").size());
+		assertEquals(2, xml.select("//html:div/html:ul/@class").size());
+		assertEquals("s21", xml.evaluate("string(//html:div/html:ul/@svg:class)", String.class));
+		assertEquals(0, xml.select("//html:div/html:ul/@html:class").size());
+		assertEquals(0, xml.select("/html:body/@xmlns:html").size());
+		
+		XML doc = new XML();
+		doc.doc().append("<a x=\"1\"><b/><c/><b y=\"2\"/></a>");
+		assertEquals(2, doc.find("a/b").size());
+		assertEquals("2", doc.evaluate("string(a/b/@y)", String.class));
+		assertEquals("1", doc.evaluate("string(a/@x)", String.class));
+	}
+	
+	@Test
+	public void testPositionalPredicate() throws Exception {
+		XML xml = new XML("<r><a>1</a><b>x</b><a>2</a><a>3</a><c><a>4</a><a>5</a></c></r>");
+		assertEquals("1", xml.evaluate("string(/r/a[1])", String.class));
+		assertEquals("3", xml.evaluate("string(/r/a[last()])", String.class));
+		assertEquals("2", xml.evaluate("string(/r/a[2])", String.class));
+		assertEquals(0, xml.select("/r/a[4]").size());
+		assertEquals(0, xml.select("/r/a[0]").size());
+		assertEquals("2", xml.evaluate("string(/r/a[2][last()][1])", String.class));
+		assertEquals("2", xml.evaluate("string(/r/a[. > 1][1])", String.class));
+		assertEquals("x", xml.evaluate("string(/r/*[2])", String.class));
+		assertEquals("x", xml.evaluate("string(/r/node()[2])", String.class));
+		assertEquals("x", xml.evaluate("string(/r/a[3]/preceding-sibling::*[2])", String.class));
+		assertEquals("x", xml.evaluate("string(/r/a[3]/preceding-sibling::node()[2])", String.class));
+		assertEquals("r", xml.evaluate("name(//c/a[1]/ancestor::*[last()])", String.class));
+		assertEquals("1 4", xml.evaluate("concat(//a[1], ' ', (//c/a)[1])", String.class));
+		assertEquals(2, xml.select("//a[1]").size());
+		assertEquals(2, xml.select("//a[last()]").size());
+		
+		// a replaced last() is not taken as the last position
+		xml.xmlContext.addFunction(null, "last", new Function() {
+			@Override
+			public Object call(Context context, List args) throws FunctionCallException {
+				return 2.0;
+			}
+		});
+		assertEquals("2", xml.evaluate("string(/r/a[last()])", String.class));
+		xml.setXPathCompilation(true);
+		assertEquals("2", xml.evaluate("string(/r/a[last()])", String.class));
+	}
+	
+	@Test
+	public void testLazyEvaluation() throws Exception {
+		XML xml = new XML("<r><a id='1'><b>1</b><a id='2'><b>2</b></a></a><c><a id='3'/></c><b>3</b></r>");
+		XmlicContext xcontext = new XmlicContext();
+		
+		String[] lazy = { "/r/a", "//a", "/r//b", "/r/*/@id", "//@id", "//a[b]", "/r/descendant::a", 
+				"/r/descendant-or-self::*", "./r/a/self::a", "/r/a[@id=1]/a/b" };
+		for (String text : lazy) {
+			XmlicXPath xpath = new XmlicXPath(xcontext, text, false);
+			Iterator<?> i = xpath.iterate(xml.doc().get(0));
+			assertNotNull(text, i);
+			List<Object> actual = new ArrayList<Object>();
+			while (i.hasNext()) actual.add(i.next());
+			assertEquals(text, xpath.selectNodes(xml.doc().get(0)), actual);
+		}
+		
+		String[] eager = { "//a/b", "//a//b", "//a/..", "/r/a | /r/c", "//a/preceding::*", "count(//a)" };
+		for (String text : eager) {
+			assertNull(text, new XmlicXPath(xcontext, text, false).iterate(xml.doc().get(0)));
+		}
+		
+		assertEquals("2", xml.evaluate("string(//a[b = 2]/@id)", String.class));
+		assertEquals(true, xml.evaluate("//a[@id=3]", boolean.class));
+		assertEquals(false, xml.evaluate("//a[@id=4]", boolean.class));
+		assertNull(xml.evaluate("//a[@id=4]", Boolean.class));
+		assertEquals(true, xml.evaluate("boolean(//c/a) and not(//d)", boolean.class));
+		assertEquals(2, xml.select("//a[b]").size());
+		assertEquals(1, xml.select("//a[not(b)]").size());
+		
+		assertEquals("1", xml.doc().selectFirst("//a").attr("id"));
+		assertEquals("3", xml.find("c").selectFirst("a").attr("id"));
+		assertEquals("2", xml.find("a | c").selectFirst("a").attr("id"));
+		assertEquals(0, xml.doc().selectFirst("//d").size());
+	}
+	
+	@Test
+	public void testSetComparison() throws Exception {
+		XML xml = new XML("<r><o c='1'/><o c='2'/><o c='3'/><o c='x'/><v id='2'/><v id='3'/><v id='y'/><s n='5'/><s n='5'/></r>");
+		assertEquals(2, xml.select("//o[@c = //v/@id]").size());
+		assertEquals(4, xml.select("//o[@c != //v/@id]").size());
+		assertEquals(true, xml.evaluate("//o/@c = //v/@id", boolean.class));
+		assertEquals(false, xml.evaluate("//o/@c = //s/@n", boolean.class));
+		assertEquals(false, xml.evaluate("//s/@n != //s/@n", boolean.class));
+		assertEquals(true, xml.evaluate("//s/@n != //o/@c", boolean.class));
+		assertEquals(false, xml.evaluate("//s/@n != 5", boolean.class));
+		assertEquals(true, xml.evaluate("//o/@c = '2.0' or //o/@c = 2.0", boolean.class));
+		assertEquals(false, xml.evaluate("//o/@c = //none", boolean.class));
+		assertEquals(false, xml.evaluate("//o/@c != //none", boolean.class));
+		
+		assertEquals(true, xml.evaluate("//o/@c < //v/@id", boolean.class));
+		assertEquals(false, xml.evaluate("//o/@c > //s/@n", boolean.class));
+		assertEquals(true, xml.evaluate("//o/@c <= 1", boolean.class));
+		assertEquals(false, xml.evaluate("//o/@c < 1", boolean.class));
+		assertEquals(true, xml.evaluate("//o/@c >= //v/@id", boolean.class));
+		assertEquals(false, xml.evaluate("//o/@c > 3", boolean.class));
+		assertEquals(false, xml.evaluate("//v/@id[. = 'y'] < 10", boolean.class));
+		assertEquals(1, xml.select("//o[@c > //v/@id]").size());
+	}
+	
+	@Test
+	public void testNumericExpression() throws Exception {
+		XML xml = new XML("<r><i p='300' q='4'/><i p='50' q='2'/><i p='x' q='9'/><i p='-0.5' q='1'/></r>");
+		assertEquals(1, xml.select("//i[@p * @q > 1000]").size());
+		assertEquals(2, xml.select("//i[@p * @q div 100 >= 1]").size());
+		assertEquals(1, xml.select("//i[@p * @q = 100]").size());
+		assertEquals(3, xml.select("//i[@p * @q != 100]").size());
+		assertEquals(2099.0, xml.evaluate("sum(//i/@q) * 100 - -0.5 * 1000 + 1 - 2", double.class), 0.0);
+		assertEquals(349.5, xml.evaluate("sum(//i[number(@p) = number(@p)]/@p)", double.class), 0.0);
+		assertEquals(Double.NaN, xml.evaluate("sum(//i/@p)", double.class), 0.0);
+		assertEquals(-1.0, xml.evaluate("floor(-0.5) + ceiling(-0.5) + round(-0.5) * 2 mod 3", double.class), 0.0);
+		assertEquals(2, xml.select("//i[round(@p div 100) = 0 or floor(@q div 4) = 1]").size());
+		assertEquals(false, xml.evaluate("-0 >= 0", boolean.class));
+		assertEquals(true, xml.evaluate("-0 = 0", boolean.class));
+		assertEquals(false, xml.evaluate("0 div 0 = 0 div 0", boolean.class));
+		assertEquals(true, xml.evaluate("0 div 0 != 0 div 0", boolean.class));
+		assertEquals(false, xml.evaluate("1 div 0 < 0 div 0", boolean.class));
+	}
+	
+	@Test
+	public void testNamespaceAxis() throws Exception {
+		XML xml = new XML("<r xmlns='u' xmlns:p='v'><p:c xmlns=''><d/></p:c><e/></r>");
+		assertEquals(3, xml.evaluate("count(/*/namespace::*)", int.class).intValue());
+		assertEquals(2, xml.evaluate("count(//*[local-name()='d']/namespace::*)", int.class).intValue());
+		assertEquals(3, xml.evaluate("count(//*[local-name()='e']/namespace::*)", int.class).intValue());
+		assertEquals("u", xml.evaluate("string(//*[local-name()='e']/namespace::*[name()=''])", String.class));
+		assertEquals("", xml.evaluate("string(//*[local-name()='d']/namespace::*[name()=''])", String.class));
+		assertEquals(3, xml.evaluate("count(//*[local-name()='e']/namespace::* | //*[local-name()='e']/namespace::*)", int.class).intValue());
+		
+		org.w3c.dom.Element d = (org.w3c.dom.Element)xml.get().getElementsByTagName("d").item(0);
+		d.setAttributeNS("http://www.w3.org/2000/xmlns/", "xmlns:q", "w");
+		assertEquals(3, xml.evaluate("count(//*[local-name()='d']/namespace::*)", int.class).intValue());
+		assertEquals("w", xml.evaluate("string(//*[local-name()='d']/namespace::*[name()='q'])", String.class));
+		d.removeAttributeNS("http://www.w3.org/2000/xmlns/", "q");
+		assertEquals(2, xml.evaluate("count(//*[local-name()='d']/namespace::*)", int.class).intValue());
+	}
+	
+	@Test
+	public void testCompilation() throws Exception {
+		XML xml = new XML("<r xmlns:p='urn:p'><!--c--><a id='1' n='3'>t<b id='2'>10</b><b id='3'>20</b></a>"
+				+ "<a id='4' n='5'><b id='5'> 7 </b><p:b id='6'>NaN</p:b><a id='7'><b id='8'>3</b></a></a></r>");
+		xml.addNamespaceMapping("p", "urn:p");
+		
+		String[] texts = { "//b", "//a//b", "/r/a[last()]/b[1]", "//b[2]", "//b[last()]", "//a/@*", "//b/ancestor::*",
+				"//b/preceding-sibling::*[1]", "(//a | //b)[3]", "//p:b", "//b[. > 5]", "//b[. = //a/@n]", "//a[b = 3]",
+				"//b[position() > 1][1]", "count(//b) * 2 - -1", "sum(//b[number(.) = number(.)]) div 2", "0 div 0",
+				"//b = 7", "//b != 10", "//zz = false()", "boolean(//zz) or not(//a)", "contains(//a, '10')",
+				"string(//b[@id = 5])", "//text() | //comment()", "//b/.. | //b/@id", "-0 >= 0" };
+		for (String text : texts) {
+			xml.setXPathCompilation(false);
+			Object expected = xml.evaluate(text, Object.class);
+			xml.setXPathCompilation(true);
+			assertEquals(text, expected, xml.evaluate(text, Object.class));
+		}
+		
+		// prefixes and functions are resolved again when they change
+		assertEquals(1, xml.select("//p:b").size());
+		xml.addNamespaceMapping("p", "urn:q");
+		assertEquals(0, xml.select("//p:b").size());
+		
+		assertEquals(4, xml.evaluate("count(//b)", int.class).intValue());
+		xml.xmlContext.addFunction(null, "count", new Function() {
+			@Override
+			public Object call(Context context, List args) throws FunctionCallException {
+				return 42.0;
+			}
+		});
+		assertEquals(42, xml.evaluate("count(//b)", int.class).intValue());
+	}
+	
+	@Test
+	public void testOptimization() throws Exception {
+		XML xml = new XML("<r><a><b/><b/></a><a><b/>t</a><c/></r>");
+		
+		assertEquals("3.0", new XmlicXPath(xml.xmlContext, "1 + 2", false).getText());
+		assertEquals("\"ab\"", new XmlicXPath(xml.xmlContext, "concat('a', substring('xbx', 2, 1))", false).getText());
+		assertEquals("true()", new XmlicXPath(xml.xmlContext, "1 < 2 and not(false())", false).getText());
+		assertEquals("boolean(/descendant::a)", new XmlicXPath(xml.xmlContext, "count(//a) > 0", false).getText());
+		assertEquals("not(child::b)", new XmlicXPath(xml.xmlContext, "0 = count(b)", false).getText());
+		assertEquals("(count(child::b) = 1.0)", new XmlicXPath(xml.xmlContext, "count(b) = 1", false).getText());
+		assertEquals("/descendant::a", new XmlicXPath(xml.xmlContext, "//a", false).getText());
+		assertEquals("/descendant-or-self::node()/child::b[1.0]", new XmlicXPath(xml.xmlContext, "//b[1]", false).getText());
+		assertEquals("/descendant::b", new XmlicXPath(xml.xmlContext, "//b[1 = 1]", false).getText());
+		
+		assertEquals(3, xml.select("//b").size());
+		assertEquals(2, xml.select("//b[1]").size());
+		assertEquals(3, xml.select("//b[1 = 1]").size());
+		assertEquals(3, xml.select("//node()[2]").size());
+		assertEquals(1, xml.select("//node()/preceding-sibling::node()[2]").size());
+		assertEquals(1, xml.select("//a/b[1 + 1]").size());
+		assertEquals(true, xml.evaluate("count(//b) > 0", boolean.class));
+		assertEquals(true, xml.evaluate("0 = count(//c/b)", boolean.class));
+		assertEquals(true, xml.evaluate("count(//b) != 0.5", boolean.class));
+		assertEquals(false, xml.evaluate("-3 = count(//b)", boolean.class));
+		assertEquals(true, xml.evaluate("1 div 0 > count(//b)", boolean.class));
+		assertEquals(4.0, xml.evaluate("string-length(concat('a', 'b')) * 2", double.class), 0.0);
+		
+		// the optimization is done again when the functions change
+		xml.xmlContext.addFunction(null, "count", new Function() {
+			@Override
+			public Object call(Context context, List args) throws FunctionCallException {
+				return -1.0;
+			}
+		});
+		assertEquals("(count(/descendant::a) > 0.0)", new XmlicXPath(xml.xmlContext, "count(//a) > 0", false).getText());
+		assertEquals(false, xml.evaluate("count(//a) > 0", boolean.class));
+	}
+	
+	@Test
+	public void testBinding() throws Exception {
+		XML xml = new XML("<r xmlns:p='urn:p' xmlns:q='urn:q'><p:a>1</p:a><q:a>2</q:a><q:a>3</q:a></r>");
+		xml.addNamespaceMapping("p", "urn:p");
+		xml.addNamespaceMapping("f", "urn:f");
+		xml.xmlContext.addFunction("urn:f", "size", new Function() {
+			@Override
+			public Object call(Context context, List args) throws FunctionCallException {
+				return (double)((List<?>)args.get(0)).size();
+			}
+		});
+		
+		for (boolean compilation : new boolean[] { false, true }) {
+			xml.setXPathCompilation(compilation);
+			xml.addNamespaceMapping("p", "urn:p");
+			assertEquals(1, xml.evaluate("f:size(//p:a)", int.class).intValue());
+			assertEquals(1, xml.evaluate("f:size(//p:a)", int.class).intValue());
+			assertEquals("1", xml.evaluate("string(//*[self::p:a])", String.class));
+			
+			// the prefixes and the functions are bound again when they change
+			xml.addNamespaceMapping("p", "urn:q");
+			assertEquals(2, xml.evaluate("f:size(//p:a)", int.class).intValue());
+			assertEquals("2", xml.evaluate("string(//*[self::p:a])", String.class));
+		}
+		
+		xml.xmlContext.addFunction("urn:f", "size", new Function() {
+			@Override
+			public Object call(Context context, List args) throws FunctionCallException {
+				return -1.0;
+			}
+		});
+		assertEquals(-1, xml.evaluate("f:size(//p:a)", int.class).intValue());
+		xml.setXPathCompilation(false);
+		assertEquals(-1, xml.evaluate("f:size(//p:a)", int.class).intValue());
+	}
+	
+	@Test
+	public void testInvariant() throws Exception {
+		XML xml = new XML("<r max='2'><b id='1'/><b id='2'/><b id='3'/><c><b id='2'/></c></r>");
+		assertEquals("/descendant::b[(attribute::id = /attribute::max)]", 
+				new XmlicXPath(xml.xmlContext, "//b[@id = /@max]", false).getText());
+		
+		for (boolean compilation : new boolean[] { false, true }) {
+			xml.setXPathCompilation(compilation);
+			xml.select("/r").attr("max", "2");
+			xml.xmlContext.addVariable(null, "n", 2.0);
+			xml.xmlContext.addVariable(null, "id", "3");
+			
+			assertEquals("[2, 2]", ids(xml.select("//b[@id = /r/@max]")));
+			assertEquals("[]", ids(xml.select("//b[@id < /r/@max - count(/r/c)]")));
+			assertEquals("[2]", ids(xml.select("/r/b[$n]")));
+			assertEquals("[3]", ids(xml.select("//b[@id = $id]")));
+			assertEquals("[2]", ids(xml.select("//c/b[/r/@max = 2]")));
+			assertEquals("[1, 2, 3, 2]", ids(xml.select("//b[/r]")));
+			
+			// the values are evaluated again for each evaluation
+			xml.select("/r").attr("max", "3");
+			xml.xmlContext.addVariable(null, "n", 1.0);
+			xml.xmlContext.addVariable(null, "id", "1");
+			assertEquals("[3]", ids(xml.select("//b[@id = /r/@max]")));
+			assertEquals("[1]", ids(xml.select("//b[@id < /r/@max - count(/r/c)]")));
+			assertEquals("[1]", ids(xml.select("/r/b[$n]")));
+			assertEquals("[1]", ids(xml.select("//b[@id = $id]")));
+			assertEquals("[]", ids(xml.select("//c/b[/r/@max = 2]")));
+		}
+	}
+	
+	@Test
+	public void testUnion() throws Exception {
+		XML xml = new XML("<r xmlns:p='urn:p'><a id='1'><b id='2'/></a><b id='3'><a id='4'/></b><c id='5'/></r>");
+		for (boolean compilation : new boolean[] { false, true }) {
+			xml.setXPathCompilation(compilation);
+			assertEquals("[1, 2, 3, 4, 5]", ids(xml.select("//c | //a | //b | //a")));
+			assertEquals("[1, 2, 3, 4]", ids(xml.select("(//b | //a)[@id < 5] | //b")));
+			assertEquals("[2, 4]", ids(xml.select("//b/* | //a/*")));
+			
+			// attributes come after their element and before its children
+			List<String> names = new ArrayList<String>();
+			for (org.w3c.dom.Node node : xml.select("//b | //a/@id | /r/@* | //c")) {
+				names.add(node.getNodeName());
+			}
+			assertEquals("[id, b, b, id, c]", names.toString());
+			
+			// namespace nodes are the same if they have the same parent and prefix
+			int count = xml.evaluate("count(//namespace::*)", int.class);
+			assertEquals(count, xml.evaluate("count(//namespace::* | //namespace::*)", int.class).intValue());
+			assertEquals(count + 2, xml.evaluate("count(//namespace::* | //a | //a/namespace::*)", int.class).intValue());
+		}
+	}
+	
+	@Test
+	public void testElementIndex() throws Exception {
+		String text = "<r xmlns:p='urn:p'><a><b id='1'/><a><b id='2'/><p:b id='3'/></a></a>"
+				+ "<b id='4'><c><b id='5'/></c></b><p:a><b id='6'/></p:a></r>";
+		String[] exprs = { "//b", "//p:b", "//a//b", "//a/descendant-or-self::a", "/r/b/descendant-or-self::b",
+				"//b[2]", "//a/descendant::b[1]", "//b[@id > 2]", "//zz", "//c//b | //p:a//b", "//@id/descendant::b" };
+		
+		XML xml = new XML(text);
+		xml.addNamespaceMapping("p", "urn:p");
+		List<String> expected = new ArrayList<String>();
+		for (String expr : exprs) {
+			expected.add(ids(xml.select(expr)));
+		}
+		
+		xml.setElementIndex(true);
+		for (int i = 0; i < exprs.length; i++) {
+			assertEquals(exprs[i], expected.get(i), ids(xml.select(exprs[i])));
+			xml.setXPathCompilation(true);
+			assertEquals(exprs[i], expected.get(i), ids(xml.select(exprs[i])));
+			xml.setXPathCompilation(false);
+		}
+		assertEquals("[1, 2, 4, 5, 6]", expected.get(0));
+		assertEquals("[1, 2]", expected.get(6));
+		assertEquals("[1, 2]", ids(xml.find("a").find("b")));
+		
+		// the index is dropped when the document is modified
+		xml.find("c").append("<b id='7'/>");
+		assertEquals("[1, 2, 4, 5, 7, 6]", ids(xml.find("b")));
+		assertEquals("[5, 7]", ids(xml.find("c").find("b")));
+		xml.select("//b[@id='4']").remove();
+		assertEquals("[1, 2, 6]", ids(xml.find("b")));
+		
+		// and when it is modified directly through the DOM
+		org.w3c.dom.Element b = xml.get().createElement("b");
+		b.setAttribute("id", "8");
+		xml.get().getDocumentElement().appendChild(b);
+		assertEquals("[1, 2, 6, 8]", ids(xml.find("b")));
+		b.getParentNode().removeChild(b);
+		assertEquals("[1, 2, 6]", ids(xml.select("//b")));
+	}
+	
+	private static String ids(Nodes nodes) {
+		List<String> ids = new ArrayList<String>();
+		for (org.w3c.dom.Node node : nodes) {
+			ids.add(((org.w3c.dom.Element)node).getAttribute("id"));
+		}
+		return ids.toString();
+	}
 }
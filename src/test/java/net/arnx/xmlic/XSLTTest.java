@@ -2,7 +2,25 @@ package net.arnx.xmlic;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.TransformerException;
 
 import org.junit.Test;
 
@@ -25,6 +43,169 @@ public class XSLTTest {
 		}
 	}
 	
+	@Test
+	public void testCache() throws IOException {
+		File file = File.createTempFile("xmlic", ".xsl");
+		try {
+			write(file, "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\"><xsl:template match=\"/\"><a/></xsl:template></xsl:stylesheet>");
+			file.setLastModified(1000000000000L);
+			
+			XSLT xslt1 = XSLT.load(file);
+			long hits = XSLT.getCacheStatistics().getHitCount();
+			XSLT xslt2 = XSLT.load(file);
+			assertEquals(hits + 1, XSLT.getCacheStatistics().getHitCount());
+			assertSame(xslt1.getTemplates(), xslt2.getTemplates());
+			assertEquals("<a/>", xslt2.transform(new XML("<x/>")).toString());
+			
+			write(file, "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\"><xsl:template match=\"/\"><b/></xsl:template></xsl:stylesheet>");
+			file.setLastModified(1000000001000L);
+			
+			XSLT xslt3 = XSLT.load(file);
+			assertNotSame(xslt1.getTemplates(), xslt3.getTemplates());
+			assertEquals("<b/>", xslt3.transform(new XML("<x/>")).toString());
+		} finally {
+			file.delete();
+		}
+	}
+	
+	@Test
+	public void testCacheWithInclude() throws IOException {
+		File main = File.createTempFile("xmlic", ".xsl");
+		File sub = new File(main.getParentFile(), main.getName().replace(".xsl", "_sub.xsl"));
+		try {
+			write(main, "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\"><xsl:include href=\"" + sub.getName() + "\"/></xsl:stylesheet>");
+			main.setLastModified(1000000000000L);
+			write(sub, "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\"><xsl:template match=\"/\"><a/></xsl:template></xsl:stylesheet>");
+			sub.setLastModified(1000000000000L);
+			
+			XSLT xslt1 = XSLT.load(main);
+			XSLT xslt2 = XSLT.load(main);
+			assertSame(xslt1.getTemplates(), xslt2.getTemplates());
+			assertEquals("<a/>", xslt2.transform(new XML("<x/>")).toString());
+			
+			write(sub, "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\"><xsl:template match=\"/\"><b/></xsl:template></xsl:stylesheet>");
+			sub.setLastModified(1000000001000L);
+			
+			XSLT xslt3 = XSLT.load(main);
+			assertNotSame(xslt1.getTemplates(), xslt3.getTemplates());
+			assertEquals("<b/>", xslt3.transform(new XML("<x/>")).toString());
+		} finally {
+			main.delete();
+			sub.delete();
+		}
+	}
+	
+	@Test
+	public void testConcurrentTransform() throws Exception {
+		final XSLT xslt = XSLT.load(getClass().getResource("test.xsl"));
+		final XML xml = XML.load(getClass().getResource("test.xml"));
+		final String expected = xslt.transform(xml).toString();
+		
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for (int i = 0; i < 20; i++) {
+				results.add(executor.submit(new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						return xslt.transform(xml).toString();
+					}
+				}));
+			}
+			for (Future<String> result : results) {
+				assertEquals(expected, result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	@Test
+	public void testStreamTransform() throws IOException {
+		XSLT xslt = XSLT.load(new StringReader("<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\"><xsl:output method=\"xml\" omit-xml-declaration=\"yes\" encoding=\"UTF-8\"/><xsl:template match=\"/\"><a><xsl:value-of select=\"x\"/></a></xsl:template></xsl:stylesheet>"));
+		
+		StringWriter writer = new StringWriter();
+		xslt.transform(new XML("<x>\u3042</x>"), writer);
+		assertEquals("<a>\u3042</a>", writer.toString());
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		xslt.transform(new XML("<x>\u3042</x>"), out);
+		assertEquals("<a>\u3042</a>", new String(out.toByteArray(), "UTF-8"));
+		
+		out = new ByteArrayOutputStream();
+		xslt.transform(new ByteArrayInputStream("<x>\u3042</x>".getBytes("UTF-8")), out);
+		assertEquals("<a>\u3042</a>", new String(out.toByteArray(), "UTF-8"));
+		
+		writer = new StringWriter();
+		xslt.transform(new StringReader("<x>\u3042</x>"), writer);
+		assertEquals("<a>\u3042</a>", writer.toString());
+		
+		try {
+			xslt.transform(new StringReader("<x>"), new StringWriter());
+			fail();
+		} catch (XMLException e) {
+			assertNotNull(e);
+		}
+	}
+	
+	@Test
+	public void testTransformerSettings() throws Exception {
+		XSLT xslt = XSLT.load(new StringReader("<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\"><xsl:param name=\"p\" select=\"'none'\"/><xsl:template match=\"/\"><a><xsl:value-of select=\"$p\"/></a></xsl:template></xsl:stylesheet>"));
+		assertSame(xslt.get(), xslt.get());
+		
+		StringWriter writer = new StringWriter();
+		xslt.transform(new XML("<x/>"), writer);
+		assertTrue(writer.toString().endsWith("<a>none</a>"));
+		
+		xslt.get().setParameter("p", "value");
+		xslt.get().setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+		assertEquals("value", xslt.get().getParameter("p"));
+		assertEquals("yes", xslt.get().getOutputProperty(OutputKeys.OMIT_XML_DECLARATION));
+		
+		writer = new StringWriter();
+		xslt.transform(new XML("<x/>"), writer);
+		assertEquals("<a>value</a>", writer.toString());
+		assertEquals("<a>value</a>", xslt.transform(new XML("<x/>")).toString());
+		
+		final List<TransformerException> messages = new ArrayList<TransformerException>();
+		xslt.get().setErrorListener(new ErrorListener() {
+			@Override
+			public void warning(TransformerException e) {
+				messages.add(e);
+			}
+			
+			@Override
+			public void error(TransformerException e) {
+				messages.add(e);
+			}
+			
+			@Override
+			public void fatalError(TransformerException e) {
+				messages.add(e);
+			}
+		});
+		try {
+			xslt.transform(new StringReader("<x>"), new StringWriter());
+			fail();
+		} catch (XMLException e) {
+			assertFalse(messages.isEmpty());
+		}
+		
+		xslt.get().clearParameters();
+		writer = new StringWriter();
+		xslt.transform(new XML("<x/>"), writer);
+		assertEquals("<a>none</a>", writer.toString());
+	}
+	
+	private static void write(File file, String text) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			writer.write(text);
+		} finally {
+			writer.close();
+		}
+	}
+	
 	@Test
 	public void testStylesheet() throws IOException {
 		assertNull(XML.load(getClass().getResource("test.xml")).stylesheet());